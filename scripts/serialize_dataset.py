@@ -17,6 +17,10 @@ def main():
         dataset_serializer.extend(['-m', args.edges_file_separator])
     if args.vertices_file_separator:
         dataset_serializer.extend(['-n', args.vertices_file_separator])
+    if args.num_threads:
+        dataset_serializer.extend(['-t', args.num_threads])
+    if args.compress:
+        dataset_serializer.append('-z')
 
     # SerializeDatasetRunner from
     # Graphflow-Optimizers/src/ca.waterloo.dsg.graphflow.runner.
@@ -43,6 +47,10 @@ def parse_args():
         help='csv separator in the input edges csv file.')
     parser.add_argument('-s', '--vertices_file_separator',
         help='csv separator in the input vertices csv file.')
+    parser.add_argument('-t', '--num_threads',
+        help='number of threads used to load the csv files.')
+    parser.add_argument('-z', '--compress', action='store_true',
+        help='store the adjacency lists compressed.')
     return parser.parse_args()
 
 if __name__ == '__main__':
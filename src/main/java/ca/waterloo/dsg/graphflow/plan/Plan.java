@@ -1,15 +1,20 @@
 package ca.waterloo.dsg.graphflow.plan;
 
+import ca.waterloo.dsg.graphflow.plan.operator.CancellationToken;
 import ca.waterloo.dsg.graphflow.plan.operator.Operator;
 import ca.waterloo.dsg.graphflow.plan.operator.Operator.LimitExceededException;
+import ca.waterloo.dsg.graphflow.plan.operator.extend.EI;
 import ca.waterloo.dsg.graphflow.plan.operator.hashjoin.Build;
 import ca.waterloo.dsg.graphflow.plan.operator.hashjoin.HashTable;
 import ca.waterloo.dsg.graphflow.plan.operator.hashjoin.Probe;
 import ca.waterloo.dsg.graphflow.plan.operator.scan.Scan;
 import ca.waterloo.dsg.graphflow.plan.operator.scan.ScanSampling;
+import ca.waterloo.dsg.graphflow.plan.operator.sink.MatchConsumer;
+import ca.waterloo.dsg.graphflow.plan.operator.sink.OutputLimit;
 import ca.waterloo.dsg.graphflow.plan.operator.sink.Sink;
 import ca.waterloo.dsg.graphflow.plan.operator.sink.Sink.SinkType;
 import ca.waterloo.dsg.graphflow.plan.operator.sink.SinkLimit;
+import ca.waterloo.dsg.graphflow.plan.operator.sink.SinkStream;
 import ca.waterloo.dsg.graphflow.storage.Graph;
 import ca.waterloo.dsg.graphflow.storage.KeyStore;
 import ca.waterloo.dsg.graphflow.util.IOUtils;
@@ -19,6 +24,7 @@ import lombok.Setter;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +41,17 @@ public class Plan implements Serializable {
     @Getter public ScanSampling scanSampling;
     @Getter private Operator lastOperator;
     @Setter public int outTuplesLimit;
+    // the count of the output tuples of a limited plan, shared by the copies of the plan.
+    @Getter @Setter transient private OutputLimit outputLimit;
+    // cancels the plan, null if it cannot be cancelled.
+    transient private CancellationToken cancellationToken;
+    // the consumer of the matches of a plan streaming them.
+    @Setter transient private MatchConsumer matchConsumer;
+    // the number of tuples in the batches exchanged by the operators, 0 to push them one at a time.
+    @Getter @Setter private int batchSize = 0;
+    // the bytes of memory the tuples hashed by a build can take before partitions are spilled to
+    // disk, 0 for no budget.
+    @Getter @Setter private long hashTableMemoryBudget = 0;
 
     @Getter private double elapsedTime = 0;
     @Getter private long icost = 0;
@@ -44,10 +61,27 @@ public class Plan implements Serializable {
         Long /* i-cost */, Long /* number output tuples */>> operatorMetrics = new ArrayList<>();
 
     private boolean executed = false;
-    @Getter private boolean adaptiveEnabled = false;
+    @Getter @Setter private boolean adaptiveEnabled = false;
 
     @Getter List<Operator> subplans = new ArrayList<>();
     private List<Probe> probes;
+    // the hash tables built and the vertices they have tuples hashed on, per hash join ID.
+    transient private Map<Integer, HashTable> hashTables;
+    transient private Map<Integer, BitSet> hashedVertices;
+    // reached once each build subplan is executed, null if none.
+    @Setter transient private BuildCheckpoint buildCheckpoint;
+
+    /**
+     * A checkpoint reached once a build subplan is executed and its hash table built, before the
+     * subplans left are executed, e.g. to re-plan them.
+     */
+    public interface BuildCheckpoint {
+
+        /**
+         * @param buildIdx is the index of the build subplan executed.
+         */
+        void reach(int buildIdx);
+    }
 
     @Getter @Setter double estimatedICost;
     @Getter @Setter double estimatedNumOutTuples;
@@ -113,27 +147,59 @@ public class Plan implements Serializable {
      * Executes the {@link Plan}.
      */
     public void execute() {
-        if (SinkType.LIMIT != sinkType) {
-            var startTime = System.nanoTime();
-            try {
-                for (var subplan : subplans) {
-                    subplan.execute();
-                }
-            } catch (LimitExceededException e) {} // never thrown.
-            elapsedTime = IOUtils.getElapsedTimeInMillis(startTime);
-        } else {
-            ((SinkLimit) sink).setStartTime(System.nanoTime());
-            try {
-                for (var subplan : subplans) {
-                    subplan.execute();
-                }
-            } catch (LimitExceededException e) {} // never thrown.
-            elapsedTime = ((SinkLimit) sink).getElapsedTime();
+        var startTime = System.nanoTime();
+        if (SinkType.LIMIT == sinkType) {
+            outputLimit.setStartTime(startTime);
         }
+        try {
+            executeSubplans();
+        } catch (LimitExceededException e) {} // thrown once the limit is reached or cancelled.
+        sink.flush();
+        // the time of a limited plan is the time to output as many tuples as the limit.
+        elapsedTime = SinkType.LIMIT == sinkType && outputLimit.isReached() ?
+            outputLimit.getElapsedTime() : IOUtils.getElapsedTimeInMillis(startTime);
+        deleteSpilledPartitions();
         executed = true;
         numOutTuples = sink.getNumOutTuples();
     }
 
+    private void executeSubplans() throws LimitExceededException {
+        for (var i = 0; i < subplans.size() && !isCancelled(); i++) {
+            subplans.get(i).execute();
+            processSpilledTuples(i);
+            if (i < subplans.size() - 1) {
+                // the hash table built is laid out for probing once all its tuples are hashed.
+                var build = (Build) subplans.get(i);
+                var hashTable = HashTable.makeMerged(new HashTable[] { build.getHashTable() });
+                hashTable.merge(0 /* first partition */, hashTable.getNumPartitions());
+                setProbeHashTable(build.getID(), hashTable, hashTable.getHashedVertices());
+                if (null != buildCheckpoint) {
+                    buildCheckpoint.reach(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the token cancelling the plan to the operators of its subplans. The scans check it
+     * between the edges they scan and the operators extending or probing tuples between their
+     * input tuples.
+     *
+     * @param cancellationToken is the token cancelling the plan.
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+        for (var subplan : subplans) {
+            for (var operator = subplan; null != operator; operator = operator.getPrev()) {
+                operator.setCancellationToken(cancellationToken);
+            }
+        }
+    }
+
+    private boolean isCancelled() {
+        return null != cancellationToken && cancellationToken.isCancelled();
+    }
+
     /**
      * Initialize the plan by initializing all of its operators.
      *
@@ -141,11 +207,59 @@ public class Plan implements Serializable {
      * @param store is the labels and types key store.
      */
     public void init(Graph graph, KeyStore store) {
+        initSink();
+        probes = new ArrayList<>();
+        hashTables = new HashMap<>();
+        hashedVertices = new HashMap<>();
+        initSubplans(0 /* first subplan */, graph, store);
+    }
+
+    /**
+     * Replaces the subplans left to execute once some build subplans are executed, e.g. with the
+     * subplans re-planned. The new subplans are to be initialized with
+     * {@link #initSubplansLeft(int, Graph, KeyStore)}.
+     *
+     * @param numSubplansExecuted is the number of subplans executed, all kept.
+     * @param newSubplans are the subplans to execute next.
+     */
+    public void replaceSubplans(int numSubplansExecuted, List<Operator> newSubplans) {
+        subplans = new ArrayList<>(subplans.subList(0, numSubplansExecuted));
+        subplans.addAll(newSubplans);
+        lastOperator = subplans.get(subplans.size() - 1);
+        if (null != cancellationToken) {
+            setCancellationToken(cancellationToken);
+        }
+    }
+
+    /**
+     * Initializes the subplans left to execute once they replace the ones planned. The hash
+     * tables built are set to the probes of the new subplans with the same hash join IDs.
+     *
+     * @param numSubplansExecuted is the number of subplans executed.
+     * @param graph is the input data graph.
+     * @param store is the labels and types key store.
+     */
+    public void initSubplansLeft(int numSubplansExecuted, Graph graph, KeyStore store) {
+        initSink();
+        probes = new ArrayList<>();
+        initSubplans(numSubplansExecuted, graph, store);
+        for (var ID : hashTables.keySet()) {
+            setProbeHashTable(ID, hashTables.get(ID), hashedVertices.get(ID));
+        }
+    }
+
+    private void initSink() {
         var lastOperator = subplans.get(subplans.size() - 1);
         var queryGraph = lastOperator.getOutSubgraph();
         switch(sinkType) {
             case LIMIT:
-                sink = new SinkLimit(queryGraph, outTuplesLimit);
+                if (null == outputLimit) {
+                    outputLimit = new OutputLimit(outTuplesLimit);
+                }
+                sink = new SinkLimit(queryGraph, outputLimit);
+                break;
+            case STREAM:
+                sink = new SinkStream(queryGraph, matchConsumer);
                 break;
             case COUNTER:
             default:
@@ -154,8 +268,14 @@ public class Plan implements Serializable {
         }
         sink.setPrev(lastOperator);
         lastOperator.setNext(sink);
-        probes = new ArrayList<>();
-        for (int i = 1; i < subplans.size(); i++) {
+    }
+
+    /**
+     * Initializes the subplans from the given one on, i.e. lists their probes, allocates the hash
+     * tables of their builds and initializes their operators.
+     */
+    private void initSubplans(int fromSubplanIdx, Graph graph, KeyStore store) {
+        for (int i = Math.max(1, fromSubplanIdx); i < subplans.size(); i++) {
             var operator = subplans.get(i);
             if (operator instanceof Probe) {
                 probes.add((Probe) operator);
@@ -167,12 +287,14 @@ public class Plan implements Serializable {
                 }
             }
         }
-        for (int i = 0; i < subplans.size() - 1; i++) {
+        for (int i = fromSubplanIdx; i < subplans.size() - 1; i++) {
             var build = (Build) subplans.get(i);
-            var hashTable = new HashTable(build.getBuildHashIdx(), build.getHashedTupleLen());
+            var hashTable = new HashTable(build.getBuildHashIdx(), build.getHashedTupleLen(),
+                build.getKeyIndices());
+            hashTable.setMemoryBudget(hashTableMemoryBudget);
             build.setHashTable(hashTable);
         }
-        for (var subplan : subplans) {
+        for (var subplan : subplans.subList(fromSubplanIdx, subplans.size())) {
             var probeTuple = new int[subplan.getOutTupleLen()];
             var firstOperator = subplan;
             while (null != firstOperator.getPrev()) {
@@ -180,12 +302,85 @@ public class Plan implements Serializable {
             }
             firstOperator.init(probeTuple, graph, store);
         }
+        // the limit is checked on each output tuple, so such plans are not batched.
+        if (batchSize > 0 && SinkType.LIMIT != sinkType) {
+            for (var subplan : subplans.subList(fromSubplanIdx, subplans.size())) {
+                var firstOperator = subplan;
+                while (null != firstOperator.getPrev()) {
+                    firstOperator = firstOperator.getPrev();
+                }
+                firstOperator.initBatches(batchSize);
+            }
+        }
+    }
+
+    /**
+     * @param subplanIdx is the index of the subplan.
+     * @return The probes of the subplan, each listed before the probes following it.
+     */
+    List<Probe> getProbes(int subplanIdx) {
+        var subplanProbes = new ArrayList<Probe>();
+        for (var operator = subplans.get(subplanIdx); null != operator;
+             operator = operator.getPrev()) {
+            if (operator instanceof Probe) {
+                subplanProbes.add(0, (Probe) operator);
+            }
+        }
+        return subplanProbes;
+    }
+
+    /**
+     * Processes the tuples the probes of a subplan spilled to disk once the subplan is executed.
+     * The probes are processed in order as the tuples of a probe may be spilled by the next.
+     *
+     * @param subplanIdx is the index of the subplan.
+     */
+    void processSpilledTuples(int subplanIdx) throws LimitExceededException {
+        for (var probe : getProbes(subplanIdx)) {
+            probe.processSpilledTuples(probe);
+        }
     }
 
-    void setProbeHashTables(int ID, HashTable[] hashTables) {
+    /**
+     * Deletes the partitions of the hash tables spilled to disk, once the plan is executed.
+     */
+    void deleteSpilledPartitions() {
         for (var probe : probes) {
-            if (probe.getID() == ID) {
-                probe.setHashTables(hashTables);
+            if (null != probe.getHashTable()) {
+                probe.getHashTable().deleteSpilledPartitions();
+            }
+        }
+    }
+
+    /**
+     * Sets the hash table built to the probes of the given ID. The vertices the table has tuples
+     * hashed on are set to the operator binding the probed query vertex, if a scan or extend
+     * not pushing to the probe directly, to prune the tuples the probe would not match early.
+     *
+     * @param ID is the ID of the hash join.
+     * @param hashTable is the hash table built.
+     * @param hashedVertices are the vertices the table has tuples hashed on.
+     */
+    void setProbeHashTable(int ID, HashTable hashTable, BitSet hashedVertices) {
+        hashTables.put(ID, hashTable);
+        this.hashedVertices.put(ID, hashedVertices);
+        for (var probe : probes) {
+            if (probe.getID() != ID) {
+                continue;
+            }
+            probe.setHashTable(hashTable);
+            var probedQVertex = probe.getJoinQVertices().get(0);
+            Operator firstBinding = null;
+            for (var operator = probe.getPrev(); null != operator &&
+                     null != operator.getOutQVertexToIdxMap() &&
+                     operator.getOutQVertexToIdxMap().containsKey(probedQVertex);
+                 operator = operator.getPrev()) {
+                firstBinding = operator;
+            }
+            if (firstBinding != probe.getPrev() &&
+                    (firstBinding instanceof Scan || firstBinding instanceof EI)) {
+                firstBinding.setHashedVertices(hashedVertices,
+                    firstBinding.getOutQVertexToIdxMap().get(probedQVertex));
             }
         }
     }
@@ -261,7 +456,14 @@ public class Plan implements Serializable {
         for (var subplan : this.subplans) {
             subplans.add(subplan.copy(isThreadSafe));
         }
-        return new Plan(subplans);
+        var plan = new Plan(subplans);
+        plan.batchSize = batchSize;
+        plan.hashTableMemoryBudget = hashTableMemoryBudget;
+        plan.sinkType = sinkType;
+        plan.outTuplesLimit = outTuplesLimit;
+        plan.matchConsumer = matchConsumer;
+        plan.adaptiveEnabled = adaptiveEnabled;
+        return plan;
     }
 
     /**
@@ -0,0 +1,101 @@
+package ca.waterloo.dsg.graphflow.plan;
+
+import lombok.Getter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-lived pool of threads shared by the {@link Workers} of the queries executed concurrently.
+ * A query is admitted once as many threads as it executes with are free, so the queries never
+ * use more threads than the pool has and the threads are not created for each query. The number
+ * of threads of a query is bounded by a per-query parallelism budget.
+ */
+public class WorkerPool {
+
+    private static WorkerPool defaultPool;
+
+    private ExecutorService executor;
+    private Semaphore freeThreads;
+    @Getter private int numThreads;
+    @Getter private int maxNumThreadsPerQuery;
+
+    /**
+     * Constructs a {@link WorkerPool} object.
+     *
+     * @param numThreads is the number of threads of the pool.
+     * @param maxNumThreadsPerQuery is the largest number of threads a query executes with.
+     */
+    public WorkerPool(int numThreads, int maxNumThreadsPerQuery) {
+        if (numThreads < 1 || maxNumThreadsPerQuery < 1) {
+            throw new IllegalArgumentException("The number of threads should be positive.");
+        }
+        this.numThreads = numThreads;
+        this.maxNumThreadsPerQuery = Math.min(maxNumThreadsPerQuery, numThreads);
+        var nextThreadId = new AtomicInteger(0);
+        this.executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+            var thread = new Thread(runnable, "worker-" + nextThreadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // fair so that queries needing many threads are not starved by smaller ones.
+        this.freeThreads = new Semaphore(numThreads, true /* fair */);
+    }
+
+    /**
+     * @return The pool shared by default, with a thread per available processor.
+     */
+    public static synchronized WorkerPool getDefault() {
+        if (null == defaultPool) {
+            var numProcessors = Runtime.getRuntime().availableProcessors();
+            defaultPool = new WorkerPool(numProcessors, numProcessors);
+        }
+        return defaultPool;
+    }
+
+    /**
+     * @param numThreads is the number of threads requested for a query.
+     * @return The number of threads the query executes with given the per-query budget.
+     */
+    public int getNumThreadsPerQuery(int numThreads) {
+        return Math.max(1, Math.min(numThreads, maxNumThreadsPerQuery));
+    }
+
+    /**
+     * Waits for the given number of threads to be free and reserves them for a query.
+     *
+     * @param numThreads is the number of threads of the query.
+     */
+    void admit(int numThreads) throws InterruptedException {
+        freeThreads.acquire(numThreads);
+    }
+
+    /**
+     * Frees the threads reserved for a query once it is executed.
+     *
+     * @param numThreads is the number of threads of the query.
+     */
+    void release(int numThreads) {
+        freeThreads.release(numThreads);
+    }
+
+    /**
+     * Executes a task of an admitted query on a thread of the pool.
+     *
+     * @param task is the task to execute.
+     * @return The future of the task.
+     */
+    Future<?> submit(Runnable task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Stops the threads of the pool once the tasks submitted are executed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
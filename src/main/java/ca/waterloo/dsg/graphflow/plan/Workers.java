@@ -1,21 +1,45 @@
 package ca.waterloo.dsg.graphflow.plan;
 
+import ca.waterloo.dsg.graphflow.plan.operator.CancellationToken;
+import ca.waterloo.dsg.graphflow.plan.operator.Operator;
 import ca.waterloo.dsg.graphflow.plan.operator.Operator.LimitExceededException;
+import ca.waterloo.dsg.graphflow.plan.operator.extend.EI;
+import ca.waterloo.dsg.graphflow.plan.operator.extend.EI.ExtensionSplitter;
 import ca.waterloo.dsg.graphflow.plan.operator.hashjoin.Build;
 import ca.waterloo.dsg.graphflow.plan.operator.hashjoin.HashTable;
+import ca.waterloo.dsg.graphflow.plan.operator.hashjoin.Probe;
 import ca.waterloo.dsg.graphflow.plan.operator.scan.ScanBlocking;
-import ca.waterloo.dsg.graphflow.plan.operator.scan.ScanBlocking.VertexIdxLimits;
+import ca.waterloo.dsg.graphflow.plan.operator.scan.ScanBlocking.MorselDispenser;
+import ca.waterloo.dsg.graphflow.plan.operator.sink.OutputLimit;
+import ca.waterloo.dsg.graphflow.plan.operator.sink.Sink.SinkType;
 import ca.waterloo.dsg.graphflow.storage.Graph;
 import ca.waterloo.dsg.graphflow.storage.KeyStore;
 import ca.waterloo.dsg.graphflow.util.IOUtils;
 import ca.waterloo.dsg.graphflow.util.container.Triple;
 import lombok.Getter;
+import lombok.Setter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Query plan workers execute a query plan in parallel given a number of threads.
@@ -25,8 +49,27 @@ public class Workers {
     protected static final Logger logger = LogManager.getLogger(Workers.class);
 
     private Plan[] queryPlans;
-    private Thread[][] workers;
+    private Runnable[][] workers;
+    private WorkerPool pool;
     private int numThreads = 1;
+    private boolean isWorkStealing = false;
+    private volatile List<MorselDispenser> morselDispensers = new ArrayList<>();
+    private OutputLimit outputLimit; /* shared by the threads, null if the plan is not limited */
+    private CancellationToken cancellationToken = new CancellationToken();
+    // the time in ms the query executes for before it is cancelled, 0 for no timeout.
+    @Setter private long timeout = 0;
+    // the time in ms between the progress reports logged while executing, 0 for none.
+    @Setter private long progressInterval = 0;
+    private volatile boolean isTimedOut = false;
+    // the first exception thrown by a fork/join task, as the tasks are never joined.
+    private AtomicReference<Throwable> failure = new AtomicReference<>();
+    // re-plans the subplans left once a build subplan is executed, null to never re-plan.
+    @Setter private Replanner replanner;
+    // the factor the number of tuples a build subplan hashes can be off its estimate by before
+    // the subplans left are re-planned.
+    @Setter private double reoptimizationThreshold = 10;
+    private Graph graph;
+    private KeyStore store;
 
     @Getter private double elapsedTime = 0;
     private long intersectionCost = 0;
@@ -36,80 +79,711 @@ public class Workers {
         Long /* i-cost */, Long /* prefixes size */>> operatorMetrics;
 
     /**
-     * Constructs a {@link Workers} object.
+     * Re-plans the subplans of a query plan left to execute once some of its build subplans are
+     * executed.
+     */
+    public interface Replanner {
+
+        /**
+         * @param builds are copies of the build subplans executed whose hash tables are not probed
+         * yet, with the number of tuples they hashed.
+         * @param nextHashJoinID is the ID to number the hash joins planned from, above the IDs of
+         * the hash tables built.
+         * @return The subplans left to execute, probing the hash tables built with the IDs of
+         * their builds, or null to keep the subplans left.
+         */
+        List<Operator> replan(List<Build> builds, int nextHashJoinID);
+    }
+
+    /**
+     * Constructs a {@link Workers} object executing on the default {@link WorkerPool}.
      *
      * @param queryPlan is the query plan to execute.
      * @param numThreads is the number of threads to use executing the query.
      */
     public Workers(Plan queryPlan, int numThreads) {
+        this(queryPlan, numThreads, WorkerPool.getDefault(), false /* no work stealing */);
+    }
+
+    /**
+     * Constructs a {@link Workers} object.
+     *
+     * @param queryPlan is the query plan to execute.
+     * @param numThreads is the number of threads to use executing the query, bounded by the
+     * per-query budget of the pool.
+     * @param pool is the pool of threads the query is executed on.
+     * @param isWorkStealing is true if the threads split the extensions of the tuples among them
+     * with work stealing, instead of only the scanned edges.
+     */
+    public Workers(Plan queryPlan, int numThreads, WorkerPool pool, boolean isWorkStealing) {
+        this.pool = pool;
+        this.isWorkStealing = isWorkStealing;
+        numThreads = pool.getNumThreadsPerQuery(numThreads);
+        this.numThreads = numThreads;
         queryPlans = new Plan[numThreads];
-        // if (numThreads == 1) {
-        //   queryPlans[0] = queryPlan.copy(true /* isThreadSafe */);
-        // } else { // numThreads > 1
-            for (int i = 0; i < numThreads; i++) {
-                queryPlans[i] = queryPlan.copy(true /* isThreadSafe */);
-            }
-            this.numThreads = numThreads;
-            var numSubplans = queryPlans[0].getSubplans().size();
-            workers = new Thread[numSubplans][numThreads];
-            for (var i = 0; i < queryPlans.length; i++) {
-                var subplans = queryPlans[i].getSubplans();
-                for (var subplanId = 0; subplanId < numSubplans; subplanId++) {
-                    var operator = subplans.get(subplanId);
-                    Runnable runnable = () -> {
-                        try { operator.execute(); } catch (LimitExceededException e) {}
-                    };
-                    workers[subplanId][i] = new Thread(runnable);
-                }
+        for (int i = 0; i < numThreads; i++) {
+            queryPlans[i] = queryPlan.copy(true /* isThreadSafe */);
+            // the memory budget of the hash tables is shared by the threads building them.
+            queryPlans[i].setHashTableMemoryBudget(
+                queryPlan.getHashTableMemoryBudget() / numThreads);
+            queryPlans[i].setCancellationToken(cancellationToken);
+        }
+        if (SinkType.LIMIT == queryPlan.sinkType) {
+            // the threads count their output tuples together and stop once the limit is reached.
+            outputLimit = new OutputLimit(queryPlan.outTuplesLimit);
+            outputLimit.setCancellation(this::cancel);
+            for (var plan : queryPlans) {
+                plan.setOutputLimit(outputLimit);
             }
-            for (var i = 0; i < numSubplans; i++) {
-                var globalVertexIdxLimits = new VertexIdxLimits();
-                for (var plan : queryPlans) {
-                    var operator = plan.subplans.get(i);
-                    while (null != operator.getPrev()) {
-                        operator = operator.getPrev();
-                    }
-                    if (operator instanceof ScanBlocking) {
-                        ((ScanBlocking) operator).setGlobalVerticesIdxLimits(globalVertexIdxLimits);
-                    }
+        }
+        initWorkers(0 /* first subplan */);
+    }
+
+    /**
+     * Makes the runnables executing the subplans with each copy of the query plan and, from the
+     * given subplan on, the dispensers of the morsels the scans of the copies share.
+     *
+     * @param fromSubplanId is the index of the first subplan not executed yet.
+     */
+    private void initWorkers(int fromSubplanId) {
+        var numSubplans = queryPlans[0].getSubplans().size();
+        workers = new Runnable[numSubplans][numThreads];
+        for (var i = 0; i < queryPlans.length; i++) {
+            var subplans = queryPlans[i].getSubplans();
+            for (var subplanId = 0; subplanId < numSubplans; subplanId++) {
+                var operator = subplans.get(subplanId);
+                workers[subplanId][i] = () -> {
+                    try { operator.execute(); } catch (LimitExceededException e) {}
+                };
+            }
+        }
+        // the list is replaced rather than modified as the monitor thread may be reading it.
+        var morselDispensers = new ArrayList<>(this.morselDispensers.subList(0, fromSubplanId));
+        for (var i = fromSubplanId; i < numSubplans; i++) {
+            var morselDispenser = new MorselDispenser(numThreads);
+            morselDispensers.add(morselDispenser);
+            for (var plan : queryPlans) {
+                var operator = plan.subplans.get(i);
+                while (null != operator.getPrev()) {
+                    operator = operator.getPrev();
+                }
+                if (operator instanceof ScanBlocking) {
+                    ((ScanBlocking) operator).setMorselDispenser(morselDispenser);
                 }
             }
-        // }
+        }
+        this.morselDispensers = morselDispensers;
     }
 
     public void init(Graph graph, KeyStore store) {
+        this.graph = graph;
+        this.store = store;
         for (var queryPlan : queryPlans) {
             queryPlan.init(graph, store);
         }
-        var numBuildOperators = queryPlans[0].getSubplans().size() - 1;
-        for (var buildIdx = 0; buildIdx < numBuildOperators; buildIdx++) {
-            var ID = ((Build) queryPlans[0].getSubplans().get(buildIdx)).getID();
-            var hashTables = new HashTable[numThreads];
-            for (var i = 0; i < queryPlans.length; i++) {
-                hashTables[i] = ((Build) queryPlans[i].getSubplans().get(buildIdx)).getHashTable();
+        if (null != replanner && 1 == queryPlans.length) {
+            queryPlans[0].setBuildCheckpoint(this::checkpoint);
+        }
+    }
+
+    /**
+     * Executes the query plan once the pool has enough free threads for it. The subplans are
+     * executed one after the other, each by all the threads. The plan is cancelled once it times
+     * out, if a timeout is set.
+     */
+    public void execute() throws InterruptedException {
+        pool.admit(numThreads);
+        if (null != outputLimit) {
+            outputLimit.setStartTime(System.nanoTime());
+        }
+        var monitor = startMonitor();
+        try {
+            if (queryPlans.length == 1) {
+                queryPlans[0].execute();
+                elapsedTime = queryPlans[0].getElapsedTime();
+            } else if (isWorkStealing) {
+                executeWithWorkStealing();
+            } else {
+                var beginTime = System.nanoTime();
+                var futures = new Future<?>[numThreads];
+                for (var subplanId = 0; subplanId < workers.length &&
+                         !cancellationToken.isCancelled(); subplanId++) {
+                    for (int j = 0; j < queryPlans.length; j++) {
+                        futures[j] = submit(workers[subplanId][j]);
+                    }
+                    awaitAll(futures);
+                    processSpilledTuples(subplanId);
+                    if (subplanId < workers.length - 1) {
+                        mergeHashTables(subplanId);
+                        checkpoint(subplanId);
+                    }
+                }
+                flushSinks();
+                elapsedTime = getElapsedTime(beginTime);
             }
-            for (var queryPlan : queryPlans) {
-                queryPlan.setProbeHashTables(ID, hashTables);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A worker failed executing the plan.", e.getCause());
+        } finally {
+            if (null != monitor) {
+                monitor.shutdownNow();
             }
+            if (queryPlans.length > 1) {
+                queryPlans[0].deleteSpilledPartitions();
+            }
+            pool.release(numThreads);
         }
     }
 
-    public void execute() throws InterruptedException {
-        if (queryPlans.length == 1) {
-            queryPlans[0].execute();
-            elapsedTime = queryPlans[0].getElapsedTime();
-        } else {
+    /**
+     * Starts the thread cancelling the query plan once it times out and logging its progress,
+     * if needed.
+     *
+     * @return The executor of the thread, null if not needed.
+     */
+    private ScheduledExecutorService startMonitor() {
+        if (timeout <= 0 && progressInterval <= 0) {
+            return null;
+        }
+        var monitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "query-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (timeout > 0) {
+            monitor.schedule(() -> {
+                isTimedOut = true;
+                cancel();
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+        if (progressInterval > 0) {
             var beginTime = System.nanoTime();
-            for (var subplanWorkers : workers) {
-                for (int j = 0; j < queryPlans.length; j++) {
-                    subplanWorkers[j].start();
+            monitor.scheduleAtFixedRate(() -> logProgress(beginTime), progressInterval,
+                progressInterval, TimeUnit.MILLISECONDS);
+        }
+        return monitor;
+    }
+
+    /**
+     * Logs the progress of the execution: the fraction of the edges the subplans scan scanned by
+     * the threads, the number of output tuples so far and the time left projected from the rate
+     * the edges are scanned at. The time left is not projected while a subplan scanning no edges,
+     * e.g. probing the cartesian product of hash tables, is executed. The counts of the threads
+     * are read without synchronization, so they are approximate.
+     */
+    private void logProgress(long beginTime) {
+        var morselDispensers = this.morselDispensers;
+        var numSubplans = morselDispensers.size();
+        var isScanning = new boolean[numSubplans];
+        var numSubplanEdgesScanned = new long[numSubplans];
+        for (var queryPlan : queryPlans) {
+            var subplans = queryPlan.getSubplans();
+            for (var i = 0; i < numSubplans && i < subplans.size(); /* being re-planned */ i++) {
+                var operator = subplans.get(i);
+                while (null != operator.getPrev()) {
+                    operator = operator.getPrev();
+                }
+                if (operator instanceof ScanBlocking) {
+                    isScanning[i] = true;
+                    numSubplanEdgesScanned[i] += ((ScanBlocking) operator).getNumEdgesScanned();
                 }
-                for (int j = 0; j < queryPlans.length; j++) {
-                    subplanWorkers[j].join();
+            }
+        }
+        var numEdges = 0L;
+        var numEdgesScanned = 0L;
+        var subplanId = 0;
+        for (var i = 0; i < numSubplans; i++) {
+            numEdges += morselDispensers.get(i).getNumEdges();
+            numEdgesScanned += numSubplanEdgesScanned[i];
+            if (numSubplanEdgesScanned[i] > 0) {
+                subplanId = i;
+            }
+        }
+        // the subplan following one with all its edges scanned is being executed if it scans no
+        // edges, no edges of a later subplan being scanned.
+        var numSubplanEdges = morselDispensers.get(subplanId).getNumEdges();
+        if (subplanId + 1 < numSubplans && !isScanning[subplanId + 1] && numSubplanEdges > 0 &&
+            numSubplanEdgesScanned[subplanId] >= numSubplanEdges) {
+            subplanId++;
+        }
+        var numOutTuples = 0L;
+        for (var queryPlan : queryPlans) {
+            numOutTuples += queryPlan.getLastOperator().getNumOutTuples();
+        }
+        var elapsedTime = IOUtils.getElapsedTimeInMillis(beginTime);
+        if (!isScanning[subplanId]) {
+            logger.info(String.format("Progress: subplan %d/%d, scanning no edges, %d output " +
+                "tuples, %.0f (ms) elapsed, time left unknown.", subplanId + 1, numSubplans,
+                numOutTuples, elapsedTime));
+            return;
+        }
+        var fractionScanned = 0 == numEdges ? 0 : (double) numEdgesScanned / numEdges;
+        var projectedTimeLeft = 0 == fractionScanned ? Double.NaN :
+            elapsedTime * (1 - fractionScanned) / fractionScanned;
+        logger.info(String.format("Progress: subplan %d/%d, %.2f%% of the edges scanned, %d " +
+            "output tuples, %.0f (ms) elapsed, about %.0f (ms) left.", subplanId + 1,
+            numSubplans, 100 * fractionScanned, numOutTuples, elapsedTime, projectedTimeLeft));
+    }
+
+    /**
+     * @return True if the query plan was cancelled as it timed out, its output being partial.
+     * False, otherwise.
+     */
+    public boolean isTimedOut() {
+        return isTimedOut;
+    }
+
+    /**
+     * Processes the tuples the probes of a subplan spilled to disk, each thread processing the
+     * tuples spilled with its copy of the query plan.
+     *
+     * @param subplanId is the index of the subplan.
+     */
+    private void processSpilledTuples(int subplanId) throws InterruptedException,
+        ExecutionException {
+        var futures = new Future<?>[numThreads];
+        for (var i = 0; i < numThreads; i++) {
+            var queryPlan = queryPlans[i];
+            futures[i] = submit(() -> {
+                try { queryPlan.processSpilledTuples(subplanId); }
+                catch (LimitExceededException e) {}
+            });
+        }
+        awaitAll(futures);
+    }
+
+    /**
+     * Submits a task to the pool, the task cancelling the query plan if it fails so that the other
+     * threads stop at their next morsel rather than once done.
+     *
+     * @param task is the task to execute.
+     * @return the future of the task.
+     */
+    private Future<?> submit(Runnable task) {
+        return pool.submit(() -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                cancellationToken.cancel();
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Waits for the tasks the threads execute to be done. The tasks are still waited for once one
+     * of them fails, so that no thread keeps executing the plan or reading its spilled partitions
+     * once the threads of the query are released to the pool.
+     *
+     * @param futures are the futures of the tasks.
+     * @throws ExecutionException if a task failed, the first one to do so.
+     * @throws InterruptedException if interrupted while waiting, once the tasks are done.
+     */
+    private void awaitAll(Future<?>[] futures) throws InterruptedException,
+        ExecutionException {
+        ExecutionException failure = null;
+        var isInterrupted = false;
+        for (var future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (ExecutionException e) {
+                    if (null == failure) {
+                        failure = e;
+                        cancellationToken.cancel();
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                    cancellationToken.cancel();
                 }
             }
-            elapsedTime = IOUtils.getElapsedTimeInMillis(beginTime);
         }
+        if (isInterrupted) {
+            throw new InterruptedException();
+        }
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Cancels the execution of the query plan, the threads stopping at their next morsel and the
+     * subplans left not being executed.
+     */
+    public void cancel() {
+        cancellationToken.cancel();
+    }
+
+    private boolean isLimitReached() {
+        return null != outputLimit && outputLimit.isReached();
+    }
+
+    /**
+     * @return The time in ms to execute the query plan or, if the plan is limited and its limit
+     * reached, the wall-clock time to output as many tuples as the limit.
+     */
+    private double getElapsedTime(long beginTime) {
+        return isLimitReached() ? outputLimit.getElapsedTime() :
+            IOUtils.getElapsedTimeInMillis(beginTime);
+    }
+
+    /**
+     * Hands the output tuples the sinks of the copies of the query plan hold to their consumer
+     * once the plan is executed.
+     */
+    private void flushSinks() {
+        for (var queryPlan : queryPlans) {
+            queryPlan.getSink().flush();
+        }
+    }
+
+    /**
+     * Compares the number of tuples a build subplan hashed with the number the optimizer
+     * estimated. If off by more than the threshold, the subplans left are re-planned knowing the
+     * actual sizes of the hash tables built and not probed yet, and replace the subplans left in
+     * the copies of the query plan. The re-planned subplans probe the hash tables built instead
+     * of building them again.
+     *
+     * @param buildIdx is the index of the build subplan executed.
+     * @return True if the subplans left are re-planned. False, otherwise.
+     */
+    private boolean checkpoint(int buildIdx) {
+        if (null == replanner || cancellationToken.isCancelled()) {
+            return false;
+        }
+        var build = (Build) queryPlans[0].getSubplans().get(buildIdx);
+        var numHashedTuples = getNumHashedTuples(buildIdx);
+        var ratio = Math.max(numHashedTuples, 1.0) /
+            Math.max(build.getEstimatedNumOutTuples(), 1.0);
+        if (ratio <= reoptimizationThreshold && ratio >= 1 / reoptimizationThreshold) {
+            return false;
+        }
+        var probedIDs = new HashSet<Integer>();
+        for (var i = 0; i <= buildIdx; i++) {
+            for (var probe : queryPlans[0].getProbes(i)) {
+                probedIDs.add(probe.getID());
+            }
+        }
+        var builds = new ArrayList<Build>();
+        var nextHashJoinID = 0;
+        for (var i = 0; i <= buildIdx; i++) {
+            var executedBuild = (Build) queryPlans[0].getSubplans().get(i);
+            nextHashJoinID = Math.max(nextHashJoinID, executedBuild.getID() + 1);
+            if (!probedIDs.contains(executedBuild.getID())) {
+                var buildCopy = executedBuild.copy(false /* isThreadSafe */);
+                buildCopy.setNumHashedTuples(getNumHashedTuples(i));
+                builds.add(buildCopy);
+            }
+        }
+        var subplans = replanner.replan(builds, nextHashJoinID);
+        logger.info(String.format("Build subplan %d hashed %d tuples, %.0f estimated: the " +
+            "subplans left are %s.", buildIdx + 1, numHashedTuples,
+            build.getEstimatedNumOutTuples(), null == subplans ? "kept, no other plan " +
+            "reusing the hash tables built" : "re-planned"));
+        if (null == subplans) {
+            return false;
+        }
+        var plan = new Plan(subplans);
+        for (var queryPlan : queryPlans) {
+            queryPlan.replaceSubplans(buildIdx + 1, plan.copy(true /* isThreadSafe */)
+                .getSubplans());
+        }
+        initWorkers(buildIdx + 1);
+        for (var queryPlan : queryPlans) {
+            queryPlan.initSubplansLeft(buildIdx + 1, graph, store);
+        }
+        return true;
+    }
+
+    /**
+     * @param buildIdx is the index of the build subplan executed.
+     * @return The number of tuples the threads hashed executing the build subplan.
+     */
+    private long getNumHashedTuples(int buildIdx) {
+        var numHashedTuples = 0L;
+        for (var queryPlan : queryPlans) {
+            numHashedTuples += queryPlan.getSubplans().get(buildIdx).getPrev().getNumOutTuples();
+        }
+        return numHashedTuples;
+    }
+
+    /**
+     * Merges the hash tables the threads built executing a build subplan into a single one, so
+     * probing a tuple is a single lookup whatever the number of threads. The threads of the query
+     * each merge a range of the partitions of the tables.
+     *
+     * @param buildIdx is the index of the build subplan.
+     */
+    private void mergeHashTables(int buildIdx) throws InterruptedException, ExecutionException {
+        var hashTables = new HashTable[numThreads];
+        for (var i = 0; i < numThreads; i++) {
+            hashTables[i] = ((Build) queryPlans[i].getSubplans().get(buildIdx)).getHashTable();
+        }
+        var hashTable = HashTable.makeMerged(hashTables);
+        var numPartitions = hashTable.getNumPartitions();
+        var numPartitionsPerThread = (numPartitions + numThreads - 1) / numThreads;
+        var futures = new Future<?>[numThreads];
+        for (var i = 0; i < numThreads; i++) {
+            var startPartition = Math.min(i * numPartitionsPerThread, numPartitions);
+            var endPartition = Math.min(startPartition + numPartitionsPerThread, numPartitions);
+            futures[i] = submit(() -> hashTable.merge(startPartition, endPartition));
+        }
+        awaitAll(futures);
+        var ID = ((Build) queryPlans[0].getSubplans().get(buildIdx)).getID();
+        var hashedVertices = hashTable.getHashedVertices();
+        for (var queryPlan : queryPlans) {
+            queryPlan.setProbeHashTable(ID, hashTable, hashedVertices);
+        }
+    }
+
+    /**
+     * Executes the subplans one after the other on a fork/join pool with a thread per copy of the
+     * query plan. Each thread starts scanning edges with its copy and the {@link EI} operators
+     * fork the extensions of their tuples when other threads may be idle, for them to steal. So
+     * an edge extended to many tuples, e.g. touching a high degree vertex, is still extended in
+     * parallel.
+     */
+    private void executeWithWorkStealing() throws InterruptedException, ExecutionException {
+        var beginTime = System.nanoTime();
+        var unassignedPlans = new ConcurrentLinkedQueue<>(Arrays.asList(queryPlans));
+        var pool = makeForkJoinPool(unassignedPlans);
+        try {
+            for (var subplanId = 0; subplanId < workers.length &&
+                     !cancellationToken.isCancelled(); subplanId++) {
+                var pendingTasks = new PendingTasks();
+                for (var i = 0; i < numThreads; i++) {
+                    pendingTasks.add();
+                    pool.execute(new SubplanTask(pendingTasks, subplanId));
+                }
+                pendingTasks.await();
+                // the tuples spilled by a probe are processed once all of them are spilled, i.e.
+                // once the tuples spilled by the previous probes are processed.
+                var numProbes = queryPlans[0].getProbes(subplanId).size();
+                for (var probeIdx = 0; probeIdx < numProbes; probeIdx++) {
+                    pendingTasks = new PendingTasks();
+                    for (var queryPlan : queryPlans) {
+                        pendingTasks.add();
+                        pool.execute(new SpilledTuplesTask(pendingTasks, subplanId, probeIdx,
+                            queryPlan.getProbes(subplanId).get(probeIdx)));
+                    }
+                    pendingTasks.await();
+                }
+                if (subplanId < workers.length - 1) {
+                    mergeHashTables(subplanId);
+                    if (checkpoint(subplanId)) {
+                        // the threads list the operators of their copy of the plan once started.
+                        pool.shutdown();
+                        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                        pool = makeForkJoinPool(unassignedPlans);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        flushSinks();
+        elapsedTime = getElapsedTime(beginTime);
+    }
+
+    /**
+     * @param unassignedPlans are the copies of the query plan not assigned to a thread.
+     * @return A fork/join pool whose threads each execute the tasks with a copy of the plan.
+     */
+    private ForkJoinPool makeForkJoinPool(Queue<Plan> unassignedPlans) {
+        return new ForkJoinPool(numThreads, forkJoinPool -> {
+            var queryPlan = unassignedPlans.poll();
+            return null == queryPlan ? null :
+                new PlanWorkerThread(forkJoinPool, queryPlan, unassignedPlans);
+        }, null /* no uncaught exception handler */, false /* LIFO */);
+    }
+
+    /**
+     * Counts the tasks of a subplan not executed yet. The tasks are only forked, never joined, so
+     * the subplan is executed once none is pending. The first exception a task throws cancels the
+     * query and is thrown once none is pending.
+     */
+    private class PendingTasks {
+
+        private AtomicInteger numPendingTasks = new AtomicInteger(0);
+        private CountDownLatch isExecuted = new CountDownLatch(1);
+
+        void add() {
+            numPendingTasks.incrementAndGet();
+        }
+
+        void remove() {
+            if (0 == numPendingTasks.decrementAndGet()) {
+                isExecuted.countDown();
+            }
+        }
+
+        void fail(Throwable exception) {
+            failure.compareAndSet(null, exception);
+            cancellationToken.cancel();
+        }
+
+        void await() throws InterruptedException {
+            isExecuted.await();
+            if (null != failure.get()) {
+                throw new IllegalStateException("A worker failed executing the plan.",
+                    failure.get());
+            }
+        }
+    }
+
+    /**
+     * A fork/join worker thread executing the tasks with its own copy of the query plan.
+     */
+    private static class PlanWorkerThread extends ForkJoinWorkerThread implements
+        ExtensionSplitter {
+
+        private Plan queryPlan;
+        private Queue<Plan> unassignedPlans;
+        private List<Operator> operators = new ArrayList<>();
+        private PendingTasks pendingTasks; /* of the subplan of the task executed */
+
+        PlanWorkerThread(ForkJoinPool pool, Plan queryPlan, Queue<Plan> unassignedPlans) {
+            super(pool);
+            this.queryPlan = queryPlan;
+            this.unassignedPlans = unassignedPlans;
+            // the operators are listed in the same order in all copies of the query plan.
+            for (var subplan : queryPlan.getSubplans()) {
+                var subplanOperators = new ArrayList<Operator>();
+                for (var operator = subplan; null != operator; operator = operator.getPrev()) {
+                    subplanOperators.add(0, operator);
+                    if (operator instanceof EI) {
+                        ((EI) operator).setSplitter(this);
+                    }
+                }
+                operators.addAll(subplanOperators);
+            }
+        }
+
+        @Override
+        public boolean shouldSplit() {
+            return ForkJoinTask.getSurplusQueuedTaskCount() <= 0;
+        }
+
+        @Override
+        public void fork(EI operator, int[] inTuple, int[] Ids) {
+            var operatorIdx = 0;
+            while (operators.get(operatorIdx) != operator) {
+                operatorIdx++;
+            }
+            pendingTasks.add();
+            new ExtensionTask(pendingTasks, operatorIdx, inTuple, Ids).fork();
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            // the copy of the query plan is kept for a thread replacing this one.
+            unassignedPlans.add(queryPlan);
+            super.onTermination(exception);
+        }
+    }
+
+    /**
+     * A task executed with the copy of the query plan of the {@link PlanWorkerThread}.
+     */
+    private abstract static class PlanTask extends RecursiveAction {
+
+        private PendingTasks pendingTasks;
+
+        PlanTask(PendingTasks pendingTasks) {
+            this.pendingTasks = pendingTasks;
+        }
+
+        @Override
+        protected void compute() {
+            var thread = (PlanWorkerThread) Thread.currentThread();
+            thread.pendingTasks = pendingTasks;
+            try {
+                execute(thread);
+            } catch (LimitExceededException e) {
+            } catch (Throwable e) {
+                pendingTasks.fail(e);
+            } finally {
+                pendingTasks.remove();
+            }
+        }
+
+        abstract void execute(PlanWorkerThread thread) throws LimitExceededException;
+    }
+
+    /**
+     * Executes a subplan, scanning the edges left.
+     */
+    private static class SubplanTask extends PlanTask {
+
+        private int subplanId;
+
+        SubplanTask(PendingTasks pendingTasks, int subplanId) {
+            super(pendingTasks);
+            this.subplanId = subplanId;
+        }
+
+        @Override
+        void execute(PlanWorkerThread thread) throws LimitExceededException {
+            thread.queryPlan.getSubplans().get(subplanId).execute();
+        }
+    }
+
+    /**
+     * Processes the tuples spilled to disk by a probe with the copy of the probe in the query plan
+     * of the thread.
+     */
+    private static class SpilledTuplesTask extends PlanTask {
+
+        private int subplanId;
+        private int probeIdx;
+        private Probe probe;
+
+        SpilledTuplesTask(PendingTasks pendingTasks, int subplanId, int probeIdx, Probe probe) {
+            super(pendingTasks);
+            this.subplanId = subplanId;
+            this.probeIdx = probeIdx;
+            this.probe = probe;
+        }
+
+        @Override
+        void execute(PlanWorkerThread thread) throws LimitExceededException {
+            thread.queryPlan.getProbes(subplanId).get(probeIdx).processSpilledTuples(probe);
+        }
+    }
+
+    /**
+     * Extends a tuple forked by an {@link EI} operator with the copy of the operator in the query
+     * plan of the thread.
+     */
+    private static class ExtensionTask extends PlanTask {
+
+        private int operatorIdx;
+        private int[] inTuple;
+        private int[] Ids;
+
+        ExtensionTask(PendingTasks pendingTasks, int operatorIdx, int[] inTuple, int[] Ids) {
+            super(pendingTasks);
+            this.operatorIdx = operatorIdx;
+            this.inTuple = inTuple;
+            this.Ids = Ids;
+        }
+
+        @Override
+        void execute(PlanWorkerThread thread) throws LimitExceededException {
+            ((EI) thread.operators.get(operatorIdx)).extend(inTuple, Ids);
+        }
+    }
+
+    /**
+     * @return The number of output tuples of the executed query plan.
+     */
+    public long getNumOutTuples() {
+        if (queryPlans.length == 1) {
+            return queryPlans[0].getNumOutTuples();
+        }
+        aggregateStats();
+        return numOutTuples;
     }
 
     /**
@@ -119,13 +793,7 @@ public class Workers {
         if (queryPlans.length == 1) {
             return queryPlans[0].getOutputLog();
         }
-        if (null == operatorMetrics) {
-            operatorMetrics = new ArrayList<>();
-            for (var queryPlan : queryPlans) {
-                queryPlan.setStats();
-            }
-            aggregateOutput();
-        }
+        aggregateStats();
         var strJoiner = new StringJoiner(",");
         strJoiner.add(String.format("%.4f", elapsedTime));
         strJoiner.add(String.format("%d", numOutTuples));
@@ -137,6 +805,15 @@ public class Workers {
         return strJoiner.toString() + "\n";
     }
 
+    private void aggregateStats() {
+        if (null == operatorMetrics) {
+            for (var queryPlan : queryPlans) {
+                queryPlan.setStats();
+            }
+            aggregateOutput();
+        }
+    }
+
     private void aggregateOutput() {
         operatorMetrics = new ArrayList<>();
         for (var queryPlan : queryPlans) {
@@ -144,6 +821,10 @@ public class Workers {
             numIntermediateTuples += queryPlan.getNumIntermediateTuples();
             numOutTuples += queryPlan.getLastOperator().getNumOutTuples();
         }
+        if (null != outputLimit) {
+            // the tuples the threads output beyond the limit are not counted.
+            numOutTuples = outputLimit.getNumOutTuples();
+        }
         var queryPlan = queryPlans[0];
         for (var metric : queryPlan.getOperatorMetrics()) {
             operatorMetrics.add(new Triple<>(metric.a, metric.b, metric.c));
@@ -0,0 +1,98 @@
+package ca.waterloo.dsg.graphflow.plan.compiler;
+
+import ca.waterloo.dsg.graphflow.storage.Graph;
+import ca.waterloo.dsg.graphflow.util.IOUtils;
+import lombok.Getter;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A query plan compiled by the {@link PlanCompiler} into a single class of fused loops, counting
+ * the output tuples of the plan.
+ */
+public class CompiledPlan {
+
+    // the number of scanned from vertices each thread takes at once.
+    private static final int MORSEL_SIZE = 64;
+
+    /**
+     * The pipeline generated for a plan. An instance is used by a single thread at a time.
+     */
+    public interface Pipeline {
+
+        /**
+         * Executes the plan on the edges scanned from a range of from vertices.
+         *
+         * @param fromIdxStart is the index of the first from vertex to scan, inclusive.
+         * @param fromIdxEnd is the index of the last from vertex to scan, exclusive.
+         * @return the number of output tuples.
+         */
+        long execute(int fromIdxStart, int fromIdxEnd);
+    }
+
+    @Getter private String source;
+    private Constructor<? extends Pipeline> constructor;
+    private int fromIdxStart, fromIdxEnd;
+
+    @Getter private double elapsedTime = 0;
+    @Getter private long numOutTuples = 0;
+
+    /**
+     * Constructs a {@link CompiledPlan} object.
+     *
+     * @param source is the source code of the pipeline.
+     * @param constructor is the constructor of the pipeline taking the graph as argument.
+     * @param fromIdxStart is the index of the first from vertex scanned, inclusive.
+     * @param fromIdxEnd is the index of the last from vertex scanned, exclusive.
+     */
+    CompiledPlan(String source, Constructor<? extends Pipeline> constructor, int fromIdxStart,
+        int fromIdxEnd) {
+        this.source = source;
+        this.constructor = constructor;
+        this.fromIdxStart = fromIdxStart;
+        this.fromIdxEnd = fromIdxEnd;
+    }
+
+    /**
+     * Executes the compiled plan. The threads take the scanned from vertices a morsel at a time.
+     *
+     * @param graph is the input data graph.
+     * @param numThreads is the number of threads to use executing the plan.
+     */
+    public void execute(Graph graph, int numThreads) throws InterruptedException {
+        var nextFromIdx = new AtomicInteger(fromIdxStart);
+        var count = new AtomicLong(0);
+        var workers = new Thread[numThreads];
+        for (var i = 0; i < numThreads; i++) {
+            var pipeline = makePipeline(graph);
+            workers[i] = new Thread(() -> {
+                var numOutTuples = 0L;
+                int fromIdx;
+                while ((fromIdx = nextFromIdx.getAndAdd(MORSEL_SIZE)) < fromIdxEnd) {
+                    numOutTuples += pipeline.execute(fromIdx,
+                        Math.min(fromIdx + MORSEL_SIZE, fromIdxEnd));
+                }
+                count.addAndGet(numOutTuples);
+            });
+        }
+        var startTime = System.nanoTime();
+        for (var worker : workers) {
+            worker.start();
+        }
+        for (var worker : workers) {
+            worker.join();
+        }
+        elapsedTime = IOUtils.getElapsedTimeInMillis(startTime);
+        numOutTuples = count.get();
+    }
+
+    private Pipeline makePipeline(Graph graph) {
+        try {
+            return constructor.newInstance(graph);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not instantiate the compiled plan.", e);
+        }
+    }
+}
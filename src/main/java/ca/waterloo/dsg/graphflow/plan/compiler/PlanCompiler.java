@@ -0,0 +1,365 @@
+package ca.waterloo.dsg.graphflow.plan.compiler;
+
+import ca.waterloo.dsg.graphflow.plan.Plan;
+import ca.waterloo.dsg.graphflow.plan.compiler.CompiledPlan.Pipeline;
+import ca.waterloo.dsg.graphflow.plan.operator.Operator;
+import ca.waterloo.dsg.graphflow.plan.operator.extend.EI;
+import ca.waterloo.dsg.graphflow.plan.operator.extend.Extend;
+import ca.waterloo.dsg.graphflow.plan.operator.extend.Intersect;
+import ca.waterloo.dsg.graphflow.plan.operator.scan.Scan;
+import ca.waterloo.dsg.graphflow.plan.operator.sink.Sink.SinkType;
+import ca.waterloo.dsg.graphflow.storage.Graph;
+import ca.waterloo.dsg.graphflow.storage.Graph.Direction;
+import ca.waterloo.dsg.graphflow.storage.KeyStore;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles a query plan into a single Java class at runtime, instead of interpreting it through
+ * its chain of operators. The class scans the edges and extends them with one nested loop per
+ * query vertex, with the labels and types of the operators folded into constants and the
+ * intersections inlined. Each intersection is hoisted to the loop of the last query vertex its
+ * adjacency lists depend on, which subsumes the caching of the intersect operators. The class is
+ * compiled in-process with the system Java compiler.
+ * <p>
+ * Only plans of a {@link Scan} followed by {@link Extend} and {@link Intersect} operators and a
+ * counting sink are compiled, which are the worst-case optimal plans.
+ */
+public class PlanCompiler {
+
+    protected static final Logger logger = LogManager.getLogger(PlanCompiler.class);
+
+    private static final String PACKAGE_NAME = PlanCompiler.class.getPackageName();
+    private static final AtomicInteger nextClassId = new AtomicInteger(0);
+
+    /**
+     * The adjacency lists intersected to extend to a query vertex.
+     */
+    private static class Extension {
+        int outIdx;
+        int[] vertexIdx;
+        Direction[] directions;
+        short[] labelsOrToTypes;
+        short toType;
+        int loopIdx; /* the query vertex loop the intersection is hoisted to */
+    }
+
+    private Graph graph;
+    private int numQVertices;
+    private short scanLabelOrToType, scanToType;
+    private int fromIdxStart, fromIdxEnd;
+    private List<Extension> extensions = new ArrayList<>();
+
+    /**
+     * Constructs a {@link PlanCompiler} object.
+     *
+     * @param graph is the input data graph.
+     */
+    public PlanCompiler(Graph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Compiles a query plan.
+     *
+     * @param plan is the query plan to compile.
+     * @return the compiled plan or null if the plan is not supported or could not be compiled, in
+     * which case it should be interpreted.
+     */
+    public CompiledPlan compile(Plan plan) {
+        if (!setExtensions(plan)) {
+            logger.info("The plan is not supported by the plan compiler.");
+            return null;
+        }
+        var className = "FusedPlan" + nextClassId.getAndIncrement();
+        var source = generateSource(className);
+        var pipelineClass = compileClass(PACKAGE_NAME + "." + className, source);
+        if (null == pipelineClass) {
+            return null;
+        }
+        try {
+            var constructor = pipelineClass.asSubclass(Pipeline.class).getConstructor(
+                Graph.class);
+            return new CompiledPlan(source, constructor, fromIdxStart, fromIdxEnd);
+        } catch (NoSuchMethodException e) {
+            logger.error("The compiled plan has no constructor from a graph.");
+            return null;
+        }
+    }
+
+    private boolean setExtensions(Plan plan) {
+        if (1 != plan.getSubplans().size() || SinkType.COUNTER != plan.sinkType) {
+            return false;
+        }
+        var operators = new ArrayList<Operator>();
+        for (var operator = plan.getSubplans().get(0); null != operator;
+             operator = operator.getPrev()) {
+            operators.add(0, operator);
+        }
+        if (!(operators.get(0) instanceof Scan)) {
+            return false;
+        }
+        var isAdjListSortedByType = graph.isAdjListSortedByType();
+        var scan = (Scan) operators.get(0);
+        scanLabelOrToType = isAdjListSortedByType ? scan.getToType() : scan.getLabelOrToType();
+        scanToType = isAdjListSortedByType ? KeyStore.ANY : scan.getToType();
+        if (KeyStore.ANY != scan.getFromType()) {
+            fromIdxStart = graph.getVertexTypeOffsets()[scan.getFromType()];
+            fromIdxEnd = graph.getVertexTypeOffsets()[scan.getFromType() + 1];
+        } else {
+            fromIdxStart = 0;
+            fromIdxEnd = graph.getHighestVertexId() + 1;
+        }
+        numQVertices = 2;
+        for (var i = 1; i < operators.size(); i++) {
+            if (!(operators.get(i) instanceof Extend || operators.get(i) instanceof Intersect)) {
+                return false;
+            }
+            var ei = (EI) operators.get(i);
+            var extension = new Extension();
+            extension.outIdx = ei.getOutQVertexToIdxMap().get(ei.getToQueryVertex());
+            if (extension.outIdx != numQVertices) {
+                return false;
+            }
+            var ALDs = ei.getALDs();
+            extension.vertexIdx = new int[ALDs.size()];
+            extension.directions = new Direction[ALDs.size()];
+            extension.labelsOrToTypes = new short[ALDs.size()];
+            for (var j = 0; j < ALDs.size(); j++) {
+                extension.vertexIdx[j] = ALDs.get(j).getVertexIdx();
+                extension.directions[j] = ALDs.get(j).getDirection();
+                extension.labelsOrToTypes[j] = isAdjListSortedByType ? ei.getToType() :
+                    ALDs.get(j).getLabel();
+                extension.loopIdx = Math.max(extension.loopIdx, extension.vertexIdx[j]);
+            }
+            extension.toType = isAdjListSortedByType ? KeyStore.ANY : ei.getToType();
+            extensions.add(extension);
+            numQVertices++;
+        }
+        return true;
+    }
+
+    private String generateSource(String className) {
+        var code = new StringBuilder();
+        code.append("package ").append(PACKAGE_NAME).append(";\n\n")
+            .append("import ca.waterloo.dsg.graphflow.plan.operator.extend.EI.Neighbours;\n")
+            .append("import ca.waterloo.dsg.graphflow.storage.Graph;\n")
+            .append("import ca.waterloo.dsg.graphflow.storage.SortedAdjList;\n\n")
+            .append("public final class ").append(className)
+            .append(" implements CompiledPlan.Pipeline {\n\n")
+            .append("    private final int[] vertexIds;\n")
+            .append("    private final short[] vertexTypes;\n")
+            .append("    private final SortedAdjList fwd, bwd;\n")
+            .append("    private final Neighbours n1 = new Neighbours();\n");
+        for (var extension : extensions) {
+            var numALDs = extension.vertexIdx.length;
+            var outIdx = extension.outIdx;
+            if (1 == numALDs) {
+                code.append(String.format("    private final Neighbours n%d = " +
+                    "new Neighbours();\n", outIdx));
+                continue;
+            }
+            code.append(String.format("    private final Neighbours n%d = new Neighbours(%d);\n",
+                outIdx, getLargestAdjListSize(extension)));
+            if (2 == numALDs) {
+                code.append(String.format("    private final Neighbours a%d = " +
+                    "new Neighbours();\n", outIdx));
+            } else {
+                code.append(String.format("    private final Neighbours[] a%d = " +
+                    "new Neighbours[%d];\n", outIdx, numALDs));
+            }
+        }
+        code.append("\n    public ").append(className).append("(Graph graph) {\n")
+            .append("        vertexIds = graph.getVertexIds();\n")
+            .append("        vertexTypes = graph.getVertexTypes();\n")
+            .append("        fwd = graph.getFwdAdjLists();\n")
+            .append("        bwd = graph.getBwdAdjLists();\n");
+        for (var extension : extensions) {
+            if (extension.vertexIdx.length > 2) {
+                code.append(String.format("        for (int i = 0; i < a%d.length; i++) {\n" +
+                    "            a%d[i] = new Neighbours();\n" +
+                    "        }\n", extension.outIdx, extension.outIdx));
+            }
+        }
+        code.append("    }\n\n")
+            .append("    @Override\n")
+            .append("    public long execute(int fromIdxStart, int fromIdxEnd) {\n")
+            .append("        long count = 0;\n")
+            .append("        for (int i0 = fromIdxStart; i0 < fromIdxEnd; i0++) {\n")
+            .append("            final int v0 = vertexIds[i0];\n")
+            .append(String.format("            fwd.setNeighbourIds(v0, (short) %d, n1);\n",
+                scanLabelOrToType));
+        generateLoop(code, 0, "            ");
+        code.append("        }\n")
+            .append("        return count;\n")
+            .append("    }\n")
+            .append("}\n");
+        return code.toString();
+    }
+
+    /**
+     * Generates the code run once the given query vertex is matched: the intersections hoisted
+     * to its loop, and then either the loop matching the next query vertex or the count of the
+     * output tuples if the next query vertex is the last one.
+     */
+    private void generateLoop(StringBuilder code, int qVertexIdx, String indent) {
+        for (var extension : extensions) {
+            if (extension.loopIdx == qVertexIdx) {
+                generateIntersection(code, extension, indent);
+            }
+        }
+        var nextIdx = qVertexIdx + 1;
+        var toType = 1 == nextIdx ? scanToType : extensions.get(nextIdx - 2).toType;
+        if (nextIdx == numQVertices - 1) {
+            if (KeyStore.ANY == toType) {
+                code.append(String.format("%scount += n%d.endIdx - n%d.startIdx;\n", indent,
+                    nextIdx, nextIdx));
+            } else {
+                code.append(String.format(
+                    "%sfor (int i%d = n%d.startIdx; i%d < n%d.endIdx; i%d++) {\n" +
+                    "%s    if (vertexTypes[n%d.Ids[i%d]] == %d) {\n" +
+                    "%s        count++;\n" +
+                    "%s    }\n" +
+                    "%s}\n", indent, nextIdx, nextIdx, nextIdx, nextIdx, nextIdx,
+                    indent, nextIdx, nextIdx, toType, indent, indent, indent));
+            }
+            return;
+        }
+        code.append(String.format("%sfor (int i%d = n%d.startIdx; i%d < n%d.endIdx; i%d++) {\n",
+            indent, nextIdx, nextIdx, nextIdx, nextIdx, nextIdx));
+        code.append(String.format("%s    final int v%d = n%d.Ids[i%d];\n", indent, nextIdx,
+            nextIdx, nextIdx));
+        if (KeyStore.ANY != toType) {
+            code.append(String.format("%s    if (vertexTypes[v%d] != %d) {\n" +
+                "%s        continue;\n" +
+                "%s    }\n", indent, nextIdx, toType, indent, indent));
+        }
+        generateLoop(code, nextIdx, indent + "    ");
+        code.append(indent).append("}\n");
+    }
+
+    private void generateIntersection(StringBuilder code, Extension extension, String indent) {
+        var outIdx = extension.outIdx;
+        var numALDs = extension.vertexIdx.length;
+        if (1 == numALDs) {
+            code.append(String.format("%s%s.setNeighbourIds(v%d, (short) %d, n%d);\n", indent,
+                getAdjList(extension, 0), extension.vertexIdx[0], extension.labelsOrToTypes[0],
+                outIdx));
+        } else if (2 == numALDs) {
+            code.append(String.format("%s%s.setNeighbourIds(v%d, (short) %d, a%d);\n", indent,
+                getAdjList(extension, 0), extension.vertexIdx[0], extension.labelsOrToTypes[0],
+                outIdx));
+            code.append(String.format("%s%s.intersect(v%d, (short) %d, a%d, n%d);\n", indent,
+                getAdjList(extension, 1), extension.vertexIdx[1], extension.labelsOrToTypes[1],
+                outIdx, outIdx));
+        } else {
+            for (var i = 0; i < numALDs; i++) {
+                code.append(String.format("%s%s.setNeighbourIds(v%d, (short) %d, a%d[%d]);\n",
+                    indent, getAdjList(extension, i), extension.vertexIdx[i],
+                    extension.labelsOrToTypes[i], outIdx, i));
+            }
+            code.append(String.format("%sSortedAdjList.intersect(a%d, n%d);\n", indent, outIdx,
+                outIdx));
+        }
+    }
+
+    private static String getAdjList(Extension extension, int ALDIdx) {
+        return extension.directions[ALDIdx] == Direction.Fwd ? "fwd" : "bwd";
+    }
+
+    private int getLargestAdjListSize(Extension extension) {
+        var largestAdjListSize = 0;
+        for (var i = 0; i < extension.vertexIdx.length; i++) {
+            largestAdjListSize = Math.max(largestAdjListSize, graph.getLargestAdjListSize(
+                extension.labelsOrToTypes[i], extension.directions[i]));
+        }
+        return largestAdjListSize;
+    }
+
+    private static Class<?> compileClass(String className, String source) {
+        var javaCompiler = ToolProvider.getSystemJavaCompiler();
+        if (null == javaCompiler) {
+            logger.info("No Java compiler is available to compile the plan.");
+            return null;
+        }
+        var diagnostics = new DiagnosticCollector<JavaFileObject>();
+        var fileManager = new InMemoryFileManager(javaCompiler.getStandardFileManager(
+            diagnostics, null /* default locale */, null /* default charset */));
+        var sourceFile = new SimpleJavaFileObject(URI.create("string:///" +
+            className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        var options = List.of("-classpath", System.getProperty("java.class.path"),
+            "-proc:none");
+        var isCompiled = javaCompiler.getTask(null /* System.err */, fileManager, diagnostics,
+            options, null /* no annotation processing */, List.of(sourceFile)).call();
+        if (!isCompiled) {
+            logger.error("Could not compile the plan: " + diagnostics.getDiagnostics());
+            return null;
+        }
+        var classBytes = fileManager.classNameToBytes.get(className).toByteArray();
+        return new PipelineClassLoader().define(className, classBytes);
+    }
+
+    /**
+     * Keeps the compiled classes in memory.
+     */
+    private static class InMemoryFileManager extends
+        ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        Map<String, ByteArrayOutputStream> classNameToBytes = new HashMap<>();
+
+        InMemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location,
+            String className, Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/') +
+                kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    var bytes = new ByteArrayOutputStream();
+                    classNameToBytes.put(className, bytes);
+                    return bytes;
+                }
+            };
+        }
+    }
+
+    /**
+     * Defines the compiled classes, resolving the other classes with the loader of the compiler.
+     */
+    private static class PipelineClassLoader extends ClassLoader {
+
+        PipelineClassLoader() {
+            super(PlanCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(String className, byte[] classBytes) {
+            return defineClass(className, classBytes, 0, classBytes.length);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package ca.waterloo.dsg.graphflow.plan.operator;
+
+/**
+ * A batch of tuples exchanged between operators executing batch-at-a-time. The tuples are stored
+ * by column: the value of the i-th column of the tuple at a row is {@code columns[i][row]}.
+ */
+public class Batch {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    public final int[][] columns;
+    public final int capacity;
+    public int size;
+
+    /**
+     * Constructs a {@link Batch} object.
+     *
+     * @param numColumns is the length of the tuples in the batch.
+     * @param capacity is the maximum number of tuples in the batch.
+     */
+    public Batch(int numColumns, int capacity) {
+        this.columns = new int[numColumns][capacity];
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return True if the batch has no room left for tuples. False, otherwise.
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Copies a tuple of the batch to the beginning of the given tuple.
+     *
+     * @param row is the row of the tuple in the batch.
+     * @param tuple is the tuple to copy to.
+     */
+    public void copyTuple(int row, int[] tuple) {
+        for (var column = 0; column < columns.length; column++) {
+            tuple[column] = columns[column][row];
+        }
+    }
+}
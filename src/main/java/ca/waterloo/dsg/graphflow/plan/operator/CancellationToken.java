@@ -0,0 +1,28 @@
+package ca.waterloo.dsg.graphflow.plan.operator;
+
+/**
+ * Cancels the execution of a query plan, e.g. once it times out or its limit is reached. The scans
+ * of the plan check the token between the morsels and the edges they scan, and scan no further
+ * once it is cancelled. The token is also checked by the E/I operators before pushing the
+ * extensions of each input tuple, by the probes of hash joins before looking up each input tuple,
+ * and before each output batch is pushed, so the tuples already pushed by a scan stop being
+ * extended too. The plan and the workers check it before executing each subplan.
+ */
+public class CancellationToken {
+
+    private volatile boolean isCancelled = false;
+
+    /**
+     * Cancels the query plan.
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    /**
+     * @return True if the query plan is cancelled. False, otherwise.
+     */
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+}
@@ -9,6 +9,7 @@ import lombok.Getter;
 import lombok.Setter;
 
 import java.io.Serializable;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -21,7 +22,7 @@ public abstract class Operator implements Serializable {
     protected final boolean IS_PROFILED = false;
 
     /**
-     * Limit exception thrown for LIMIT queries.
+     * Limit exception thrown for LIMIT queries, and to stop executing a cancelled query plan.
      */
     public static class LimitExceededException extends Exception {}
 
@@ -42,6 +43,15 @@ public abstract class Operator implements Serializable {
     @Getter protected long numOutTuples = 0;
     @Getter protected long icost = 0;
 
+    protected transient Batch outBatch; /* null when pushing tuples one at a time */
+
+    // the vertices a hash join probed by the output tuples has tuples hashed on, null if none.
+    protected transient BitSet hashedVertices;
+    protected int hashedVertexIdx; /* the index in the output tuples of the vertex probed on */
+
+    // cancels the execution of the query plan, null if it cannot be cancelled.
+    @Setter protected transient CancellationToken cancellationToken;
+
     /**
      * Constructs an {@link Operator} object.
      *
@@ -106,11 +116,107 @@ public abstract class Operator implements Serializable {
         next = operators;
     }
 
+    /**
+     * Sets the vertices a hash join downstream has tuples hashed on, for the operator to prune
+     * its output tuples the hash join would not match before the next operators extend them.
+     *
+     * @param hashedVertices are the vertices hashed on.
+     * @param hashedVertexIdx is the index in the output tuples of the vertex probed on.
+     */
+    public void setHashedVertices(BitSet hashedVertices, int hashedVertexIdx) {
+        this.hashedVertices = hashedVertices;
+        this.hashedVertexIdx = hashedVertexIdx;
+    }
+
+    /**
+     * @param vertex is a vertex of an output tuple.
+     * @param vertexIdx is the index of the vertex in the output tuple.
+     * @return True if a hash join downstream has no tuple hashed on the vertex, the output tuple
+     * being pruned. False, otherwise.
+     */
+    protected boolean isPruned(int vertex, int vertexIdx) {
+        return null != hashedVertices && hashedVertexIdx == vertexIdx &&
+            !hashedVertices.get(vertex);
+    }
+
     /**
      * Process a new tuple and push the produced tuples to the next operator.
      */
     public abstract void processNewTuple() throws LimitExceededException;
 
+    /**
+     * Processes a new batch of tuples and pushes the produced tuples to the next operator. By
+     * default, the tuples of the batch are processed one at a time.
+     *
+     * @param batch is the batch of tuples to process.
+     */
+    public void processNewBatch(Batch batch) throws LimitExceededException {
+        processOneTupleAtATime(batch);
+    }
+
+    /**
+     * Copies each tuple of the batch to the probe tuple and processes it.
+     *
+     * @param batch is the batch of tuples to process.
+     */
+    protected final void processOneTupleAtATime(Batch batch) throws LimitExceededException {
+        for (var row = 0; row < batch.size; row++) {
+            batch.copyTuple(row, probeTuple);
+            processNewTuple();
+        }
+    }
+
+    /**
+     * Initializes batch-at-a-time execution for this operator and recursively for the next
+     * operators. By default, the operator pushes its output tuples one at a time.
+     *
+     * @param batchSize is the number of tuples in a batch.
+     */
+    public void initBatches(int batchSize) {
+        if (null != next) {
+            for (var nextOperator : next) {
+                nextOperator.initBatches(batchSize);
+            }
+        }
+    }
+
+    /**
+     * Stops the execution of the query plan if it is cancelled. The operators producing many
+     * output tuples per input tuple check it, so a cancelled plan stops even while extending
+     * the tuples of a single scanned edge.
+     *
+     * @throws LimitExceededException if the query plan is cancelled.
+     */
+    protected void checkCancelled() throws LimitExceededException {
+        if (null != cancellationToken && cancellationToken.isCancelled()) {
+            throw new LimitExceededException();
+        }
+    }
+
+    /**
+     * Pushes the output batch of tuples to the next operator and empties it.
+     */
+    protected void pushOutBatch() throws LimitExceededException {
+        checkCancelled();
+        next[0].processNewBatch(outBatch);
+        outBatch.size = 0;
+    }
+
+    /**
+     * Pushes the tuples left in the output batch to the next operator, then recursively for the
+     * next operators. Called by the first operator once it is done executing.
+     */
+    public void flushBatches() throws LimitExceededException {
+        if (null != outBatch && outBatch.size > 0) {
+            pushOutBatch();
+        }
+        if (null != next) {
+            for (var nextOperator : next) {
+                nextOperator.flushBatches();
+            }
+        }
+    }
+
     /**
      * Executes the operator.
      */
@@ -0,0 +1,349 @@
+package ca.waterloo.dsg.graphflow.plan.operator.extend;
+
+import ca.waterloo.dsg.graphflow.plan.operator.CancellationToken;
+import ca.waterloo.dsg.graphflow.plan.operator.Operator;
+import ca.waterloo.dsg.graphflow.plan.operator.sink.Sink;
+import ca.waterloo.dsg.graphflow.query.QueryGraph;
+import ca.waterloo.dsg.graphflow.storage.Graph;
+import ca.waterloo.dsg.graphflow.storage.Graph.Direction;
+import ca.waterloo.dsg.graphflow.storage.KeyStore;
+import ca.waterloo.dsg.graphflow.storage.SortedAdjList;
+import ca.waterloo.dsg.graphflow.util.container.Triple;
+import lombok.Getter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extends the input tuples by a sequence of query vertices, picking for each input tuple the
+ * order to extend them in. Each order is a chain of {@link EI} operators writing the query
+ * vertices to the same indices of the output tuples. The cost of an order is estimated with the
+ * actual sizes of the adjacency lists of the vertices in the input tuple and with the catalog
+ * estimates for the vertices extended to, so the order fits the vertices of each input tuple
+ * instead of the averages of the catalog, e.g. a hub vertex is intersected with last.
+ */
+public class AdaptiveEI extends Operator implements Serializable {
+
+    // the most orderings considered, the orders of a long sequence of extensions being many.
+    public static int MAX_NUM_ORDERINGS = 24;
+
+    /**
+     * An order to extend the input tuples in and its estimated costs.
+     */
+    public static class Ordering implements Serializable {
+
+        private List<EI> extensions;
+        // per extension, the estimated number of output tuples per input tuple.
+        private double[] selectivities;
+        // per extension and per ALD, the estimated size of the adj. list intersected.
+        private double[][] estimatedAdjListSizes;
+
+        /**
+         * Constructs an {@link Ordering} object.
+         *
+         * @param extensions are the operators extending the input tuples in the order, never
+         * initialized as their copies are executed.
+         * @param selectivities are the estimated number of output tuples of each extension per
+         * input tuple.
+         * @param estimatedAdjListSizes are the estimated sizes of the adj. lists of the ALDs of
+         * each extension.
+         */
+        public Ordering(List<EI> extensions, double[] selectivities,
+            double[][] estimatedAdjListSizes) {
+            this.extensions = extensions;
+            this.selectivities = selectivities;
+            this.estimatedAdjListSizes = estimatedAdjListSizes;
+        }
+
+        /**
+         * @return The operators extending the input tuples in the order.
+         */
+        public List<EI> getExtensions() {
+            return extensions;
+        }
+    }
+
+    @Getter private List<Ordering> orderings;
+    private EI[][] chains; /* the executed copies of the extensions of each ordering */
+
+    // per ALD of each extension of each ordering, the index of the adj. list of a vertex of the
+    // input tuple it follows in the sizes below, -1 if it follows a vertex extended to.
+    private int[][][] adjListSizeIdx;
+    private transient SortedAdjList[] adjLists;
+    private short[] labelsOrToTypes;
+    private int[] vertexIdx;
+    private int[] adjListSizes;
+    private int[] lastVertexIds;
+    private int orderingIdx;
+
+    /**
+     * Constructs an {@link AdaptiveEI} object.
+     *
+     * @param orderings are the orders to extend the input tuples in, the first being the order
+     * picked by the planner.
+     * @param outSubgraph is the subgraph matched by the output tuples.
+     * @param inSubgraph is the subgraph matched by the input tuples.
+     * @param outQVertexToIdxMap The output query vertex to tuple index map.
+     */
+    public AdaptiveEI(List<Ordering> orderings, QueryGraph outSubgraph, QueryGraph inSubgraph,
+        Map<String, Integer> outQVertexToIdxMap) {
+        super(outSubgraph, inSubgraph);
+        this.orderings = orderings;
+        this.outQVertexToIdxMap = outQVertexToIdxMap;
+        this.lastRepeatedVertexIdx = outTupleLen - 2;
+        chains = new EI[orderings.size()][];
+        for (var i = 0; i < orderings.size(); i++) {
+            var extensions = orderings.get(i).getExtensions();
+            chains[i] = new EI[extensions.size()];
+            for (var j = 0; j < extensions.size(); j++) {
+                var extension = extensions.get(j);
+                chains[i][j] = EI.make(extension.getToQueryVertex(), extension.getToType(),
+                    extension.getALDs(), extension.getOutSubgraph(), extension.getInSubgraph(),
+                    extension.getOutQVertexToIdxMap());
+                chains[i][j].setLastRepeatedVertexIdx(extension.getLastRepeatedVertexIdx());
+                if (j > 0) {
+                    chains[i][j].setPrev(chains[i][j - 1]);
+                    chains[i][j - 1].setNext(chains[i][j]);
+                }
+            }
+        }
+        setOperatorName();
+    }
+
+    /**
+     * @see Operator#init(int[], Graph, KeyStore)
+     */
+    @Override
+    public void init(int[] probeTuple, Graph graph, KeyStore store) {
+        this.probeTuple = probeTuple;
+        initAdjListSizes(graph);
+        for (var chain : chains) {
+            chain[0].setPrev(prev);
+            chain[chain.length - 1].setNext(next[0]);
+            // the next operator is initialized once, the later calls being ignored.
+            chain[0].init(probeTuple, graph, store);
+        }
+    }
+
+    /**
+     * Indexes the distinct adjacency lists the ALDs follow from the vertices of the input tuple,
+     * so their sizes are looked up once per input tuple for all the orderings.
+     */
+    private void initAdjListSizes(Graph graph) {
+        var adjListToIdx = new HashMap<String, Integer>();
+        var adjLists = new ArrayList<SortedAdjList>();
+        var labelsOrToTypes = new ArrayList<Short>();
+        var vertexIdx = new ArrayList<Integer>();
+        adjListSizeIdx = new int[orderings.size()][][];
+        for (var i = 0; i < orderings.size(); i++) {
+            var extensions = orderings.get(i).getExtensions();
+            adjListSizeIdx[i] = new int[extensions.size()][];
+            for (var j = 0; j < extensions.size(); j++) {
+                var extension = extensions.get(j);
+                var ALDs = extension.getALDs();
+                adjListSizeIdx[i][j] = new int[ALDs.size()];
+                for (var k = 0; k < ALDs.size(); k++) {
+                    var ALD = ALDs.get(k);
+                    if (!inSubgraph.getQVertices().contains(ALD.getFromQueryVertex())) {
+                        adjListSizeIdx[i][j][k] = -1;
+                        continue;
+                    }
+                    var labelOrToType = graph.isAdjListSortedByType() ?
+                        extension.getToType() : ALD.getLabel();
+                    var key = ALD.getVertexIdx() + ALD.getDirection().name() + labelOrToType;
+                    if (!adjListToIdx.containsKey(key)) {
+                        adjListToIdx.put(key, adjLists.size());
+                        adjLists.add(ALD.getDirection() == Direction.Fwd ?
+                            graph.getFwdAdjLists() : graph.getBwdAdjLists());
+                        labelsOrToTypes.add(labelOrToType);
+                        vertexIdx.add(ALD.getVertexIdx());
+                    }
+                    adjListSizeIdx[i][j][k] = adjListToIdx.get(key);
+                }
+            }
+        }
+        this.adjLists = adjLists.toArray(new SortedAdjList[0]);
+        this.labelsOrToTypes = new short[adjLists.size()];
+        this.vertexIdx = new int[adjLists.size()];
+        for (var i = 0; i < adjLists.size(); i++) {
+            this.labelsOrToTypes[i] = labelsOrToTypes.get(i);
+            this.vertexIdx[i] = vertexIdx.get(i);
+        }
+        adjListSizes = new int[adjLists.size()];
+        lastVertexIds = new int[adjLists.size()];
+        for (var i = 0; i < adjLists.size(); i++) {
+            lastVertexIds[i] = -1;
+        }
+    }
+
+    /**
+     * @see Operator#processNewTuple()
+     */
+    @Override
+    public void processNewTuple() throws LimitExceededException {
+        if (!isOrderingCached()) {
+            orderingIdx = pickOrdering();
+        }
+        chains[orderingIdx][0].processNewTuple();
+    }
+
+    /**
+     * Looks up the sizes of the adjacency lists of the vertices in the input tuple.
+     *
+     * @return True if the vertices are the same as in the previous input tuple, so is the
+     * ordering picked. False, otherwise.
+     */
+    private boolean isOrderingCached() {
+        var isCached = true;
+        for (var i = 0; i < adjLists.length; i++) {
+            var vertexId = probeTuple[vertexIdx[i]];
+            if (lastVertexIds[i] != vertexId) {
+                isCached = false;
+                lastVertexIds[i] = vertexId;
+                adjListSizes[i] = adjLists[i].size(vertexId, labelsOrToTypes[i]);
+            }
+        }
+        return isCached;
+    }
+
+    /**
+     * Estimates the i-cost of each ordering as the sum over its extensions of the estimated
+     * number of input tuples times the sizes of the adjacency lists intersected. The actual
+     * sizes of the adjacency lists of the vertices in the input tuple are used, and scale the
+     * estimated selectivity of the extension by the smallest ratio to the estimated sizes.
+     *
+     * @return The index of the ordering with the least estimated i-cost.
+     */
+    private int pickOrdering() {
+        var minICost = Double.MAX_VALUE;
+        var minICostOrderingIdx = 0;
+        orderingsLoop: for (var i = 0; i < orderings.size(); i++) {
+            var ordering = orderings.get(i);
+            var icost = 0.0;
+            var numTuples = 1.0;
+            for (var j = 0; j < ordering.selectivities.length; j++) {
+                var estimatedSizes = ordering.estimatedAdjListSizes[j];
+                var extensionICost = 0.0;
+                var ratio = 1.0;
+                for (var k = 0; k < estimatedSizes.length; k++) {
+                    var sizeIdx = adjListSizeIdx[i][j][k];
+                    if (-1 == sizeIdx) {
+                        extensionICost += estimatedSizes[k];
+                    } else {
+                        extensionICost += adjListSizes[sizeIdx];
+                        if (estimatedSizes[k] > 0) {
+                            ratio = Math.min(ratio, adjListSizes[sizeIdx] / estimatedSizes[k]);
+                        }
+                    }
+                }
+                icost += numTuples * extensionICost;
+                if (icost >= minICost) {
+                    continue orderingsLoop;
+                }
+                numTuples *= ordering.selectivities[j] * ratio;
+            }
+            minICost = icost;
+            minICostOrderingIdx = i;
+        }
+        return minICostOrderingIdx;
+    }
+
+    /**
+     * The orderings are picked per input tuple, so the tuples are extended one at a time and
+     * the next operators are not batched.
+     *
+     * @see Operator#initBatches(int)
+     */
+    @Override
+    public void initBatches(int batchSize) {}
+
+    /**
+     * @see Operator#setCancellationToken(CancellationToken)
+     */
+    @Override
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+        for (var chain : chains) {
+            for (var extension : chain) {
+                extension.setCancellationToken(cancellationToken);
+            }
+        }
+    }
+
+    /**
+     * @return The number of output tuples of the last extensions of the orderings.
+     */
+    @Override
+    public long getNumOutTuples() {
+        var numOutTuples = 0L;
+        for (var chain : chains) {
+            numOutTuples += chain[chain.length - 1].getNumOutTuples();
+        }
+        return numOutTuples;
+    }
+
+    /**
+     * The metrics of the extensions at the same position in the orderings are summed up, a
+     * triple per position.
+     *
+     * @see Operator#getOperatorMetricsNextOperators(List)
+     */
+    @Override
+    public void getOperatorMetricsNextOperators(List<Triple<String, Long, Long>> operatorMetrics) {
+        var numExtensions = chains[0].length;
+        for (var j = 0; j < numExtensions; j++) {
+            var icost = 0L;
+            var numOutTuples = 0L;
+            for (var chain : chains) {
+                icost += chain[j].getIcost();
+                numOutTuples += chain[j].getNumOutTuples();
+            }
+            operatorMetrics.add(new Triple<>(name + " [" + (j + 1) + "/" + numExtensions + "]",
+                icost, numOutTuples));
+        }
+        for (var nextOperator : next) {
+            if (!(nextOperator instanceof Sink)) {
+                nextOperator.getOperatorMetricsNextOperators(operatorMetrics);
+            }
+        }
+    }
+
+    /**
+     * @see Operator#hasMultiEdgeExtends()
+     */
+    @Override
+    public boolean hasMultiEdgeExtends() {
+        for (var extension : orderings.get(0).getExtensions()) {
+            if (extension.getALDs().size() > 1) {
+                return true;
+            }
+        }
+        return prev.hasMultiEdgeExtends();
+    }
+
+    private void setOperatorName() {
+        var toQVertices = new ArrayList<String>();
+        for (var extension : orderings.get(0).getExtensions()) {
+            toQVertices.add(extension.getToQueryVertex());
+        }
+        var fromQVertices = new ArrayList<>(inSubgraph.getQVertices());
+        Collections.sort(fromQVertices);
+        name = "Adaptive-Extend TO (" + String.join("-", toQVertices) + ") From (" +
+            String.join("-", fromQVertices) + ") among " + orderings.size() + " orderings";
+    }
+
+    /**
+     * @see Operator#copy(boolean)
+     */
+    @Override
+    public AdaptiveEI copy(boolean isThreadSafe) {
+        var adaptiveEI = new AdaptiveEI(orderings, outSubgraph, inSubgraph, outQVertexToIdxMap);
+        adaptiveEI.prev = prev.copy(isThreadSafe);
+        adaptiveEI.prev.setNext(adaptiveEI);
+        return adaptiveEI;
+    }
+}
@@ -1,7 +1,9 @@
 package ca.waterloo.dsg.graphflow.plan.operator.extend;
 
 import ca.waterloo.dsg.graphflow.plan.operator.AdjListDescriptor;
+import ca.waterloo.dsg.graphflow.plan.operator.Batch;
 import ca.waterloo.dsg.graphflow.plan.operator.Operator;
+import ca.waterloo.dsg.graphflow.plan.operator.sink.Sink;
 import ca.waterloo.dsg.graphflow.query.QueryGraph;
 import ca.waterloo.dsg.graphflow.storage.Graph;
 import ca.waterloo.dsg.graphflow.storage.Graph.Direction;
@@ -36,6 +38,30 @@ public abstract class EI extends Operator {
 
     public static boolean DIFFERENTIATE_FWD_BWD_SINGLE_ALD = false;
 
+    // the least number of neighbours left to extend a tuple with for them to be split.
+    public static int MIN_NUM_NEIGHBOURS_TO_SPLIT = 32;
+
+    /**
+     * Splits the neighbours a tuple is extended with among the threads executing the plan.
+     */
+    public interface ExtensionSplitter {
+
+        /**
+         * @return True if other threads may be idle and the work should be split. False,
+         * otherwise.
+         */
+        boolean shouldSplit();
+
+        /**
+         * Makes extending a tuple with some neighbours a task any thread can execute.
+         *
+         * @param operator is the operator extending the tuple.
+         * @param inTuple is a copy of the tuple to extend.
+         * @param Ids are the neighbours to extend the tuple with.
+         */
+        void fork(EI operator, int[] inTuple, int[] Ids);
+    }
+
     protected short[] vertexTypes;
 
     @Getter protected short toType;
@@ -48,26 +74,29 @@ public abstract class EI extends Operator {
     protected int[] vertexIdxToCache;
     protected short[] labelsOrToTypes;
     protected short[] labelsOrToTypesToCache;
-    protected transient SortedAdjList[][] adjLists;
-    transient protected SortedAdjList[][] adjListsToCache;
+    protected transient SortedAdjList[] adjLists;
+    transient protected SortedAdjList[] adjListsToCache;
 
     @Getter protected CachingType cachingType = CachingType.NONE;
+    protected boolean isCountOnly; /* the output tuples are counted without being pushed */
     private boolean isIntersectionCached = false;
     private int[] lastVertexIdsIntersected;
+    @Setter private transient ExtensionSplitter splitter;
 
     protected Neighbours outNeighbours; /* used to return output values for vertex */
     protected Neighbours initNeighbours;   /* used to set initial possible values     */
-    protected Neighbours tempNeighbours;   /* used when intersecting (temporary)      */
     protected Neighbours cachedNeighbours; /* used to cache intersections             */
+    private Neighbours[] neighboursToCache;     /* used for k-way intersections of the  */
+    private Neighbours[] neighboursToIntersect; /* adj. lists to cache and the others   */
 
     public static class Neighbours {
 
         public int[] Ids;
         public int startIdx, endIdx;
 
-        Neighbours() {}
+        public Neighbours() {}
 
-        Neighbours(int capacity) {
+        public Neighbours(int capacity) {
             Ids = new int[capacity];
         }
 
@@ -129,6 +158,7 @@ public abstract class EI extends Operator {
         for (var nextOperator : next) {
             nextOperator.init(probeTuple, graph, store);
         }
+        isCountOnly = isNextCountOnlySink();
         if (this instanceof Intersect && graph.isAdjListSortedByType()) {
             toType = KeyStore.ANY;
         }
@@ -169,11 +199,11 @@ public abstract class EI extends Operator {
             ALDs.size();
         vertexIdxToCache = new int[numCachedALDs];
         labelsOrToTypesToCache = new short[numCachedALDs];
-        adjListsToCache = new SortedAdjList[numCachedALDs][];
+        adjListsToCache = new SortedAdjList[numCachedALDs];
         if (cachingType == CachingType.PARTIAL_CACHING) {
             vertexIdx = new int[ALDs.size() - numCachedALDs];
             labelsOrToTypes = new short[ALDs.size() - numCachedALDs];
-            adjLists = new SortedAdjList[ALDs.size() - numCachedALDs][];
+            adjLists = new SortedAdjList[ALDs.size() - numCachedALDs];
         }
         var idx = 0;
         var idxToCache = 0;
@@ -218,9 +248,196 @@ public abstract class EI extends Operator {
         }
         initNeighbours = new Neighbours();
         cachedNeighbours = new Neighbours(largestAdjListSize);
-        if (ALDs.size() > 2) {
-            tempNeighbours = new Neighbours(largestAdjListSize);
+        var numCachedALDs = cachingType != CachingType.NONE ? lastVertexIdsIntersected.length :
+            ALDs.size();
+        if (numCachedALDs > 2) {
+            neighboursToCache = makeNeighbours(numCachedALDs);
+        }
+        if (ALDs.size() - numCachedALDs > 1) {
+            // the cached neighbours are intersected with the other adj. lists.
+            neighboursToIntersect = makeNeighbours(ALDs.size() - numCachedALDs + 1);
+        }
+    }
+
+    private static Neighbours[] makeNeighbours(int size) {
+        var neighbours = new Neighbours[size];
+        for (var i = 0; i < size; i++) {
+            neighbours[i] = new Neighbours();
+        }
+        return neighbours;
+    }
+
+    /**
+     * Intersects the adjacency lists to cache into the cached neighbours and keeps the neighbours
+     * of the type extended to. More than two adjacency lists are intersected at once with a k-way
+     * intersection instead of one pair at a time, so only the final matches are written out.
+     *
+     * @return the i-cost of the intersection.
+     */
+    protected long intersectAdjListsToCache() {
+        long icost;
+        if (adjListsToCache.length > 2) {
+            for (var i = 0; i < adjListsToCache.length; i++) {
+                adjListsToCache[i].setNeighbourIds(probeTuple[vertexIdxToCache[i]],
+                    labelsOrToTypesToCache[i], neighboursToCache[i]);
+            }
+            icost = SortedAdjList.intersect(neighboursToCache, cachedNeighbours);
+        } else {
+            adjListsToCache[0].setNeighbourIds(probeTuple[vertexIdxToCache[0]],
+                labelsOrToTypesToCache[0], initNeighbours);
+            icost = initNeighbours.endIdx - initNeighbours.startIdx;
+            icost += adjListsToCache[1].intersect(probeTuple[vertexIdxToCache[1]],
+                labelsOrToTypesToCache[1], initNeighbours, cachedNeighbours);
+        }
+        if (toType != KeyStore.ANY) {
+            var currEndIdx = 0;
+            for (var i = cachedNeighbours.startIdx; i < cachedNeighbours.endIdx; i++) {
+                if (vertexTypes[cachedNeighbours.Ids[i]] == toType) {
+                    cachedNeighbours.Ids[currEndIdx++] = cachedNeighbours.Ids[i];
+                }
+            }
+            cachedNeighbours.endIdx = currEndIdx;
+        }
+        return icost;
+    }
+
+    /**
+     * Intersects the cached neighbours with the adjacency lists not cached into the out
+     * neighbours, at once when there are more than one of them.
+     *
+     * @return the i-cost of the intersection.
+     */
+    protected long intersectAdjListsNotCached() {
+        if (1 == adjLists.length) {
+            return adjLists[0].intersect(probeTuple[vertexIdx[0]], labelsOrToTypes[0],
+                cachedNeighbours, outNeighbours);
+        }
+        // the k-way intersection moves the start indices, so the cache is not intersected itself.
+        neighboursToIntersect[0].Ids = cachedNeighbours.Ids;
+        neighboursToIntersect[0].startIdx = cachedNeighbours.startIdx;
+        neighboursToIntersect[0].endIdx = cachedNeighbours.endIdx;
+        for (var i = 0; i < adjLists.length; i++) {
+            adjLists[i].setNeighbourIds(probeTuple[vertexIdx[i]], labelsOrToTypes[i],
+                neighboursToIntersect[i + 1]);
+        }
+        return SortedAdjList.intersect(neighboursToIntersect, outNeighbours);
+    }
+
+    /**
+     * Extends the input tuple with each of the given neighbours of the type extended to and
+     * pushes the output tuples to the next operator. When a splitter is set and other threads
+     * may be idle, the second half of the neighbours left is forked to be extended by any thread.
+     *
+     * @param Ids are the neighbours to extend the tuple with.
+     * @param startIdx is the index of the first neighbour, inclusive.
+     * @param endIdx is the index of the last neighbour, exclusive.
+     */
+    protected void pushOutTuples(int[] Ids, int startIdx, int endIdx)
+        throws LimitExceededException {
+        checkCancelled();
+        for (var idx = startIdx; idx < endIdx; idx++) {
+            if (null != splitter && endIdx - idx >= MIN_NUM_NEIGHBOURS_TO_SPLIT &&
+                    splitter.shouldSplit()) {
+                var splitIdx = idx + (endIdx - idx) / 2;
+                splitter.fork(this, Arrays.copyOf(probeTuple, prev.getOutTupleLen()),
+                    Arrays.copyOfRange(Ids, splitIdx, endIdx));
+                endIdx = splitIdx;
+            }
+            if ((toType == KeyStore.ANY || toType == vertexTypes[Ids[idx]]) &&
+                    !isPruned(Ids[idx], outIdx)) {
+                numOutTuples++;
+                probeTuple[outIdx] = Ids[idx];
+                next[0].processNewTuple();
+            }
+        }
+    }
+
+    /**
+     * Extends a tuple forked by the {@link ExtensionSplitter} of another copy of the operator.
+     *
+     * @param inTuple is the tuple to extend.
+     * @param Ids are the neighbours to extend the tuple with.
+     */
+    public void extend(int[] inTuple, int[] Ids) throws LimitExceededException {
+        System.arraycopy(inTuple, 0, probeTuple, 0, inTuple.length);
+        pushOutTuples(Ids, 0, Ids.length);
+    }
+
+    /**
+     * @see Operator#initBatches(int)
+     */
+    @Override
+    public void initBatches(int batchSize) {
+        if (!isCountOnly) {
+            outBatch = new Batch(outTupleLen, batchSize);
         }
+        super.initBatches(batchSize);
+    }
+
+    /**
+     * Appends to the output batch the tuple of the input batch at the given row extended with
+     * each of the given neighbours, filling the output batch one column at a time. The neighbours
+     * a hash join downstream prunes are appended one at a time, skipping them.
+     *
+     * @param batch is the input batch.
+     * @param row is the row of the tuple to extend in the input batch.
+     * @param neighbours are the neighbours to extend the tuple with.
+     */
+    protected void appendToOutBatch(Batch batch, int row, Neighbours neighbours)
+        throws LimitExceededException {
+        if (null != hashedVertices) {
+            for (var idx = neighbours.startIdx; idx < neighbours.endIdx; idx++) {
+                if (!isPruned(neighbours.Ids[idx], outIdx)) {
+                    appendToOutBatch(batch, row, neighbours.Ids[idx]);
+                }
+            }
+            return;
+        }
+        numOutTuples += neighbours.endIdx - neighbours.startIdx;
+        var idx = neighbours.startIdx;
+        while (idx < neighbours.endIdx) {
+            var numTuples = Math.min(neighbours.endIdx - idx, outBatch.capacity - outBatch.size);
+            for (var column = 0; column < batch.columns.length; column++) {
+                Arrays.fill(outBatch.columns[column], outBatch.size, outBatch.size + numTuples,
+                    batch.columns[column][row]);
+            }
+            System.arraycopy(neighbours.Ids, idx, outBatch.columns[outIdx], outBatch.size,
+                numTuples);
+            outBatch.size += numTuples;
+            idx += numTuples;
+            if (outBatch.isFull()) {
+                pushOutBatch();
+            }
+        }
+    }
+
+    /**
+     * Appends to the output batch the tuple of the input batch at the given row extended with
+     * the given neighbour.
+     *
+     * @param batch is the input batch.
+     * @param row is the row of the tuple to extend in the input batch.
+     * @param neighbour is the neighbour to extend the tuple with.
+     */
+    protected void appendToOutBatch(Batch batch, int row, int neighbour)
+        throws LimitExceededException {
+        numOutTuples++;
+        var outRow = outBatch.size++;
+        for (var column = 0; column < batch.columns.length; column++) {
+            outBatch.columns[column][outRow] = batch.columns[column][row];
+        }
+        outBatch.columns[outIdx][outRow] = neighbour;
+        if (outBatch.isFull()) {
+            pushOutBatch();
+        }
+    }
+
+    /**
+     * @return True if the next operator is the only one and is a {@link Sink} only counting the
+     * output tuples. False, otherwise.
+     */
+    protected boolean isNextCountOnlySink() {
+        return 1 == next.length && next[0] instanceof Sink && ((Sink) next[0]).isCountOnly();
     }
 
     public String getALDsAsString() {
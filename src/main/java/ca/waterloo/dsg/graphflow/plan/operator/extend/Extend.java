@@ -1,6 +1,7 @@
 package ca.waterloo.dsg.graphflow.plan.operator.extend;
 
 import ca.waterloo.dsg.graphflow.plan.operator.AdjListDescriptor;
+import ca.waterloo.dsg.graphflow.plan.operator.Batch;
 import ca.waterloo.dsg.graphflow.plan.operator.Operator;
 import ca.waterloo.dsg.graphflow.query.QueryGraph;
 import ca.waterloo.dsg.graphflow.storage.Graph;
@@ -21,7 +22,7 @@ public class Extend extends EI implements Serializable {
     private int vertexIndex;
     private short labelOrToType;
     private Direction dir;
-    private SortedAdjList[] adjList;
+    private SortedAdjList adjList;
 
     /**
      * @see EI#make(String, short, List, QueryGraph, QueryGraph, Map)
@@ -54,6 +55,7 @@ public class Extend extends EI implements Serializable {
         for (var nextOperator : next) {
             nextOperator.init(probeTuple, graph, store);
         }
+        isCountOnly = isNextCountOnlySink();
     }
 
     /**
@@ -62,13 +64,47 @@ public class Extend extends EI implements Serializable {
     @Override
     @SuppressWarnings("fallthrough")
     public void processNewTuple() throws LimitExceededException {
-        adjList[probeTuple[vertexIndex]].setNeighbourIds(labelOrToType, outNeighbours);
+        adjList.setNeighbourIds(probeTuple[vertexIndex], labelOrToType, outNeighbours);
         icost += outNeighbours.endIdx - outNeighbours.startIdx;
-        for (var idx = outNeighbours.startIdx; idx < outNeighbours.endIdx; idx++) {
-            if (toType == KeyStore.ANY || toType == vertexTypes[outNeighbours.Ids[idx]]) {
-                numOutTuples++;
-                probeTuple[outIdx] = outNeighbours.Ids[idx];
-                next[0].processNewTuple();
+        if (isCountOnly) {
+            countOutNeighbours();
+            return;
+        }
+        pushOutTuples(outNeighbours.Ids, outNeighbours.startIdx, outNeighbours.endIdx);
+    }
+
+    /**
+     * @see Operator#processNewBatch(Batch)
+     */
+    @Override
+    public void processNewBatch(Batch batch) throws LimitExceededException {
+        var vertexIds = batch.columns[vertexIndex];
+        for (var row = 0; row < batch.size; row++) {
+            adjList.setNeighbourIds(vertexIds[row], labelOrToType, outNeighbours);
+            icost += outNeighbours.endIdx - outNeighbours.startIdx;
+            if (isCountOnly) {
+                countOutNeighbours();
+            } else if (toType == KeyStore.ANY) {
+                appendToOutBatch(batch, row, outNeighbours);
+            } else {
+                for (var idx = outNeighbours.startIdx; idx < outNeighbours.endIdx; idx++) {
+                    if (toType == vertexTypes[outNeighbours.Ids[idx]] &&
+                            !isPruned(outNeighbours.Ids[idx], outIdx)) {
+                        appendToOutBatch(batch, row, outNeighbours.Ids[idx]);
+                    }
+                }
+            }
+        }
+    }
+
+    private void countOutNeighbours() {
+        if (toType == KeyStore.ANY) {
+            numOutTuples += outNeighbours.endIdx - outNeighbours.startIdx;
+        } else {
+            for (var idx = outNeighbours.startIdx; idx < outNeighbours.endIdx; idx++) {
+                if (toType == vertexTypes[outNeighbours.Ids[idx]]) {
+                    numOutTuples++;
+                }
             }
         }
     }
@@ -1,9 +1,9 @@
 package ca.waterloo.dsg.graphflow.plan.operator.extend;
 
 import ca.waterloo.dsg.graphflow.plan.operator.AdjListDescriptor;
+import ca.waterloo.dsg.graphflow.plan.operator.Batch;
 import ca.waterloo.dsg.graphflow.plan.operator.Operator;
 import ca.waterloo.dsg.graphflow.query.QueryGraph;
-import ca.waterloo.dsg.graphflow.storage.KeyStore;
 
 import java.io.Serializable;
 import java.util.List;
@@ -31,53 +31,44 @@ public class Intersect extends EI implements Serializable {
      */
     @Override
     public void processNewTuple() throws LimitExceededException {
-        Neighbours temp;
-        if (cachingType == CachingType.NONE || !isIntersectionCached()) {
-            adjListsToCache[0][probeTuple[vertexIdxToCache[0]]].setNeighbourIds(
-                labelsOrToTypesToCache[0], initNeighbours);
-            icost += (initNeighbours.endIdx - initNeighbours.startIdx);
-            icost += adjListsToCache[1][probeTuple[vertexIdxToCache[1]]].intersect(
-                labelsOrToTypesToCache[1], initNeighbours, cachedNeighbours);
-            if (toType != KeyStore.ANY) {
-                var currEndIdx = 0;
-                for (var i = cachedNeighbours.startIdx; i < cachedNeighbours.endIdx; i++) {
-                    if (vertexTypes[cachedNeighbours.Ids[i]] == toType) {
-                        cachedNeighbours.Ids[currEndIdx++] = cachedNeighbours.Ids[i];
-                    }
-                }
-                cachedNeighbours.endIdx = currEndIdx;
-            }
-            for (var i = 2; i < adjListsToCache.length; i++) {
-                temp = cachedNeighbours;
-                cachedNeighbours = tempNeighbours;
-                tempNeighbours = temp;
-                icost += adjListsToCache[i][probeTuple[vertexIdxToCache[i]]].intersect(
-                    labelsOrToTypesToCache[i], tempNeighbours, cachedNeighbours);
+        setOutNeighbours();
+        if (isCountOnly) {
+            numOutTuples += (outNeighbours.endIdx - outNeighbours.startIdx);
+            return;
+        }
+        // setAdjListSortOrder the initNeighbours ids in the output tuple.
+        pushOutTuples(outNeighbours.Ids, outNeighbours.startIdx, outNeighbours.endIdx);
+    }
+
+    /**
+     * @see Operator#processNewBatch(Batch)
+     */
+    @Override
+    public void processNewBatch(Batch batch) throws LimitExceededException {
+        for (var row = 0; row < batch.size; row++) {
+            batch.copyTuple(row, probeTuple);
+            setOutNeighbours();
+            if (isCountOnly) {
+                numOutTuples += (outNeighbours.endIdx - outNeighbours.startIdx);
+            } else {
+                appendToOutBatch(batch, row, outNeighbours);
             }
         }
+    }
+
+    private void setOutNeighbours() {
+        if (cachingType == CachingType.NONE || !isIntersectionCached()) {
+            icost += intersectAdjListsToCache();
+        }
         switch (cachingType) {
             case NONE:
             case FULL_CACHING:
                 outNeighbours = cachedNeighbours;
                 break;
             case PARTIAL_CACHING:
-                icost += adjLists[0][probeTuple[vertexIdx[0]]].intersect(
-                    labelsOrToTypes[0], cachedNeighbours, outNeighbours);
-                for (int i = 1; i < adjLists.length; i++) {
-                    temp = outNeighbours;
-                    outNeighbours = tempNeighbours;
-                    tempNeighbours = temp;
-                    icost += adjLists[i][probeTuple[vertexIdx[i]]].intersect(
-                        labelsOrToTypes[i], tempNeighbours, outNeighbours);
-                }
+                icost += intersectAdjListsNotCached();
                 break;
         }
-        // setAdjListSortOrder the initNeighbours ids in the output tuple.
-        numOutTuples += (outNeighbours.endIdx - outNeighbours.startIdx);
-        for (var idx = outNeighbours.startIdx; idx < outNeighbours.endIdx; idx++) {
-            probeTuple[outIdx] = outNeighbours.Ids[idx];
-            next[0].processNewTuple();
-        }
     }
 
     /**
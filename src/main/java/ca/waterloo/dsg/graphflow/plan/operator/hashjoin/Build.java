@@ -10,7 +10,8 @@ import lombok.Setter;
 import java.io.Serializable;
 
 /**
- * An operator building a hash table by hashing incoming tuples on a single attribute.
+ * An operator building a hash table by hashing incoming tuples on a single attribute, or on
+ * multiple attributes when the join is on multiple query vertices.
  */
 public class Build extends Operator implements Serializable {
 
@@ -22,6 +23,12 @@ public class Build extends Operator implements Serializable {
     private String queryVertexToHash;
     @Getter private int buildHashIdx;
     @Getter private int hashedTupleLen;
+    // indices in the hashed tuples of the other query vertices to join on, if any.
+    @Getter @Setter private int[] keyIndices = new int[0];
+    // the number of tuples the optimizer estimates the build subplan hashes.
+    @Getter @Setter private double estimatedNumOutTuples;
+    // the number of tuples the threads hashed, once the build subplan is executed.
+    @Getter @Setter private long numHashedTuples;
 
     /**
      * Constructs a {@link Build} object.
@@ -46,7 +53,7 @@ public class Build extends Operator implements Serializable {
     public void init(int[] probeTuple, Graph graph, KeyStore store) {
         if (null == this.probeTuple) {
             this.probeTuple = probeTuple;
-            this.hashTable.allocateInitialMemory(graph.getHighestVertexId());
+            this.hashTable.allocateInitialMemory();
         }
     }
 
@@ -78,6 +85,9 @@ public class Build extends Operator implements Serializable {
         build.prev = prev.copy(isThreadSafe);
         build.prev.setNext(build);
         build.probingSubgraph = probingSubgraph;
+        build.keyIndices = keyIndices;
+        build.estimatedNumOutTuples = estimatedNumOutTuples;
+        build.numHashedTuples = numHashedTuples;
         build.setID(ID);
         return build;
     }
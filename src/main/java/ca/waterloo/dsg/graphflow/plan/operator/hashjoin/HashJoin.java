@@ -14,8 +14,13 @@ public class HashJoin {
 
     public static Plan make(QueryGraph outSubgraph, Plan buildPlan, Plan probePlan,
         int nextHashJoinID, int numThreads) {
-        return new Plan(make(outSubgraph, buildPlan.shallowCopy().getSubplans(),
-            probePlan.shallowCopy().getSubplans(), nextHashJoinID, numThreads));
+        var buildSubplans = buildPlan.shallowCopy().getSubplans();
+        var subplans = make(outSubgraph, buildSubplans, probePlan.shallowCopy().getSubplans(),
+            nextHashJoinID, numThreads);
+        // the size of the hash table is checked against the estimate once built.
+        var build = (Build) buildSubplans.get(buildSubplans.size() - 1);
+        build.setEstimatedNumOutTuples(buildPlan.getEstimatedNumOutTuples());
+        return new Plan(subplans);
     }
 
     public static List<Operator> make(QueryGraph outSubgraph, List<Operator> buildSubplans,
@@ -70,6 +75,7 @@ public class HashJoin {
             }
             buildIndices[i - 1] = otherBuildIdx;
         }
+        build.setKeyIndices(buildIndices);
 
         Probe probe;
         var inSubgraph = preProbe.getOutSubgraph();
@@ -1,9 +1,26 @@
 package ca.waterloo.dsg.graphflow.plan.operator.hashjoin;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.BitSet;
 
+/**
+ * A hash table of the build tuples of a hash join, keyed on the hashed vertex. The memory used
+ * follows the number of tuples hashed, not the number of vertices in the data graph.
+ * <p>
+ * While building, the tuples are appended to buffers, one per radix partition of the hash of
+ * their key. The tables built by the threads are then merged one partition at a time, see
+ * {@link #makeMerged(HashTable[])}, into open addressing tables over primitive arrays storing
+ * the tuples of each key contiguously. The key of a tuple is the hashed vertex, followed by the
+ * vertices of the other join query vertices when joining on several, so that probing on a
+ * composite key only visits the tuples matching all the join vertices.
+ * <p>
+ * Once the buffers take more memory than the memory budget of the table, the largest partition
+ * is spilled to disk and the tuples hashed to it are written to disk as well. The partitions
+ * spilled by any of the tables merged are not laid out in memory: the tuples probing them are
+ * spilled by the probe in turn, and each such partition is read back and probed on its own, see
+ * {@link #acquireSpilledPartition(int)}.
+ */
 public class HashTable implements Serializable {
 
     static class BlockInfo implements Serializable {
@@ -12,24 +29,39 @@ public class HashTable implements Serializable {
         int endOffset;
     }
 
-    transient private int[][] blocks;
-    transient private List<int[]> extraBlocks;
-    transient private int[][] blockIdsAndChunkOffsets;
-    transient int[] numChunks;
-    private int INITIAL_NUM_BLOCKS = 10;//1000;
-    private int NUM_TUPLES_PER_CHUNK = 32;//64;
-    private int NUM_CHUNKS_PER_BLOCK = 80;//8000;
-    private int INITIAL_NUM_CHUNKS_PER_VERTEX = 6;
+    private static final int PARTITION_BITS = 6;
+    private static final int NUM_PARTITIONS = 1 << PARTITION_BITS;
+    private static final int INITIAL_NUM_TUPLES_PER_PARTITION = 16;
+    private static final int INITIAL_NUM_SLOTS = 16;
+    static final int EMPTY_SLOT = -1;
 
-    private int BLOCK_SZ;
-    private int CHUNK_SZ;
+    // the tuples appended while building, each with its key first, by partition.
+    transient private int[][] buffers;
+    transient private int[] bufferSizes;
+    transient private long numBufferedInts;
+    transient private PartitionFiles spilledPartitions;
+    transient private BitSet spilledKeys;
+    transient private HashTable[] tablesToMerge;
 
-    private int nextGlobalBlockId = 0;
-    private int nextGlobalChunkOffset = 0;
+    // by partition once merged: the keys of the slots, the offsets of the first and past the last
+    // tuple of each slot's key, and the tuples stored contiguously by key.
+    transient private int[][] keys;
+    transient private int[][] startOffsets;
+    transient private int[][] endOffsets;
+    transient private int[][] tuples;
+    transient private boolean[] isSpilled;
+    // by partition once merged: the spilled partitions read back in memory, shared by the probes
+    // of the threads probing them at the same time, and the number of such probes.
+    transient private HashTable[] readPartitions;
+    transient private int[] numPartitionReaders;
 
     private int buildHashIdx;
     private int buildTupleLen;
     private int hashedTupleLen;
+    private int[] keyIndices; /* in the hashed tuples, of the key vertices after the first */
+    private int[] buildKeyIndices; /* in the build tuples, of the key vertices after the first */
+    private int numKeyColumns;
+    private long maxNumBufferedInts = Long.MAX_VALUE;
 
     /**
      * Constructs a {@link HashTable} object.
@@ -38,35 +70,47 @@ public class HashTable implements Serializable {
      * @param hashedTupleLen is the size of the tuple being hashed minus 1.
      */
     public HashTable(int buildHashIdx, int hashedTupleLen) {
+        this(buildHashIdx, hashedTupleLen, new int[0] /* no other key vertex */);
+    }
+
+    /**
+     * Constructs a {@link HashTable} object keyed on multiple vertices.
+     *
+     * @param buildHashIdx is the index of the vertex value in the tuples being hashed.
+     * @param hashedTupleLen is the size of the tuple being hashed minus 1.
+     * @param keyIndices are the indices in the hashed tuples, i.e. without the vertex hashed, of
+     * the other vertices of the key.
+     */
+    public HashTable(int buildHashIdx, int hashedTupleLen, int[] keyIndices) {
         this.buildHashIdx = buildHashIdx;
         this.buildTupleLen = hashedTupleLen + 1;
         this.hashedTupleLen = hashedTupleLen;
-        CHUNK_SZ = NUM_TUPLES_PER_CHUNK * hashedTupleLen;
-        BLOCK_SZ = CHUNK_SZ * NUM_CHUNKS_PER_BLOCK;
-    }
-
-    void setInitialNumBlocks(int initialNumBlocks) {
-        INITIAL_NUM_BLOCKS = initialNumBlocks;
-    }
-
-    void setNumTuplesPerChunk(int numTuplesPerChunk) {
-        NUM_TUPLES_PER_CHUNK = numTuplesPerChunk;
+        this.keyIndices = keyIndices;
+        this.numKeyColumns = keyIndices.length + 1;
+        this.buildKeyIndices = new int[keyIndices.length];
+        for (var i = 0; i < keyIndices.length; i++) {
+            buildKeyIndices[i] = keyIndices[i] < buildHashIdx ? keyIndices[i] : keyIndices[i] + 1;
+        }
     }
 
-    void setNumChunksPerBlock(int numChunksPerBlock) {
-        NUM_CHUNKS_PER_BLOCK = numChunksPerBlock;
+    /**
+     * Sets the memory the buffers of the tuples hashed can take before spilling partitions to
+     * disk.
+     *
+     * @param memoryBudget is the memory budget in bytes, 0 for no budget.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        maxNumBufferedInts = memoryBudget > 0 ? memoryBudget / Integer.BYTES : Long.MAX_VALUE;
     }
 
     /**
      * Allocates the initial memory required by the {@link HashTable}.
-     *
-     * @param highestVertexId is the highest vertex id in the input data graph.
      */
-    void allocateInitialMemory(int highestVertexId) {
-        blocks = new int[INITIAL_NUM_BLOCKS][BLOCK_SZ];
-        extraBlocks = new ArrayList<>(INITIAL_NUM_BLOCKS);
-        blockIdsAndChunkOffsets = new int[highestVertexId + 1][INITIAL_NUM_CHUNKS_PER_VERTEX * 3];
-        numChunks = new int[highestVertexId + 1];
+    void allocateInitialMemory() {
+        buffers = new int[NUM_PARTITIONS][INITIAL_NUM_TUPLES_PER_PARTITION * buildTupleLen];
+        bufferSizes = new int[NUM_PARTITIONS];
+        numBufferedInts = (long) NUM_PARTITIONS * INITIAL_NUM_TUPLES_PER_PARTITION * buildTupleLen;
+        spilledPartitions = new PartitionFiles(NUM_PARTITIONS);
     }
 
     /**
@@ -75,67 +119,486 @@ public class HashTable implements Serializable {
      * @param buildTuple is the tuple to hash.
      */
     void insertTuple(int[] buildTuple) {
-        int hashVertex = buildTuple[buildHashIdx];
-        var lastChunkIdx = this.numChunks[hashVertex];
-        if (0 == lastChunkIdx) {
-            this.numChunks[hashVertex]++;
-            updateBlockIdsAndGlobalAndChunkOffset(hashVertex);
-        }
-        lastChunkIdx = 3 * (this.numChunks[hashVertex] - 1);
-        var blockId = blockIdsAndChunkOffsets[hashVertex][lastChunkIdx];
-        var startOffset = blockIdsAndChunkOffsets[hashVertex][lastChunkIdx + 1];
-        var endOffset = blockIdsAndChunkOffsets[hashVertex][lastChunkIdx + 2];
-        var block = blockId < INITIAL_NUM_BLOCKS ? blocks[blockId] :
-            extraBlocks.get(blockId - INITIAL_NUM_BLOCKS);
+        var hashVertex = buildTuple[buildHashIdx];
+        var hash = hash(hashVertex);
+        for (var keyIdx : buildKeyIndices) {
+            hash = hash(hash, buildTuple[keyIdx]);
+        }
+        var partition = getPartition(hash);
+        if (spilledPartitions.has(partition)) {
+            spilledKeys.set(hashVertex);
+            spilledPartitions.write(partition, hashVertex);
+            spilledPartitions.write(partition, buildTuple, 0, buildHashIdx);
+            spilledPartitions.write(partition, buildTuple, buildHashIdx + 1,
+                hashedTupleLen - buildHashIdx);
+            return;
+        }
+        var buffer = buffers[partition];
+        var size = bufferSizes[partition];
+        if (size + buildTupleLen > buffer.length) {
+            numBufferedInts += buffer.length;
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            buffers[partition] = buffer;
+        }
+        buffer[size++] = hashVertex;
         for (var i = 0; i < buildTupleLen; i++) {
             if (i != buildHashIdx) {
-                block[endOffset++] = buildTuple[i];
+                buffer[size++] = buildTuple[i];
             }
         }
-        blockIdsAndChunkOffsets[hashVertex][lastChunkIdx + 2] = endOffset;
-        if (CHUNK_SZ <= (endOffset - startOffset  + hashedTupleLen)) {
-            this.numChunks[hashVertex]++;
-            resizeBlockIdsAndGlobalAndChunkOffset(hashVertex);
-            updateBlockIdsAndGlobalAndChunkOffset(hashVertex);
+        bufferSizes[partition] = size;
+        if (numBufferedInts > maxNumBufferedInts) {
+            spillLargestPartition();
+        }
+    }
+
+    private void spillLargestPartition() {
+        var largestPartition = 0;
+        for (var partition = 1; partition < NUM_PARTITIONS; partition++) {
+            if (bufferSizes[partition] > bufferSizes[largestPartition]) {
+                largestPartition = partition;
+            }
+        }
+        if (0 == bufferSizes[largestPartition]) {
+            return;
+        }
+        numBufferedInts -= buffers[largestPartition].length;
+        spillPartition(largestPartition);
+    }
+
+    private void spillPartition(int partition) {
+        if (null == spilledKeys) {
+            spilledKeys = new BitSet();
+        }
+        var buffer = buffers[partition];
+        for (var offset = 0; offset < bufferSizes[partition]; offset += buildTupleLen) {
+            spilledKeys.set(buffer[offset]);
+        }
+        spilledPartitions.write(partition, buffer, 0, bufferSizes[partition]);
+        buffers[partition] = null;
+        bufferSizes[partition] = 0;
+    }
+
+    /**
+     * Sets the block and the range of offsets of the tuples hashed on a vertex in the passed
+     * {@link BlockInfo}, the table being keyed on the vertex only. The range is empty if no tuple
+     * is hashed on the vertex, or if the partition of the vertex is spilled to disk.
+     *
+     * @param hashVertex is the value of the hashed vertex.
+     * @param blockInfo is the object to set.
+     * @return False if the partition of the vertex is spilled to disk. True, otherwise.
+     */
+    boolean getBlockAndOffsets(int hashVertex, BlockInfo blockInfo) {
+        var hash = hash(hashVertex);
+        var partition = getPartition(hash);
+        var partitionKeys = keys[partition];
+        if (null == partitionKeys) {
+            blockInfo.startOffset = 0;
+            blockInfo.endOffset = 0;
+            return !isSpilled[partition];
+        }
+        var slot = findSlot(partitionKeys, hash, hashVertex);
+        if (EMPTY_SLOT == partitionKeys[slot]) {
+            blockInfo.startOffset = 0;
+            blockInfo.endOffset = 0;
+            return true;
+        }
+        blockInfo.block = tuples[partition];
+        blockInfo.startOffset = startOffsets[partition][slot];
+        blockInfo.endOffset = endOffsets[partition][slot];
+        return true;
+    }
+
+    /**
+     * Sets the block and the range of offsets of the tuples of a composite key in the passed
+     * {@link BlockInfo}. The range is empty if no tuple has the key, or if the partition of the
+     * key is spilled to disk.
+     *
+     * @param key is the hashed vertex followed by the other vertices of the key.
+     * @param blockInfo is the object to set.
+     * @return False if the partition of the key is spilled to disk. True, otherwise.
+     */
+    boolean getBlockAndOffsets(int[] key, BlockInfo blockInfo) {
+        var hash = hash(key);
+        var partition = getPartition(hash);
+        var partitionKeys = keys[partition];
+        if (null == partitionKeys) {
+            blockInfo.startOffset = 0;
+            blockInfo.endOffset = 0;
+            return !isSpilled[partition];
+        }
+        var slot = findSlot(partitionKeys, numKeyColumns, hash, key);
+        if (EMPTY_SLOT == partitionKeys[slot * numKeyColumns]) {
+            blockInfo.startOffset = 0;
+            blockInfo.endOffset = 0;
+            return true;
         }
+        blockInfo.block = tuples[partition];
+        blockInfo.startOffset = startOffsets[partition][slot];
+        blockInfo.endOffset = endOffsets[partition][slot];
+        return true;
+    }
+
+    /**
+     * @param partition is the partition.
+     * @return The number of slots of the partition, 0 if it is not laid out in memory.
+     */
+    int getNumSlots(int partition) {
+        return null == keys[partition] ? 0 : keys[partition].length / numKeyColumns;
     }
 
     /**
-     * Sets the block, the start and the end offsets in the passed {@link BlockInfo}.
+     * Sets the block and the range of offsets of the tuples of the key of a slot in the passed
+     * {@link BlockInfo}, to go over all the tuples of the table.
      *
+     * @param partition is the partition, laid out in memory.
+     * @param slot is the slot in the partition.
+     * @param blockInfo is the object to set.
+     * @return The hashed vertex of the key of the slot, or {@link #EMPTY_SLOT} if it is empty.
+     */
+    int getSlot(int partition, int slot, BlockInfo blockInfo) {
+        blockInfo.block = tuples[partition];
+        blockInfo.startOffset = startOffsets[partition][slot];
+        blockInfo.endOffset = endOffsets[partition][slot];
+        return keys[partition][slot * numKeyColumns];
+    }
+
+    /**
      * @param hashVertex is the value of the hashed vertex.
-     * @param chunkIdx is the index of the chunk.
-     * @param blockInfo is the object to setAdjListSortOrder.
-     */
-    void getBlockAndOffsets(int hashVertex, int chunkIdx, BlockInfo blockInfo) {
-        var blockId = blockIdsAndChunkOffsets[hashVertex][chunkIdx * 3];
-        blockInfo.startOffset = blockIdsAndChunkOffsets[hashVertex][chunkIdx * 3 + 1];
-        blockInfo.endOffset = blockIdsAndChunkOffsets[hashVertex][chunkIdx * 3 + 2];
-        blockInfo.block = blockId < INITIAL_NUM_BLOCKS ? blocks[blockId] :
-            extraBlocks.get(blockId - INITIAL_NUM_BLOCKS);
-    }
-
-    private void resizeBlockIdsAndGlobalAndChunkOffset(int hashVertex) {
-        if (this.numChunks[hashVertex] + 1 > (blockIdsAndChunkOffsets[hashVertex].length / 3)) {
-            var newChunkBlockIdOffsetArray = new int[(this.numChunks[hashVertex] + 2) * 3];
-            System.arraycopy(blockIdsAndChunkOffsets[hashVertex], 0, newChunkBlockIdOffsetArray, 0,
-                blockIdsAndChunkOffsets[hashVertex].length);
-            blockIdsAndChunkOffsets[hashVertex] = newChunkBlockIdOffsetArray;
-        }
-    }
-
-    private void updateBlockIdsAndGlobalAndChunkOffset(int hashVertex) {
-        var lastChunkIdx = (this.numChunks[hashVertex] - 1) * 3;
-        blockIdsAndChunkOffsets[hashVertex][lastChunkIdx] = nextGlobalBlockId;
-        blockIdsAndChunkOffsets[hashVertex][lastChunkIdx + 1] = nextGlobalChunkOffset;
-        blockIdsAndChunkOffsets[hashVertex][lastChunkIdx + 2] = nextGlobalChunkOffset;
-        nextGlobalChunkOffset += CHUNK_SZ;
-        if (nextGlobalChunkOffset == BLOCK_SZ) {
-            nextGlobalBlockId++;
-            if (nextGlobalBlockId >= INITIAL_NUM_BLOCKS) {
-                extraBlocks.add(new int[BLOCK_SZ]);
+     * @return The partition of the vertex, the table being keyed on the vertex only.
+     */
+    int getPartitionOf(int hashVertex) {
+        return getPartition(hash(hashVertex));
+    }
+
+    /**
+     * @param key is the hashed vertex followed by the other vertices of the key.
+     * @return The partition of the composite key.
+     */
+    int getPartitionOf(int[] key) {
+        return getPartition(hash(key));
+    }
+
+    /**
+     * @param partition is the partition.
+     * @return True if the partition is spilled to disk and not laid out in memory.
+     */
+    boolean isSpilled(int partition) {
+        return isSpilled[partition];
+    }
+
+    /**
+     * Gets a partition spilled to disk by the tables merged, laid out in memory. The partition is
+     * read back once and shared read-only by the probes getting it until they all release it, so
+     * the threads probing it hold a single copy of it whatever their number.
+     *
+     * @param partition is the partition spilled.
+     * @return A table with the tuples of the partition only.
+     */
+    synchronized HashTable acquireSpilledPartition(int partition) {
+        if (0 == numPartitionReaders[partition]) {
+            readPartitions[partition] = readSpilledPartition(partition);
+        }
+        numPartitionReaders[partition]++;
+        return readPartitions[partition];
+    }
+
+    /**
+     * Releases a partition spilled to disk gotten by {@link #acquireSpilledPartition(int)}, the
+     * partition being freed once released by all the probes having gotten it.
+     *
+     * @param partition is the partition spilled.
+     */
+    synchronized void releaseSpilledPartition(int partition) {
+        if (0 == --numPartitionReaders[partition]) {
+            readPartitions[partition] = null;
+        }
+    }
+
+    /**
+     * Reads a partition spilled to disk by the tables merged, and lays it out in memory.
+     *
+     * @param partition is the partition spilled.
+     * @return A table with the tuples of the partition only.
+     */
+    private HashTable readSpilledPartition(int partition) {
+        var numInts = 0L;
+        for (var hashTable : tablesToMerge) {
+            numInts += hashTable.spilledPartitions.getSize(partition) +
+                hashTable.bufferSizes[partition];
+        }
+        if (numInts > Integer.MAX_VALUE - 8 /* maximum array length */) {
+            throw new IllegalStateException("A hash join partition spilled to disk is too " +
+                "large to be read back in memory.");
+        }
+        var buffer = new int[(int) numInts];
+        var offset = 0;
+        for (var hashTable : tablesToMerge) {
+            if (hashTable.spilledPartitions.has(partition)) {
+                hashTable.spilledPartitions.read(partition, buffer, offset);
+                offset += hashTable.spilledPartitions.getSize(partition);
+            }
+            if (null != hashTable.buffers[partition]) {
+                System.arraycopy(hashTable.buffers[partition], 0, buffer, offset,
+                    hashTable.bufferSizes[partition]);
+                offset += hashTable.bufferSizes[partition];
+            }
+        }
+        var spilledTable = new HashTable(buildHashIdx, hashedTupleLen, keyIndices);
+        spilledTable.buffers = new int[NUM_PARTITIONS][];
+        spilledTable.bufferSizes = new int[NUM_PARTITIONS];
+        spilledTable.buffers[partition] = buffer;
+        spilledTable.bufferSizes[partition] = buffer.length;
+        var hashTable = makeMerged(new HashTable[] { spilledTable });
+        hashTable.merge(partition, partition + 1);
+        return hashTable;
+    }
+
+    /**
+     * @return The vertices tuples are hashed on, to prune the tuples probing the table early.
+     */
+    public BitSet getHashedVertices() {
+        var hashedVertices = new BitSet();
+        for (var partition = 0; partition < NUM_PARTITIONS; partition++) {
+            if (isSpilled[partition]) {
+                for (var hashTable : tablesToMerge) {
+                    var buffer = hashTable.buffers[partition];
+                    for (var offset = 0; offset < hashTable.bufferSizes[partition];
+                         offset += buildTupleLen) {
+                        hashedVertices.set(buffer[offset]);
+                    }
+                }
+                continue;
+            }
+            var partitionKeys = keys[partition];
+            for (var slot = 0; slot < partitionKeys.length; slot += numKeyColumns) {
+                if (EMPTY_SLOT != partitionKeys[slot]) {
+                    hashedVertices.set(partitionKeys[slot]);
+                }
+            }
+        }
+        for (var hashTable : tablesToMerge) {
+            if (null != hashTable.spilledKeys) {
+                hashedVertices.or(hashTable.spilledKeys);
+            }
+        }
+        return hashedVertices;
+    }
+
+    /**
+     * Deletes the files of the partitions spilled to disk by the tables merged, once probed.
+     */
+    public void deleteSpilledPartitions() {
+        if (null == tablesToMerge) {
+            return;
+        }
+        for (var hashTable : tablesToMerge) {
+            if (null != hashTable.spilledPartitions) {
+                hashTable.spilledPartitions.delete();
             }
-            nextGlobalChunkOffset = 0;
         }
     }
+
+    /**
+     * Makes a {@link HashTable} of the tuples hashed into the given tables, e.g. by the threads
+     * building them in parallel, so tuples are probed with a single lookup. The partitions of
+     * the merged table are built by {@link #merge(int, int)}.
+     *
+     * @param hashTables are the tables to merge, all hashing the same tuples.
+     * @return The merged table, to build the partitions of.
+     */
+    public static HashTable makeMerged(HashTable[] hashTables) {
+        var hashTable = new HashTable(hashTables[0].buildHashIdx, hashTables[0].hashedTupleLen,
+            hashTables[0].keyIndices);
+        hashTable.tablesToMerge = hashTables;
+        hashTable.keys = new int[NUM_PARTITIONS][];
+        hashTable.startOffsets = new int[NUM_PARTITIONS][];
+        hashTable.endOffsets = new int[NUM_PARTITIONS][];
+        hashTable.tuples = new int[NUM_PARTITIONS][];
+        hashTable.isSpilled = new boolean[NUM_PARTITIONS];
+        hashTable.readPartitions = new HashTable[NUM_PARTITIONS];
+        hashTable.numPartitionReaders = new int[NUM_PARTITIONS];
+        return hashTable;
+    }
+
+    /**
+     * Builds a range of partitions from the buffers of the tables merged, and frees these
+     * buffers. Disjoint ranges can be merged in parallel.
+     *
+     * @param startPartition is the first partition of the range, inclusive.
+     * @param endPartition is the last partition of the range, exclusive.
+     */
+    public void merge(int startPartition, int endPartition) {
+        for (var partition = startPartition; partition < endPartition; partition++) {
+            mergePartition(partition);
+        }
+    }
+
+    /**
+     * @return The number of partitions to merge.
+     */
+    public int getNumPartitions() {
+        return NUM_PARTITIONS;
+    }
+
+    private void mergePartition(int partition) {
+        // a partition spilled by any of the tables is not laid out, the tuples the other tables
+        // hold in memory being read back with the tuples spilled.
+        for (var hashTable : tablesToMerge) {
+            isSpilled[partition] |= null != hashTable.spilledPartitions &&
+                hashTable.spilledPartitions.has(partition);
+        }
+        if (isSpilled[partition]) {
+            for (var hashTable : tablesToMerge) {
+                hashTable.spilledPartitions.close(partition);
+            }
+            return;
+        }
+        // count the tuples of each key, in the end offsets first.
+        var key = new int[numKeyColumns];
+        var partitionKeys = makeEmptySlots(INITIAL_NUM_SLOTS * numKeyColumns);
+        var counts = new int[INITIAL_NUM_SLOTS];
+        var numKeys = 0;
+        var numTuples = 0;
+        for (var hashTable : tablesToMerge) {
+            var buffer = hashTable.buffers[partition];
+            for (var offset = 0; offset < hashTable.bufferSizes[partition];
+                 offset += buildTupleLen) {
+                setKey(buffer, offset, key);
+                var slot = findSlot(partitionKeys, numKeyColumns, hash(key), key);
+                if (EMPTY_SLOT == partitionKeys[slot * numKeyColumns]) {
+                    if (2 * (numKeys + 1) > counts.length) {
+                        var newKeys = makeEmptySlots(2 * partitionKeys.length);
+                        counts = rehash(partitionKeys, counts, newKeys);
+                        partitionKeys = newKeys;
+                        slot = findSlot(partitionKeys, numKeyColumns, hash(key), key);
+                    }
+                    System.arraycopy(key, 0, partitionKeys, slot * numKeyColumns, numKeyColumns);
+                    numKeys++;
+                }
+                counts[slot]++;
+                numTuples++;
+            }
+        }
+        // lay the tuples of each key out contiguously.
+        var partitionStartOffsets = new int[counts.length];
+        var nextOffset = 0;
+        for (var slot = 0; slot < counts.length; slot++) {
+            partitionStartOffsets[slot] = nextOffset;
+            nextOffset += counts[slot] * hashedTupleLen;
+        }
+        var partitionEndOffsets = Arrays.copyOf(partitionStartOffsets,
+            partitionStartOffsets.length);
+        var partitionTuples = new int[numTuples * hashedTupleLen];
+        for (var hashTable : tablesToMerge) {
+            var buffer = hashTable.buffers[partition];
+            for (var offset = 0; offset < hashTable.bufferSizes[partition];
+                 offset += buildTupleLen) {
+                setKey(buffer, offset, key);
+                var slot = findSlot(partitionKeys, numKeyColumns, hash(key), key);
+                System.arraycopy(buffer, offset + 1, partitionTuples, partitionEndOffsets[slot],
+                    hashedTupleLen);
+                partitionEndOffsets[slot] += hashedTupleLen;
+            }
+            hashTable.buffers[partition] = null;
+            hashTable.bufferSizes[partition] = 0;
+        }
+        keys[partition] = partitionKeys;
+        startOffsets[partition] = partitionStartOffsets;
+        endOffsets[partition] = partitionEndOffsets;
+        tuples[partition] = partitionTuples;
+    }
+
+    /**
+     * Sets the key of a tuple buffered, stored with its hashed vertex first.
+     */
+    private void setKey(int[] buffer, int offset, int[] key) {
+        key[0] = buffer[offset];
+        for (var i = 0; i < keyIndices.length; i++) {
+            key[i + 1] = buffer[offset + 1 + keyIndices[i]];
+        }
+    }
+
+    private int[] rehash(int[] keys, int[] counts, int[] newKeys) {
+        var key = new int[numKeyColumns];
+        var newCounts = new int[2 * counts.length];
+        for (var slot = 0; slot < counts.length; slot++) {
+            if (EMPTY_SLOT != keys[slot * numKeyColumns]) {
+                System.arraycopy(keys, slot * numKeyColumns, key, 0, numKeyColumns);
+                var newSlot = findSlot(newKeys, numKeyColumns, hash(key), key);
+                System.arraycopy(key, 0, newKeys, newSlot * numKeyColumns, numKeyColumns);
+                newCounts[newSlot] = counts[slot];
+            }
+        }
+        return newCounts;
+    }
+
+    private static int[] makeEmptySlots(int numSlots) {
+        var slots = new int[numSlots];
+        Arrays.fill(slots, EMPTY_SLOT);
+        return slots;
+    }
+
+    /**
+     * @return The slot of the key, or the empty slot it is inserted at, probing linearly.
+     */
+    private static int findSlot(int[] keys, int hash, int key) {
+        var mask = keys.length - 1;
+        var slot = hash & mask;
+        while (EMPTY_SLOT != keys[slot] && key != keys[slot]) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @return The slot of the composite key, or the empty slot it is inserted at, probing
+     * linearly. The keys of the slots are stored one after the other.
+     */
+    private static int findSlot(int[] keys, int numKeyColumns, int hash, int[] key) {
+        var mask = keys.length / numKeyColumns - 1;
+        var slot = hash & mask;
+        while (EMPTY_SLOT != keys[slot * numKeyColumns] &&
+                !isKeyAt(keys, slot * numKeyColumns, key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static boolean isKeyAt(int[] keys, int offset, int[] key) {
+        for (var i = 0; i < key.length; i++) {
+            if (keys[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getPartition(int hash) {
+        // the high bits pick the partition and the low bits the slot in the partition.
+        return hash >>> (Integer.SIZE - PARTITION_BITS);
+    }
+
+    private static int hash(int[] key) {
+        var hash = hash(key[0]);
+        for (var i = 1; i < key.length; i++) {
+            hash = hash(hash, key[i]);
+        }
+        return hash;
+    }
+
+    private static int hash(int hash, int key) {
+        // mixes the hash of the previous vertices of a composite key with the next vertex.
+        return hash(31 * hash + key);
+    }
+
+    private static int hash(int key) {
+        // the finalizer of MurmurHash3, mixing all the bits of the key.
+        key ^= key >>> 16;
+        key *= 0x85ebca6b;
+        key ^= key >>> 13;
+        key *= 0xc2b2ae35;
+        key ^= key >>> 16;
+        return key;
+    }
 }
@@ -0,0 +1,157 @@
+package ca.waterloo.dsg.graphflow.plan.operator.hashjoin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Temporary files of the tuples of the partitions of a hash join spilled to disk, a file per
+ * partition. The tuples are appended to a partition's file, which is read once closed.
+ */
+class PartitionFiles {
+
+    private static final int BUFFER_SIZE = 1 << 16; /* in bytes */
+
+    private File[] files;
+    private DataOutputStream[] outputs;
+    private long[] sizes; /* number of ints written by partition */
+
+    /**
+     * Constructs a {@link PartitionFiles} object.
+     *
+     * @param numPartitions is the number of partitions of the hash join.
+     */
+    PartitionFiles(int numPartitions) {
+        files = new File[numPartitions];
+        outputs = new DataOutputStream[numPartitions];
+        sizes = new long[numPartitions];
+    }
+
+    /**
+     * @param partition is the partition.
+     * @return True if tuples of the partition are written to disk. False, otherwise.
+     */
+    boolean has(int partition) {
+        return null != files[partition];
+    }
+
+    /**
+     * @param partition is the partition.
+     * @return The number of ints written to the file of the partition.
+     */
+    long getSize(int partition) {
+        return sizes[partition];
+    }
+
+    /**
+     * Appends an int to the file of a partition, creating it first if needed.
+     *
+     * @param partition is the partition.
+     * @param value is the int to append.
+     */
+    void write(int partition, int value) {
+        try {
+            getOutput(partition).writeInt(value);
+            sizes[partition]++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error spilling a hash join partition to disk.", e);
+        }
+    }
+
+    /**
+     * Appends ints to the file of a partition, creating it first if needed.
+     *
+     * @param partition is the partition.
+     * @param values are the ints to append.
+     * @param offset is the offset of the first int to append.
+     * @param length is the number of ints to append.
+     */
+    void write(int partition, int[] values, int offset, int length) {
+        try {
+            var output = getOutput(partition);
+            for (var i = offset; i < offset + length; i++) {
+                output.writeInt(values[i]);
+            }
+            sizes[partition] += length;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error spilling a hash join partition to disk.", e);
+        }
+    }
+
+    private DataOutputStream getOutput(int partition) throws IOException {
+        if (null == outputs[partition]) {
+            files[partition] = File.createTempFile("graphflow-hash-join-", ".bin");
+            files[partition].deleteOnExit();
+            outputs[partition] = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(files[partition]), BUFFER_SIZE));
+        }
+        return outputs[partition];
+    }
+
+    /**
+     * Flushes and closes the file of a partition, if any, for it to be read.
+     *
+     * @param partition is the partition.
+     */
+    void close(int partition) {
+        if (null == outputs[partition]) {
+            return;
+        }
+        try {
+            outputs[partition].close();
+            outputs[partition] = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error spilling a hash join partition to disk.", e);
+        }
+    }
+
+    /**
+     * @param partition is the partition, its file closed.
+     * @return A stream reading the ints of the file of the partition.
+     */
+    DataInputStream openInput(int partition) {
+        try {
+            return new DataInputStream(new BufferedInputStream(
+                new FileInputStream(files[partition]), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading a hash join partition from disk.", e);
+        }
+    }
+
+    /**
+     * Reads the ints of the file of a partition, its file closed, to an array.
+     *
+     * @param partition is the partition.
+     * @param values is the array to read to.
+     * @param offset is the offset in the array to read to.
+     */
+    void read(int partition, int[] values, int offset) {
+        try (var input = openInput(partition)) {
+            for (var i = 0; i < sizes[partition]; i++) {
+                values[offset + i] = input.readInt();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading a hash join partition from disk.", e);
+        }
+    }
+
+    /**
+     * Deletes the files of all partitions.
+     */
+    void delete() {
+        for (var partition = 0; partition < files.length; partition++) {
+            close(partition);
+            if (null != files[partition]) {
+                files[partition].delete();
+                files[partition] = null;
+                sizes[partition] = 0;
+            }
+        }
+    }
+}
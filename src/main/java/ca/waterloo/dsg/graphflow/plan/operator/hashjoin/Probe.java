@@ -1,5 +1,6 @@
 package ca.waterloo.dsg.graphflow.plan.operator.hashjoin;
 
+import ca.waterloo.dsg.graphflow.plan.operator.Batch;
 import ca.waterloo.dsg.graphflow.plan.operator.Operator;
 import ca.waterloo.dsg.graphflow.plan.operator.hashjoin.HashTable.BlockInfo;
 import ca.waterloo.dsg.graphflow.query.QueryGraph;
@@ -8,7 +9,9 @@ import ca.waterloo.dsg.graphflow.storage.KeyStore;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Map;
 
@@ -17,16 +20,18 @@ import java.util.Map;
  */
 public class Probe extends Operator implements Serializable {
 
-    @Getter @Setter HashTable[] hashTables;
+    @Getter @Setter HashTable hashTable;
 
     @Getter @Setter int ID;
 
-    List<String> joinQVertices;
+    @Getter List<String> joinQVertices;
     int probeHashIdx;
     int hashedTupleLen;
     int probeTupleLen;
 
     transient BlockInfo blockInfo;
+    // the incoming tuples probing partitions spilled to disk, by partition.
+    transient PartitionFiles spilledTuples;
 
     /**
      * Constructs a {@link Probe} operator.
@@ -72,29 +77,149 @@ public class Probe extends Operator implements Serializable {
      */
     @Override
     public void processNewTuple() throws LimitExceededException {
+        checkCancelled();
         var hashVertex = probeTuple[probeHashIdx];
-        for (var hashTable : hashTables) {
-            var lastChunkIdx = hashTable.numChunks[hashVertex];
-            var prevFirstItem = -1;
-            for (var chunkIdx = 0; chunkIdx < lastChunkIdx; chunkIdx++) {
-                hashTable.getBlockAndOffsets(hashVertex, chunkIdx, blockInfo);
-                for (var offset = blockInfo.startOffset; offset < blockInfo.endOffset;) {
-                    numOutTuples++;
-                    if (hashedTupleLen == 2) {
-                        var firstItem = blockInfo.block[offset++];
-                        if (prevFirstItem != firstItem) {
-                            probeTuple[probeTupleLen] = firstItem;
-                            prevFirstItem = firstItem;
-                        }
-                        probeTuple[probeTupleLen + 1] = blockInfo.block[offset++];
-                    } else {
-                        for (var k = 0; k < hashedTupleLen; k++) {
-                            probeTuple[probeTupleLen + k] = blockInfo.block[offset++];
-                        }
+        var prevFirstItem = -1;
+        if (!hashTable.getBlockAndOffsets(hashVertex, blockInfo)) {
+            spillTuple(hashTable.getPartitionOf(hashVertex));
+            return;
+        }
+        for (var offset = blockInfo.startOffset; offset < blockInfo.endOffset;) {
+            numOutTuples++;
+            if (hashedTupleLen == 2) {
+                var firstItem = blockInfo.block[offset++];
+                if (prevFirstItem != firstItem) {
+                    probeTuple[probeTupleLen] = firstItem;
+                    prevFirstItem = firstItem;
+                }
+                probeTuple[probeTupleLen + 1] = blockInfo.block[offset++];
+            } else {
+                for (var k = 0; k < hashedTupleLen; k++) {
+                    probeTuple[probeTupleLen + k] = blockInfo.block[offset++];
+                }
+            }
+            next[0].processNewTuple();
+        }
+    }
+
+    /**
+     * @see Operator#initBatches(int)
+     */
+    @Override
+    public void initBatches(int batchSize) {
+        outBatch = new Batch(outTupleLen, batchSize);
+        super.initBatches(batchSize);
+    }
+
+    /**
+     * @see Operator#processNewBatch(Batch)
+     */
+    @Override
+    public void processNewBatch(Batch batch) throws LimitExceededException {
+        var hashVertices = batch.columns[probeHashIdx];
+        for (var row = 0; row < batch.size; row++) {
+            var hashVertex = hashVertices[row];
+            if (!hashTable.getBlockAndOffsets(hashVertex, blockInfo)) {
+                batch.copyTuple(row, probeTuple);
+                spillTuple(hashTable.getPartitionOf(hashVertex));
+                continue;
+            }
+            for (var offset = blockInfo.startOffset; offset < blockInfo.endOffset;
+                 offset += hashedTupleLen) {
+                numOutTuples++;
+                var outRow = outBatch.size++;
+                for (var column = 0; column < probeTupleLen; column++) {
+                    outBatch.columns[column][outRow] = batch.columns[column][row];
+                }
+                for (var k = 0; k < hashedTupleLen; k++) {
+                    outBatch.columns[probeTupleLen + k][outRow] =
+                        blockInfo.block[offset + k];
+                }
+                if (outBatch.isFull()) {
+                    pushOutBatch();
+                }
+            }
+        }
+    }
+
+    /**
+     * Spills the probe tuple to disk, the partition of its key being spilled.
+     *
+     * @param partition is the partition of the key of the probe tuple.
+     */
+    void spillTuple(int partition) {
+        if (null == spilledTuples) {
+            spilledTuples = new PartitionFiles(hashTable.getNumPartitions());
+        }
+        spilledTuples.write(partition, probeTuple, 0, probeTupleLen);
+    }
+
+    /**
+     * Processes the incoming tuples a probe spilled to disk, one spilled partition of the hash
+     * table at a time. The partition is read back in memory, shared with the probes of the other
+     * threads processing it at the same time, then its tuples spilled are probed and pushed to
+     * the next operators. The files of the tuples are deleted once processed.
+     *
+     * @param probe is the probe having spilled the tuples, either this operator or its copy in
+     * another copy of the query plan.
+     */
+    public void processSpilledTuples(Probe probe) throws LimitExceededException {
+        var spilledTuples = probe.spilledTuples;
+        if (null == spilledTuples) {
+            return;
+        }
+        var hashTable = this.hashTable;
+        var inBatch = null == outBatch ? null : new Batch(probeTupleLen, outBatch.capacity);
+        try {
+            for (var partition = 0; partition < hashTable.getNumPartitions(); partition++) {
+                if (!spilledTuples.has(partition)) {
+                    continue;
+                }
+                spilledTuples.close(partition);
+                this.hashTable = hashTable.acquireSpilledPartition(partition);
+                try {
+                    processSpilledTuples(spilledTuples, partition, inBatch);
+                } finally {
+                    hashTable.releaseSpilledPartition(partition);
+                }
+            }
+            if (null != inBatch) {
+                flushBatches();
+            }
+        } finally {
+            this.hashTable = hashTable;
+            spilledTuples.delete();
+            probe.spilledTuples = null;
+        }
+    }
+
+    private void processSpilledTuples(PartitionFiles spilledTuples, int partition, Batch inBatch)
+        throws LimitExceededException {
+        var numTuples = spilledTuples.getSize(partition) / probeTupleLen;
+        try (var input = spilledTuples.openInput(partition)) {
+            for (var i = 0L; i < numTuples; i++) {
+                if (null == inBatch) {
+                    for (var k = 0; k < probeTupleLen; k++) {
+                        probeTuple[k] = input.readInt();
                     }
-                    next[0].processNewTuple();
+                    processNewTuple();
+                    continue;
+                }
+                var row = inBatch.size++;
+                for (var k = 0; k < probeTupleLen; k++) {
+                    inBatch.columns[k][row] = input.readInt();
+                }
+                if (inBatch.isFull()) {
+                    processNewBatch(inBatch);
+                    inBatch.size = 0;
                 }
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading a hash join partition from disk.", e);
+        }
+        if (null != inBatch && inBatch.size > 0) {
+            processNewBatch(inBatch);
+            inBatch.size = 0;
         }
     }
 
@@ -43,30 +43,46 @@ public class ProbeCartesian extends Probe implements Serializable {
      */
     @Override
     public void execute() throws LimitExceededException {
+        probeHashVertices(hashTable);
+        // the tuples of the partitions spilled to disk are read back in memory a partition at a
+        // time. The tuples probing spilled partitions are spilled in turn, and processed once
+        // the operator is executed, see Probe#processSpilledTuples(Probe).
+        for (var partition = 0; partition < hashTable.getNumPartitions(); partition++) {
+            if (hashTable.isSpilled(partition)) {
+                try {
+                    probeHashVertices(hashTable.acquireSpilledPartition(partition));
+                } finally {
+                    hashTable.releaseSpilledPartition(partition);
+                }
+            }
+        }
+    }
+
+    /**
+     * Probes the hash table with each tuple of the given table.
+     *
+     * @param tuples is the table of the tuples to probe with.
+     */
+    private void probeHashVertices(HashTable tuples) throws LimitExceededException {
         for (var aHashVertex = 0; aHashVertex <= highestVertexId; aHashVertex++) {
             probeTuple[hashedTupleLen] = aHashVertex;
-            for (var hashTable : hashTables) {
-                var aLastChunkIdx = hashTable.numChunks[aHashVertex];
-                var aPrevFirstVertex = -1;
-                for (var aChunkIdx = 0; aChunkIdx < aLastChunkIdx; aChunkIdx++) {
-                    hashTable.getBlockAndOffsets(aHashVertex, aChunkIdx, otherBlockInfo);
-                    for (var anOffset = otherBlockInfo.startOffset;
-                             anOffset < otherBlockInfo.endOffset  ;) {
-                        if (hashedTupleLen == 2) {
-                            var firstVertex = otherBlockInfo.block[anOffset++];
-                            if (aPrevFirstVertex != firstVertex) {
-                                probeTuple[0] = firstVertex;
-                                aPrevFirstVertex = firstVertex;
-                            }
-                            probeTuple[1] = otherBlockInfo.block[anOffset++];
-                        } else {
-                            for (int k = 0; k < hashedTupleLen; k++) {
-                                probeTuple[k] = otherBlockInfo.block[anOffset++];
-                            }
-                        }
-                        super/* Probe */.processNewTuple();
+            var aPrevFirstVertex = -1;
+            tuples.getBlockAndOffsets(aHashVertex, otherBlockInfo);
+            for (var anOffset = otherBlockInfo.startOffset;
+                     anOffset < otherBlockInfo.endOffset  ;) {
+                if (hashedTupleLen == 2) {
+                    var firstVertex = otherBlockInfo.block[anOffset++];
+                    if (aPrevFirstVertex != firstVertex) {
+                        probeTuple[0] = firstVertex;
+                        aPrevFirstVertex = firstVertex;
+                    }
+                    probeTuple[1] = otherBlockInfo.block[anOffset++];
+                } else {
+                    for (int k = 0; k < hashedTupleLen; k++) {
+                        probeTuple[k] = otherBlockInfo.block[anOffset++];
                     }
                 }
+                super/* Probe */.processNewTuple();
             }
         }
     }
@@ -1,5 +1,6 @@
 package ca.waterloo.dsg.graphflow.plan.operator.hashjoin;
 
+import ca.waterloo.dsg.graphflow.plan.operator.Batch;
 import ca.waterloo.dsg.graphflow.plan.operator.Operator;
 import ca.waterloo.dsg.graphflow.query.QueryGraph;
 
@@ -8,12 +9,15 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * An operator matching incoming tuples by probing a hash table on multiple attributes.
+ * An operator matching incoming tuples by probing a hash table on multiple attributes. The hash
+ * table is keyed on all the attributes so only the matching hashed tuples are visited.
  */
 public class ProbeMultiVertices extends Probe implements Serializable {
 
     int[] probeIndices;
     int[] buildIndices;
+    private int[] probeKey;
+    private int[] copiedIndices; /* of the hashed tuples, not joined on */
 
     /**
      * Constructs a {@link ProbeMultiVertices} operator.
@@ -22,8 +26,8 @@ public class ProbeMultiVertices extends Probe implements Serializable {
      * @param inSubgraph is the subgraph matched by the input tuples.
      * @param joinQVertices is the list of variables to probe the hash table on.
      * @param probeHashIdx is the index to probe the hash table on.
-     * @param probeIndices is the setAdjListSortOrder of extra indices to check for equality on.
-     * @param buildIndices is the setAdjListSortOrder of indices to match on with the hashTable.
+     * @param probeIndices are the indices of the other query vertices to probe the hash table on.
+     * @param buildIndices are the indices of the other query vertices in the hashed tuples.
      * @param hashedTupleLen is the length of the hashed tuple to copy.
      * @param probeTupleLen is the length of the previous operator output.
      * @param outQVertexToIdxMap The output query vertex to tuple index map.
@@ -35,6 +39,17 @@ public class ProbeMultiVertices extends Probe implements Serializable {
             outQVertexToIdxMap);
         this.probeIndices = probeIndices;
         this.buildIndices = buildIndices;
+        this.probeKey = new int[probeIndices.length + 1];
+        this.copiedIndices = new int[hashedTupleLen - buildIndices.length];
+        var numCopiedIndices = 0;
+        copyLoop: for (var k = 0; k < hashedTupleLen; k++) {
+            for (var buildIdx : buildIndices) {
+                if (k == buildIdx) {
+                    continue copyLoop;
+                }
+            }
+            copiedIndices[numCopiedIndices++] = k;
+        }
         var strBuilder = new StringBuilder();
         strBuilder.append("PROBE ON ");
         if (1 == joinQVertices.size()) {
@@ -52,41 +67,37 @@ public class ProbeMultiVertices extends Probe implements Serializable {
         name = strBuilder.toString();
     }
 
+    /**
+     * Processes the tuples of the batch one at a time, the composite keys not being batched.
+     *
+     * @see Operator#processNewBatch(Batch)
+     */
+    @Override
+    public void processNewBatch(Batch batch) throws LimitExceededException {
+        processOneTupleAtATime(batch);
+    }
+
     /**
      * @see Operator#processNewTuple()
      */
     @Override
     public void processNewTuple() throws LimitExceededException {
-        var hashVertex = probeTuple[probeHashIdx];
-        for (var hashTable : hashTables) {
-            var lastChunkIdx = hashTable.numChunks[hashVertex];
-            for (var chunkIdx = 0; chunkIdx < lastChunkIdx; chunkIdx++) {
-                hashTable.getBlockAndOffsets(hashVertex, chunkIdx, blockInfo);
-                offsetLoop: for (var offset = blockInfo.startOffset;
-                                     offset < blockInfo.endOffset  ; offset += hashedTupleLen) {
-                    for (var i = 0; i < probeIndices.length; i++) {
-                        if (probeTuple[probeIndices[i]] !=
-                                blockInfo.block[offset + buildIndices[i]]) {
-                            continue offsetLoop;
-                        }
-                    }
-                    numOutTuples++;
-                    var out = 0;
-                    for (var k = 0; k < hashedTupleLen; k++) {
-                        var copy = true;
-                        for (var buildIdx : buildIndices) {
-                            if (k == buildIdx) {
-                                copy = false;
-                                break;
-                            }
-                        }
-                        if (copy) {
-                            probeTuple[probeTupleLen + out++] = blockInfo.block[offset + k];
-                        }
-                    }
-                    next[0].processNewTuple();
-                }
+        checkCancelled();
+        probeKey[0] = probeTuple[probeHashIdx];
+        for (var i = 0; i < probeIndices.length; i++) {
+            probeKey[i + 1] = probeTuple[probeIndices[i]];
+        }
+        if (!hashTable.getBlockAndOffsets(probeKey, blockInfo)) {
+            spillTuple(hashTable.getPartitionOf(probeKey));
+            return;
+        }
+        for (var offset = blockInfo.startOffset; offset < blockInfo.endOffset;
+             offset += hashedTupleLen) {
+            numOutTuples++;
+            for (var i = 0; i < copiedIndices.length; i++) {
+                probeTuple[probeTupleLen + i] = blockInfo.block[offset + copiedIndices[i]];
             }
+            next[0].processNewTuple();
         }
     }
 
@@ -13,7 +13,6 @@ import java.util.Map;
 public class ProbeMultiVerticesCartesian extends ProbeMultiVertices implements Serializable {
 
     private BlockInfo otherBlockInfo;
-    private int highestVertexId;
 
     /**
      * @see ProbeMultiVertices#ProbeMultiVertices(QueryGraph, QueryGraph, List, int, int[], int[],
@@ -33,7 +32,6 @@ public class ProbeMultiVerticesCartesian extends ProbeMultiVertices implements S
     @Override
     public void init(int[] probeTuple, Graph graph, KeyStore store) {
         if (null == this.probeTuple) {
-            highestVertexId = graph.getHighestVertexId();
             otherBlockInfo = new BlockInfo();
         }
         super.init(probeTuple, graph, store);
@@ -44,29 +42,41 @@ public class ProbeMultiVerticesCartesian extends ProbeMultiVertices implements S
      */
     @Override
     public void execute() throws LimitExceededException {
-        for (var aHashVertex = 0; aHashVertex <= highestVertexId; aHashVertex++) {
-            probeTuple[hashedTupleLen] = aHashVertex;
-            for (var hashTable : hashTables) {
-                var aLastChunkIdx = hashTable.numChunks[aHashVertex];
-                var aPrevFirstVertex = -1;
-                for (var aChunkIdx = 0; aChunkIdx < aLastChunkIdx; aChunkIdx++) {
-                    hashTable.getBlockAndOffsets(aHashVertex, aChunkIdx, otherBlockInfo);
-                    for (var anOffset = otherBlockInfo.startOffset;
-                             anOffset < otherBlockInfo.endOffset  ;) {
-                        if (hashedTupleLen == 2) {
-                            var firstVertex = otherBlockInfo.block[anOffset++];
-                            if (aPrevFirstVertex != firstVertex) {
-                                probeTuple[0] = firstVertex;
-                                aPrevFirstVertex = firstVertex;
-                            }
-                            probeTuple[1] = otherBlockInfo.block[anOffset++];
-                        } else {
-                            for (int k = 0; k < hashedTupleLen; k++) {
-                                probeTuple[k] = otherBlockInfo.block[anOffset++];
-                            }
-                        }
-                        super/* ProbeMultiVertices */.processNewTuple();
+        probeHashVertices(hashTable);
+        // the tuples of the partitions spilled to disk are read back in memory a partition at a
+        // time. The tuples probing spilled partitions are spilled in turn, and processed once
+        // the operator is executed, see Probe#processSpilledTuples(Probe).
+        for (var partition = 0; partition < hashTable.getNumPartitions(); partition++) {
+            if (hashTable.isSpilled(partition)) {
+                try {
+                    probeHashVertices(hashTable.acquireSpilledPartition(partition));
+                } finally {
+                    hashTable.releaseSpilledPartition(partition);
+                }
+            }
+        }
+    }
+
+    /**
+     * Probes the hash table with each tuple of the given table, going over the keys of its slots
+     * as the table is keyed on multiple vertices.
+     *
+     * @param tuples is the table of the tuples to probe with.
+     */
+    private void probeHashVertices(HashTable tuples) throws LimitExceededException {
+        for (var partition = 0; partition < tuples.getNumPartitions(); partition++) {
+            for (var slot = 0; slot < tuples.getNumSlots(partition); slot++) {
+                var aHashVertex = tuples.getSlot(partition, slot, otherBlockInfo);
+                if (HashTable.EMPTY_SLOT == aHashVertex) {
+                    continue;
+                }
+                probeTuple[hashedTupleLen] = aHashVertex;
+                for (var anOffset = otherBlockInfo.startOffset;
+                         anOffset < otherBlockInfo.endOffset  ;) {
+                    for (int k = 0; k < hashedTupleLen; k++) {
+                        probeTuple[k] = otherBlockInfo.block[anOffset++];
                     }
+                    super/* ProbeMultiVertices */.processNewTuple();
                 }
             }
         }
@@ -1,6 +1,8 @@
 package ca.waterloo.dsg.graphflow.plan.operator.scan;
 
+import ca.waterloo.dsg.graphflow.plan.operator.Batch;
 import ca.waterloo.dsg.graphflow.plan.operator.Operator;
+import ca.waterloo.dsg.graphflow.plan.operator.extend.EI.Neighbours;
 import ca.waterloo.dsg.graphflow.query.QueryGraph;
 import ca.waterloo.dsg.graphflow.storage.Graph;
 import ca.waterloo.dsg.graphflow.storage.KeyStore;
@@ -21,7 +23,8 @@ public class Scan extends Operator implements Serializable {
     @Getter protected String fromQueryVertex, toQueryVertex;
     @Getter short fromType, toType, labelOrToType;
 
-    SortedAdjList[] fwdAdjList;
+    SortedAdjList fwdAdjList;
+    Neighbours toNeighbours;
     private int fromVertexStartIdx, fromVertexEndIdx;
     int[] vertexIds;
     short[] vertexTypes;
@@ -65,6 +68,7 @@ public class Scan extends Operator implements Serializable {
             this.fromVertexEndIdx = graph.getHighestVertexId() + 1;
         }
         this.fwdAdjList = graph.getFwdAdjLists();
+        this.toNeighbours = new Neighbours();
         if (graph.isAdjListSortedByType()) {
             labelOrToType = toType;
             toType = KeyStore.ANY;
@@ -79,20 +83,74 @@ public class Scan extends Operator implements Serializable {
      */
     @Override
     public void execute() throws LimitExceededException {
-        int fromVertex, toVertexStartIdx, toVertexEndIdx;
-        for (var fromIdx = fromVertexStartIdx; fromIdx < fromVertexEndIdx; fromIdx++) {
+        int fromVertex;
+        for (var fromIdx = fromVertexStartIdx; fromIdx < fromVertexEndIdx && !isCancelled();
+             fromIdx++) {
             fromVertex = vertexIds[fromIdx];
+            if (isPruned(fromVertex, 0 /* from vertex index */)) {
+                continue;
+            }
+            fwdAdjList.setNeighbourIds(fromVertex, labelOrToType, toNeighbours);
+            if (null != outBatch) {
+                appendToOutBatch(fromVertex);
+                continue;
+            }
             probeTuple[0] = fromVertex;
-            toVertexStartIdx = fwdAdjList[fromVertex].getLabelOrTypeOffsets()[labelOrToType];
-            toVertexEndIdx = fwdAdjList[fromVertex].getLabelOrTypeOffsets()[labelOrToType + 1];
-            for (var toIdx = toVertexStartIdx; toIdx < toVertexEndIdx; toIdx++) {
-                probeTuple[1] = fwdAdjList[fromVertex].getNeighbourId(toIdx);
-                if (toType == KeyStore.ANY || vertexTypes[probeTuple[1]] == toType) {
+            for (var toIdx = toNeighbours.startIdx; toIdx < toNeighbours.endIdx &&
+                     !isCancelled(); toIdx++) {
+                probeTuple[1] = toNeighbours.Ids[toIdx];
+                if ((toType == KeyStore.ANY || vertexTypes[probeTuple[1]] == toType) &&
+                        !isPruned(probeTuple[1], 1 /* to vertex index */)) {
                     numOutTuples++;
                     next[0].processNewTuple();
                 }
             }
         }
+        if (null != outBatch) {
+            flushBatches();
+        }
+    }
+
+    /**
+     * @see Operator#initBatches(int)
+     */
+    @Override
+    public void initBatches(int batchSize) {
+        outBatch = new Batch(outTupleLen, batchSize);
+        super.initBatches(batchSize);
+    }
+
+    /**
+     * Appends the edges from the given vertex to the to neighbours to the output batch.
+     *
+     * @param fromVertex is the from vertex of the edges.
+     */
+    void appendToOutBatch(int fromVertex) throws LimitExceededException {
+        var fromVertices = outBatch.columns[0];
+        var toVertices = outBatch.columns[1];
+        for (var toIdx = toNeighbours.startIdx; toIdx < toNeighbours.endIdx; toIdx++) {
+            if ((toType == KeyStore.ANY || vertexTypes[toNeighbours.Ids[toIdx]] == toType) &&
+                    !isPruned(toNeighbours.Ids[toIdx], 1 /* to vertex index */)) {
+                numOutTuples++;
+                fromVertices[outBatch.size] = fromVertex;
+                toVertices[outBatch.size++] = toNeighbours.Ids[toIdx];
+                if (outBatch.isFull()) {
+                    pushOutBatch();
+                    if (isCancelled()) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return True if the scan is cancelled, in which case no more edges are scanned. The token
+     * is checked between the edges rather than only between morsels, as a morsel can be a large
+     * fraction of the edges.
+     */
+    boolean isCancelled() {
+        return null != cancellationToken && cancellationToken.isCancelled();
     }
 
     /**
@@ -1,14 +1,16 @@
 package ca.waterloo.dsg.graphflow.plan.operator.scan;
 
 import ca.waterloo.dsg.graphflow.plan.operator.Operator;
+import ca.waterloo.dsg.graphflow.plan.operator.extend.EI.Neighbours;
 import ca.waterloo.dsg.graphflow.query.QueryGraph;
 import ca.waterloo.dsg.graphflow.storage.Graph;
 import ca.waterloo.dsg.graphflow.storage.KeyStore;
+import lombok.Getter;
 import lombok.Setter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A multi-threaded implementation of the {@link Scan} operator .
@@ -17,18 +19,55 @@ public class ScanBlocking extends Scan {
 
     protected static final Logger logger = LogManager.getLogger(ScanBlocking.class);
 
+    // the least number of edges in a morsel.
     public static int PARTITION_SIZE = 100;
 
-    private int currFromIdx, currToIdx;
-    private int fromIdxLimit, toIdxLimit;
-    private int highestFromIdx, highestToIdx;
+    // the morsels are sized for the threads to claim about this many of the edges left each.
+    private static final int NUM_MORSELS_PER_THREAD = 8;
 
-    @Setter private VertexIdxLimits globalVerticesIdxLimits;
+    private int fromIdxStart;
+
+    @Setter private MorselDispenser morselDispenser;
+    // written by the thread scanning only, so read from others to report the progress only.
+    @Getter private long numEdgesScanned = 0;
+
+    /**
+     * Dispenses morsels, ranges of the scanned edges, to the threads executing the plan. The edges
+     * are numbered in the order they are scanned and a prefix sum of the number of edges of the
+     * from vertices maps an edge back to its from vertex. A morsel is claimed with a single atomic
+     * add on a shared cursor, without locking, and morsels get smaller as fewer edges are left.
+     */
+    public static class MorselDispenser {
+
+        private int numThreads;
+        private long[] edgeOffsets; /* the number of edges scanned before each from vertex */
+        private AtomicLong nextEdgeIdx = new AtomicLong(0);
+
+        /**
+         * Constructs a {@link MorselDispenser} object.
+         *
+         * @param numThreads is the number of threads claiming morsels.
+         */
+        public MorselDispenser(int numThreads) {
+            this.numThreads = numThreads;
+        }
+
+        /**
+         * @return The number of edges to scan, 0 until the scans are initialized.
+         */
+        public long getNumEdges() {
+            return null == edgeOffsets ? 0 : edgeOffsets[edgeOffsets.length - 1];
+        }
+
+        private long getMorselSize() {
+            var numEdgesLeft = getNumEdges() - nextEdgeIdx.get();
+            return Math.max(PARTITION_SIZE, numEdgesLeft / (NUM_MORSELS_PER_THREAD * numThreads));
+        }
+
+        private long claim(long morselSize) {
+            return nextEdgeIdx.getAndAdd(morselSize);
+        }
 
-    public static class VertexIdxLimits {
-        int fromVariableIndexLimit;
-        int toVariableIndexLimit;
-        ReentrantLock lock = new ReentrantLock();
     }
 
     /**
@@ -49,22 +88,27 @@ public class ScanBlocking extends Scan {
         this.vertexIds = graph.getVertexIds();
         this.vertexTypes = graph.getVertexTypes();
         this.fwdAdjList = graph.getFwdAdjLists();
+        this.toNeighbours = new Neighbours();
         if (graph.isAdjListSortedByType()) {
             labelOrToType = toType;
             toType = KeyStore.ANY;
         }
+        int highestFromIdx;
         if (KeyStore.ANY != fromType) {
-            currFromIdx = graph.getVertexTypeOffsets()[fromType];
+            fromIdxStart = graph.getVertexTypeOffsets()[fromType];
             highestFromIdx = graph.getVertexTypeOffsets()[fromType + 1];
         } else {
-            currFromIdx = 0;
+            fromIdxStart = 0;
             highestFromIdx = graph.getHighestVertexId() + 1;
         }
-        currToIdx = fwdAdjList[vertexIds[currFromIdx]].getLabelOrTypeOffsets()[labelOrToType];
-        highestToIdx = fwdAdjList[vertexIds[highestFromIdx - 1]].getLabelOrTypeOffsets()[
-            labelOrToType + 1];
-        globalVerticesIdxLimits.fromVariableIndexLimit = currFromIdx;
-        globalVerticesIdxLimits.toVariableIndexLimit = currToIdx;
+        if (null == morselDispenser.edgeOffsets) {
+            var edgeOffsets = new long[highestFromIdx - fromIdxStart + 1];
+            for (var fromIdx = fromIdxStart; fromIdx < highestFromIdx; fromIdx++) {
+                edgeOffsets[fromIdx - fromIdxStart + 1] = edgeOffsets[fromIdx - fromIdxStart] +
+                    fwdAdjList.size(vertexIds[fromIdx], labelOrToType);
+            }
+            morselDispenser.edgeOffsets = edgeOffsets;
+        }
         for (var nextOperator : next) {
             nextOperator.init(probeTuple, graph, store);
         }
@@ -75,66 +119,74 @@ public class ScanBlocking extends Scan {
      */
     @Override
     public void execute() throws LimitExceededException {
-        updateIndicesLimits();
-        while (currFromIdx < highestFromIdx - 1 ||
-            (currFromIdx == highestFromIdx - 1 && currToIdx < highestToIdx)) {
-            if (currFromIdx == fromIdxLimit) {
-                produceNewEdges(currFromIdx, currToIdx, toIdxLimit);
-            } else if (currFromIdx < fromIdxLimit) {
-                produceNewEdges(currFromIdx, currToIdx, fwdAdjList[vertexIds[currFromIdx]].
-                    getLabelOrTypeOffsets()[labelOrToType + 1]);
-                for (var fromIdx = currFromIdx + 1; fromIdx < fromIdxLimit; fromIdx++) {
-                    var adjList = fwdAdjList[vertexIds[fromIdx]];
-                    produceNewEdges(fromIdx, adjList.getLabelOrTypeOffsets()[labelOrToType],
-                        adjList.getLabelOrTypeOffsets()[labelOrToType + 1]);
+        var edgeOffsets = morselDispenser.edgeOffsets;
+        var numEdges = morselDispenser.getNumEdges();
+        while (!isCancelled()) {
+            var morselSize = morselDispenser.getMorselSize();
+            var startEdgeIdx = morselDispenser.claim(morselSize);
+            if (startEdgeIdx >= numEdges) {
+                break;
+            }
+            var endEdgeIdx = Math.min(startEdgeIdx + morselSize, numEdges);
+            var offsetIdx = getOffsetIdx(edgeOffsets, startEdgeIdx);
+            var edgeIdx = startEdgeIdx;
+            while (edgeIdx < endEdgeIdx && !isCancelled()) {
+                var startToIdx = (int) (edgeIdx - edgeOffsets[offsetIdx]);
+                var endToIdx = (int) (Math.min(endEdgeIdx, edgeOffsets[offsetIdx + 1]) -
+                    edgeOffsets[offsetIdx]);
+                if (startToIdx < endToIdx) {
+                    produceNewEdges(fromIdxStart + offsetIdx, startToIdx, endToIdx);
                 }
-                produceNewEdges(fromIdxLimit, fwdAdjList[vertexIds[fromIdxLimit]].
-                    getLabelOrTypeOffsets()[labelOrToType], toIdxLimit);
+                edgeIdx = edgeOffsets[offsetIdx] + endToIdx;
+                offsetIdx++;
+            }
+        }
+        if (null != outBatch) {
+            flushBatches();
+        }
+    }
+
+    /**
+     * @return The index of the from vertex, relative to the first one scanned, of the given edge.
+     */
+    private static int getOffsetIdx(long[] edgeOffsets, long edgeIdx) {
+        // the last offset not greater than the edge index, skipping vertices without edges.
+        var low = 0;
+        var high = edgeOffsets.length - 1;
+        while (low < high) {
+            var mid = (low + high + 1) >>> 1;
+            if (edgeOffsets[mid] <= edgeIdx) {
+                low = mid;
+            } else {
+                high = mid - 1;
             }
-            updateIndicesLimits();
         }
+        return low;
     }
 
     private void produceNewEdges(int fromIdx, int startToIdx, int endToIdx)
         throws LimitExceededException {
+        if (isPruned(vertexIds[fromIdx], 0 /* from vertex index */)) {
+            numEdgesScanned += endToIdx - startToIdx;
+            return;
+        }
+        fwdAdjList.setNeighbourIds(vertexIds[fromIdx], labelOrToType, startToIdx, endToIdx,
+            toNeighbours);
+        if (null != outBatch) {
+            appendToOutBatch(vertexIds[fromIdx]);
+            numEdgesScanned += endToIdx - startToIdx;
+            return;
+        }
         probeTuple[0] = vertexIds[fromIdx];
-        for (var toIdx = startToIdx; toIdx < endToIdx; toIdx++) {
-            probeTuple[1] = fwdAdjList[probeTuple[0]].getNeighbourId(toIdx);
-            if (toType == KeyStore.ANY || vertexTypes[probeTuple[1]] == toType) {
+        for (var toIdx = toNeighbours.startIdx; toIdx < toNeighbours.endIdx &&
+                 !isCancelled(); toIdx++) {
+            numEdgesScanned++;
+            probeTuple[1] = toNeighbours.Ids[toIdx];
+            if ((toType == KeyStore.ANY || vertexTypes[probeTuple[1]] == toType) &&
+                    !isPruned(probeTuple[1], 1 /* to vertex index */)) {
                 numOutTuples++;
                 next[0].processNewTuple();
             }
         }
     }
-
-    private void updateIndicesLimits() {
-        globalVerticesIdxLimits.lock.lock();
-        try {
-            fromIdxLimit = currFromIdx = globalVerticesIdxLimits.fromVariableIndexLimit;
-            toIdxLimit   = currToIdx   = globalVerticesIdxLimits.toVariableIndexLimit;
-            var numEdgesLeft = PARTITION_SIZE;
-            while (numEdgesLeft > 0 && (fromIdxLimit < highestFromIdx ||
-                (fromIdxLimit == highestFromIdx - 1 && toIdxLimit < highestToIdx))) {
-                var toLimit = fwdAdjList[vertexIds[fromIdxLimit]].getLabelOrTypeOffsets()[
-                    labelOrToType + 1];
-                if (toIdxLimit + numEdgesLeft < toLimit) {
-                    toIdxLimit += numEdgesLeft;
-                    numEdgesLeft = 0;
-                } else { // toIdxLimit + numEdgesLeft >= toLimit
-                    numEdgesLeft -= (toLimit - toIdxLimit + 1);
-                    toIdxLimit = toLimit;
-                    if (fromIdxLimit == highestFromIdx - 1) {
-                        break;
-                    }
-                    fromIdxLimit += 1;
-                    toIdxLimit = fwdAdjList[vertexIds[fromIdxLimit]].getLabelOrTypeOffsets()[
-                        labelOrToType];
-                }
-            }
-            globalVerticesIdxLimits.fromVariableIndexLimit = fromIdxLimit;
-            globalVerticesIdxLimits.toVariableIndexLimit = toIdxLimit;
-        } finally {
-            globalVerticesIdxLimits.lock.unlock();
-        }
-    }
 }
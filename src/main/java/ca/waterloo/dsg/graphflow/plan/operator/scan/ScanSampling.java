@@ -5,7 +5,6 @@ import ca.waterloo.dsg.graphflow.query.QueryGraph;
 import ca.waterloo.dsg.graphflow.storage.Graph;
 import ca.waterloo.dsg.graphflow.storage.KeyStore;
 
-import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.concurrent.BlockingQueue;
@@ -77,19 +76,6 @@ public class ScanSampling extends Scan {
         }
     }
 
-    /**
-     * @param edges is a list of edges to sample from.
-     * @param numEdgesToSample is the number of edges to sample.
-     */
-    public void setEdgeIndicesToSample(List<int[]> edges, int numEdgesToSample) {
-        var randomNumGen = new Random(0 /*Always same seed for reproducibility*/);
-        edgesQueue = new LinkedBlockingQueue<>(numEdgesToSample);
-        while (edgesQueue.size() < numEdgesToSample) {
-            var edgeIdx = randomNumGen.nextInt(edges.size());
-            edgesQueue.add(edges.get(edgeIdx));
-        }
-    }
-
     /**
      * @see Operator#copy()
      */
@@ -0,0 +1,21 @@
+package ca.waterloo.dsg.graphflow.plan.operator.sink;
+
+/**
+ * Consumes the matches of a query streamed by a {@link SinkStream}, a batch of matches at a time.
+ * The batches of the threads executing the query are handed to the same consumer, so it should be
+ * thread-safe if the query is executed with multiple threads.
+ */
+@FunctionalInterface
+public interface MatchConsumer {
+
+    /**
+     * Consumes a batch of matches. The batch is reused once consumed, so it should be copied if
+     * the matches are kept.
+     *
+     * @param matches are the matches, stored one after the other, each as the data vertices
+     * matching the query vertices in the order of {@link SinkStream#getQVertices()}.
+     * @param numQVertices is the number of query vertices, i.e. the length of a match.
+     * @param numMatches is the number of matches in the batch.
+     */
+    void consume(int[] matches, int numQVertices, int numMatches);
+}
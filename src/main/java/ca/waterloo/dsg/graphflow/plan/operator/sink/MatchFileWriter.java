@@ -0,0 +1,122 @@
+package ca.waterloo.dsg.graphflow.plan.operator.sink;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the matches streamed by a {@link SinkStream} to a file through a direct buffer, either
+ * as little-endian ints, a match after the other, or as CSV with a line per match. The batches
+ * of the threads are written one at a time.
+ */
+public class MatchFileWriter implements MatchConsumer, AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int MAX_CSV_INT_LEN = 11; /* digits of a vertex ID and a separator */
+
+    /**
+     * The formats of the files of matches.
+     */
+    public enum Format {
+        BINARY,
+        CSV
+    }
+
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private Format format;
+
+    /**
+     * Constructs a {@link MatchFileWriter} object.
+     *
+     * @param file is the path to the file to write, truncated if it already exists.
+     * @param format is the format to write the matches in.
+     * @throws IOException if the file cannot be opened for writing.
+     */
+    public MatchFileWriter(String file, Format format) throws IOException {
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.format = format;
+    }
+
+    /**
+     * @see MatchConsumer#consume(int[], int, int)
+     */
+    @Override
+    public synchronized void consume(int[] matches, int numQVertices, int numMatches) {
+        try {
+            if (Format.BINARY == format) {
+                writeInts(matches, numQVertices * numMatches);
+            } else {
+                writeCSV(matches, numQVertices, numMatches);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error writing the matches to disk.", e);
+        }
+    }
+
+    private void writeInts(int[] values, int length) throws IOException {
+        var offset = 0;
+        while (offset < length) {
+            ensureRemaining(Integer.BYTES);
+            var numValues = Math.min(buffer.remaining() / Integer.BYTES, length - offset);
+            buffer.asIntBuffer().put(values, offset, numValues);
+            buffer.position(buffer.position() + numValues * Integer.BYTES);
+            offset += numValues;
+        }
+    }
+
+    private void writeCSV(int[] matches, int numQVertices, int numMatches) throws IOException {
+        var offset = 0;
+        for (var match = 0; match < numMatches; match++) {
+            ensureRemaining(numQVertices * MAX_CSV_INT_LEN);
+            for (var i = 0; i < numQVertices; i++) {
+                putDigits(matches[offset++]);
+                buffer.put((byte) (i < numQVertices - 1 ? ',' : '\n'));
+            }
+        }
+    }
+
+    /**
+     * Puts the decimal digits of a vertex ID in the buffer without going through a string.
+     */
+    private void putDigits(int vertexId) {
+        var divisor = 1;
+        while (vertexId / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + vertexId / divisor % 10));
+        }
+    }
+
+    private void ensureRemaining(int numBytes) throws IOException {
+        if (buffer.remaining() < numBytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Flushes the buffered matches and closes the file.
+     *
+     * @throws IOException if the file cannot be written to or closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
@@ -0,0 +1,75 @@
+package ca.waterloo.dsg.graphflow.plan.operator.sink;
+
+import ca.waterloo.dsg.graphflow.util.IOUtils;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The number of output tuples a query is limited to, shared by the {@link SinkLimit} operators of
+ * the threads executing the query. The output tuples of all the threads are counted with a single
+ * atomic counter so the query outputs no more tuples than the limit whatever the number of
+ * threads. The query is cancelled once the limit is reached.
+ */
+public class OutputLimit {
+
+    @Getter private long outTuplesLimit;
+    private AtomicLong numOutTuples = new AtomicLong(0);
+    @Setter private long startTime;
+    private volatile double elapsedTime = 0;
+    private volatile boolean isReached = false;
+    // cancels the threads not outputting tuples, e.g. stops them at their next morsel.
+    @Setter private Runnable cancellation;
+
+    /**
+     * Constructs a {@link OutputLimit} object.
+     *
+     * @param outTuplesLimit is the number of output tuples the query is limited to.
+     */
+    public OutputLimit(long outTuplesLimit) {
+        this.outTuplesLimit = outTuplesLimit;
+    }
+
+    /**
+     * Counts an output tuple.
+     *
+     * @return True if the limit is reached, the tuple being the last output or beyond the limit.
+     * False, otherwise.
+     */
+    boolean addOutTuple() {
+        var numOutTuples = this.numOutTuples.incrementAndGet();
+        if (numOutTuples < outTuplesLimit) {
+            return false;
+        }
+        if (numOutTuples == outTuplesLimit) {
+            elapsedTime = IOUtils.getElapsedTimeInMillis(startTime);
+            isReached = true;
+            if (null != cancellation) {
+                cancellation.run();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return True if as many tuples as the limit are output. False, otherwise.
+     */
+    public boolean isReached() {
+        return isReached;
+    }
+
+    /**
+     * @return The time in ms to output as many tuples as the limit, once reached.
+     */
+    public double getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * @return The number of tuples output, without the ones beyond the limit.
+     */
+    public long getNumOutTuples() {
+        return Math.min(numOutTuples.get(), outTuplesLimit);
+    }
+}
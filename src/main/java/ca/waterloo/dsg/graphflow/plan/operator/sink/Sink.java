@@ -1,5 +1,6 @@
 package ca.waterloo.dsg.graphflow.plan.operator.sink;
 
+import ca.waterloo.dsg.graphflow.plan.operator.Batch;
 import ca.waterloo.dsg.graphflow.plan.operator.Operator;
 import ca.waterloo.dsg.graphflow.query.QueryGraph;
 import ca.waterloo.dsg.graphflow.storage.Graph;
@@ -15,6 +16,7 @@ public class Sink extends Operator {
      */
     public enum SinkType {
         LIMIT,
+        STREAM,
         COUNTER /* default */
     }
 
@@ -56,6 +58,25 @@ public class Sink extends Operator {
     @Override
     public void processNewTuple() throws LimitExceededException {}
 
+    /**
+     * @see Operator#processNewBatch(Batch)
+     */
+    @Override
+    public void processNewBatch(Batch batch) throws LimitExceededException {}
+
+    /**
+     * Hands the output tuples the sink holds, if any, to their consumer once the plan is executed.
+     */
+    public void flush() {}
+
+    /**
+     * @return True if the sink only counts the output tuples, in which case the operator before it
+     * can count them without pushing them. False, otherwise.
+     */
+    public boolean isCountOnly() {
+        return true;
+    }
+
     @Override
     public long getNumOutTuples() {
         if (null != previous) {
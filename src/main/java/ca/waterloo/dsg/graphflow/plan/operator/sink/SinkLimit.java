@@ -1,29 +1,28 @@
 package ca.waterloo.dsg.graphflow.plan.operator.sink;
 
+import ca.waterloo.dsg.graphflow.plan.operator.Batch;
 import ca.waterloo.dsg.graphflow.plan.operator.Operator;
 import ca.waterloo.dsg.graphflow.query.QueryGraph;
-import ca.waterloo.dsg.graphflow.util.IOUtils;
 import lombok.Getter;
-import lombok.Setter;
 
 /**
  * A sink operator stopping the query plan execution once a number of output tuples is reached.
+ * The output tuples are counted by an {@link OutputLimit} shared by the threads executing the
+ * query.
  */
 public class SinkLimit extends Sink {
 
-    @Setter public long startTime;
-    @Getter public double elapsedTime;
-    @Setter public int outTuplesLimit;
+    @Getter private OutputLimit outputLimit;
 
     /**
      * Constructs a {@link SinkLimit} object.
      *
      * @param queryGraph is the {@link QueryGraph}, the tuples in the sink match.
-     * @param outTuplesLimit is the number of output tuples the query is limited to.
+     * @param outputLimit is the number of output tuples the query is limited to.
      */
-    public SinkLimit(QueryGraph queryGraph, int outTuplesLimit) {
+    public SinkLimit(QueryGraph queryGraph, OutputLimit outputLimit) {
         super(queryGraph);
-        this.outTuplesLimit = outTuplesLimit;
+        this.outputLimit = outputLimit;
     }
 
     /**
@@ -31,9 +30,32 @@ public class SinkLimit extends Sink {
      */
     @Override
     public void processNewTuple() throws LimitExceededException {
-        if (prev.getNumOutTuples() >= outTuplesLimit) {
-            elapsedTime = IOUtils.getElapsedTimeInMillis(startTime);
+        if (outputLimit.addOutTuple()) {
             throw new LimitExceededException();
         }
     }
+
+    /**
+     * @see Operator#processNewBatch(Batch)
+     */
+    @Override
+    public void processNewBatch(Batch batch) throws LimitExceededException {
+        processOneTupleAtATime(batch);
+    }
+
+    /**
+     * @see Sink#isCountOnly()
+     */
+    @Override
+    public boolean isCountOnly() {
+        return false;
+    }
+
+    /**
+     * @return The number of tuples the threads output, without the ones beyond the limit.
+     */
+    @Override
+    public long getNumOutTuples() {
+        return outputLimit.getNumOutTuples();
+    }
 }
@@ -0,0 +1,130 @@
+package ca.waterloo.dsg.graphflow.plan.operator.sink;
+
+import ca.waterloo.dsg.graphflow.plan.operator.Batch;
+import ca.waterloo.dsg.graphflow.plan.operator.Operator;
+import ca.waterloo.dsg.graphflow.query.QueryGraph;
+import ca.waterloo.dsg.graphflow.storage.Graph;
+import ca.waterloo.dsg.graphflow.storage.KeyStore;
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * A sink streaming the output tuples to a {@link MatchConsumer}. The tuples are mapped back to
+ * the order of the query vertices, sorted by name, and copied to a batch of matches reused once
+ * consumed, so no object is allocated per match.
+ */
+public class SinkStream extends Sink {
+
+    private static final int NUM_MATCHES_PER_BATCH = Batch.DEFAULT_CAPACITY;
+
+    private MatchConsumer consumer;
+    @Getter private String[] qVertices;
+    private int[] tupleIndices; /* of the query vertices, in the output tuples */
+    private int[] matches;
+    private int numMatches;
+
+    /**
+     * Constructs a {@link SinkStream} object.
+     *
+     * @param queryGraph is the {@link QueryGraph}, the tuples in the sink match.
+     * @param consumer is the consumer of the matches.
+     */
+    public SinkStream(QueryGraph queryGraph, MatchConsumer consumer) {
+        super(queryGraph);
+        this.consumer = consumer;
+        this.qVertices = queryGraph.getQVertices().toArray(new String[0]);
+        Arrays.sort(qVertices);
+    }
+
+    /**
+     * @see Operator#init(int[], Graph, KeyStore)
+     */
+    @Override
+    public void init(int[] probeTuple, Graph graph, KeyStore store) {
+        if (null == this.probeTuple) {
+            this.probeTuple = probeTuple;
+            var outQVertexToIdxMap = prev.getOutQVertexToIdxMap();
+            tupleIndices = new int[qVertices.length];
+            for (var i = 0; i < qVertices.length; i++) {
+                tupleIndices[i] = outQVertexToIdxMap.get(qVertices[i]);
+            }
+            matches = new int[NUM_MATCHES_PER_BATCH * qVertices.length];
+        }
+    }
+
+    /**
+     * @see Operator#processNewTuple()
+     */
+    @Override
+    public void processNewTuple() {
+        var offset = numMatches * tupleIndices.length;
+        for (var i = 0; i < tupleIndices.length; i++) {
+            matches[offset + i] = probeTuple[tupleIndices[i]];
+        }
+        if (++numMatches == NUM_MATCHES_PER_BATCH) {
+            flush();
+        }
+    }
+
+    /**
+     * @see Operator#processNewBatch(Batch)
+     */
+    @Override
+    public void processNewBatch(Batch batch) {
+        var row = 0;
+        while (row < batch.size) {
+            var numRows = Math.min(batch.size - row, NUM_MATCHES_PER_BATCH - numMatches);
+            for (var i = 0; i < tupleIndices.length; i++) {
+                var column = batch.columns[tupleIndices[i]];
+                var offset = numMatches * tupleIndices.length + i;
+                for (var j = row; j < row + numRows; j++) {
+                    matches[offset] = column[j];
+                    offset += tupleIndices.length;
+                }
+            }
+            numMatches += numRows;
+            row += numRows;
+            if (numMatches == NUM_MATCHES_PER_BATCH) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * @see Sink#flush()
+     */
+    @Override
+    public void flush() {
+        if (numMatches > 0) {
+            consumer.consume(matches, tupleIndices.length, numMatches);
+            numMatches = 0;
+        }
+    }
+
+    /**
+     * @see Sink#isCountOnly()
+     */
+    @Override
+    public boolean isCountOnly() {
+        return false;
+    }
+
+    /**
+     * @see Operator#copy(boolean)
+     */
+    @Override
+    public SinkStream copy(boolean isThreadSafe) {
+        var sink = new SinkStream(outSubgraph, consumer);
+        sink.prev = this.prev.copy(isThreadSafe);
+        return sink;
+    }
+
+    /**
+     * @see Operator#copy(boolean)
+     */
+    @Override
+    public SinkStream copy() {
+        return new SinkStream(outSubgraph, consumer);
+    }
+}
@@ -3,9 +3,13 @@ package ca.waterloo.dsg.graphflow.planner;
 import ca.waterloo.dsg.graphflow.plan.Plan;
 import ca.waterloo.dsg.graphflow.plan.operator.AdjListDescriptor;
 import ca.waterloo.dsg.graphflow.plan.operator.Operator;
+import ca.waterloo.dsg.graphflow.plan.operator.extend.AdaptiveEI;
+import ca.waterloo.dsg.graphflow.plan.operator.extend.AdaptiveEI.Ordering;
 import ca.waterloo.dsg.graphflow.plan.operator.extend.EI;
 import ca.waterloo.dsg.graphflow.plan.operator.extend.EI.CachingType;
+import ca.waterloo.dsg.graphflow.plan.operator.hashjoin.Build;
 import ca.waterloo.dsg.graphflow.plan.operator.hashjoin.HashJoin;
+import ca.waterloo.dsg.graphflow.plan.operator.hashjoin.Probe;
 import ca.waterloo.dsg.graphflow.plan.operator.scan.Scan;
 import ca.waterloo.dsg.graphflow.plan.operator.sink.Sink.SinkType;
 import ca.waterloo.dsg.graphflow.planner.catalog.Catalog;
@@ -20,10 +24,13 @@ import org.antlr.v4.runtime.misc.Pair;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -43,8 +50,17 @@ public class QueryPlanner {
     protected Catalog catalog;
     boolean hasLimit;
     @Setter int numThreads;
+    // the E/I operators extending to more than one query vertex in a row pick their order per
+    // input tuple.
+    @Setter boolean adaptiveEnabled;
+    // hash joins on more than one query vertex are considered, their cost coefficients not being
+    // calibrated yet.
+    @Setter boolean multiVertexJoinsEnabled;
 
     private int nextHashJoinID = 0;
+    // the last operators of the subgraphs whose hash tables are built, when re-planning a query
+    // being executed, mapped to their builds.
+    private Map<Operator, Build> builtSubplans = new IdentityHashMap<>();
 
     private Map<String /* encoding */,
                 List<Pair<QueryGraph /*subgraph*/, Double /*selectivity*/>>> computedSelectivity;
@@ -77,6 +93,18 @@ public class QueryPlanner {
         if (numVertices == 2) {
             return new Plan(new Scan(queryGraph));
         }
+        var bestPlan = optimize();
+        if (adaptiveEnabled) {
+            bestPlan = getAdaptivePlan(bestPlan);
+        }
+        if (hasLimit) {
+            bestPlan.setSinkType(SinkType.LIMIT);
+            bestPlan.setOutTuplesLimit(queryGraph.getLimit());
+        }
+        return bestPlan;
+    }
+
+    private Plan optimize() {
         considerAllScanOperators();
         while (nextNumQVertices <= numVertices) {
             considerAllNextQueryExtensions();
@@ -87,13 +115,72 @@ public class QueryPlanner {
         // each operator added only sets its prev pointer (to reuse operator objects).
         // the picked plan needs to set the next pointer for each operator in the linear subplans.
         setNextPointers(bestPlan);
-        if (hasLimit) {
-            bestPlan.setSinkType(SinkType.LIMIT);
-            bestPlan.setOutTuplesLimit(queryGraph.getLimit());
-        }
         return bestPlan;
     }
 
+    /**
+     * Re-plans the subplans left of the query being executed once some of its build subplans are
+     * executed. The subgraphs whose hash tables are built are matched at no cost with as many
+     * tuples as hashed, and can only be the build side of a hash join on the query vertices they
+     * are hashed on.
+     *
+     * @param builds are the build subplans executed whose hash tables are not probed yet, with the
+     * number of tuples they hashed.
+     * @param nextHashJoinID is the ID to number the hash joins planned from.
+     * @return The subplans left to execute, probing the hash tables built with the IDs of their
+     * builds, or null if the best plan does not probe all of them.
+     */
+    public List<Operator> replan(List<Build> builds, int nextHashJoinID) {
+        this.nextHashJoinID = nextHashJoinID;
+        for (var build : builds) {
+            var preBuild = build.getPrev();
+            var builtPlan = new Plan(preBuild);
+            builtPlan.setEstimatedNumOutTuples(build.getNumHashedTuples());
+            var qVertexToNumOutTuples = new HashMap<String, Double>();
+            for (var qVertex : preBuild.getOutQVertices()) {
+                qVertexToNumOutTuples.put(qVertex, (double) build.getNumHashedTuples());
+            }
+            builtPlan.setQVertexToNumOutTuples(qVertexToNumOutTuples);
+            var numQVertices = preBuild.getOutQVertices().size();
+            subgraphPlans.putIfAbsent(numQVertices, new HashMap<>());
+            subgraphPlans.get(numQVertices).computeIfAbsent(getKey(preBuild.getOutQVertices()),
+                key -> new ArrayList<>()).add(builtPlan);
+            builtSubplans.put(preBuild, build);
+        }
+        var bestPlan = optimize();
+        var subplans = new ArrayList<Operator>();
+        var IDs = new HashMap<Integer /* planned */, Integer /* built */>();
+        for (var subplan : bestPlan.getSubplans()) {
+            var build = subplan instanceof Build ? builtSubplans.get(subplan.getPrev()) : null;
+            if (null == build) {
+                subplans.add(subplan);
+                continue;
+            }
+            var plannedBuild = (Build) subplan;
+            if (plannedBuild.getBuildHashIdx() != build.getBuildHashIdx() ||
+                    !Arrays.equals(plannedBuild.getKeyIndices(), build.getKeyIndices())) {
+                return null;
+            }
+            IDs.put(plannedBuild.getID(), build.getID());
+        }
+        if (IDs.size() < builds.size()) {
+            return null;
+        }
+        for (var subplan : subplans) {
+            for (var operator = subplan; null != operator; operator = operator.getPrev()) {
+                if (operator instanceof Probe) {
+                    var probe = (Probe) operator;
+                    probe.setID(IDs.getOrDefault(probe.getID(), probe.getID()));
+                }
+            }
+        }
+        var plan = new Plan(subplans);
+        if (adaptiveEnabled) {
+            plan = getAdaptivePlan(plan);
+        }
+        return plan.getSubplans();
+    }
+
     void setNextPointers(Plan bestPlan) {
         for (var lastOperator : bestPlan.getSubplans()) {
             var operator = lastOperator;
@@ -104,6 +191,161 @@ public class QueryPlanner {
         }
     }
 
+    /**
+     * Replaces each sequence of E/I operators extending to more than one query vertex with an
+     * {@link AdaptiveEI} operator, extending each input tuple in the order with the least i-cost
+     * estimated from the adjacency lists of its vertices.
+     *
+     * @param plan is the plan with its next pointers set.
+     * @return The plan with the adaptive operators.
+     */
+    Plan getAdaptivePlan(Plan plan) {
+        var subplans = new ArrayList<Operator>();
+        for (var lastOperator : plan.getSubplans()) {
+            var operators = new ArrayList<Operator>();
+            for (var operator = lastOperator; null != operator; operator = operator.getPrev()) {
+                operators.add(0, operator);
+            }
+            var i = 1; /* the first operator is a scan */
+            while (i < operators.size()) {
+                var j = i;
+                var extensions = new ArrayList<EI>();
+                while (j < operators.size() && operators.get(j) instanceof EI) {
+                    extensions.add((EI) operators.get(j++));
+                }
+                var adaptiveEI = extensions.size() > 1 ? makeAdaptiveEI(extensions) : null;
+                if (null != adaptiveEI) {
+                    adaptiveEI.setPrev(operators.get(i - 1));
+                    operators.get(i - 1).setNext(adaptiveEI);
+                    if (j < operators.size()) {
+                        adaptiveEI.setNext(operators.get(j));
+                        operators.get(j).setPrev(adaptiveEI);
+                    } else {
+                        lastOperator = adaptiveEI;
+                    }
+                }
+                i = Math.max(j, i + 1);
+            }
+            subplans.add(lastOperator);
+        }
+        var adaptivePlan = new Plan(subplans);
+        adaptivePlan.setEstimatedICost(plan.getEstimatedICost());
+        adaptivePlan.setEstimatedNumOutTuples(plan.getEstimatedNumOutTuples());
+        adaptivePlan.setQVertexToNumOutTuples(plan.getQVertexToNumOutTuples());
+        adaptivePlan.setAdaptiveEnabled(true);
+        return adaptivePlan;
+    }
+
+    /**
+     * @param extensions are the E/I operators extending the input tuples one after the other.
+     * @return The operator extending to the same query vertices in the order picked per input
+     * tuple, or null if the query vertices can only be extended to in one order.
+     */
+    private AdaptiveEI makeAdaptiveEI(List<EI> extensions) {
+        var inOperator = extensions.get(0).getPrev();
+        var lastExtension = extensions.get(extensions.size() - 1);
+        var toQVertices = extensions.stream()
+            .map(EI::getToQueryVertex)
+            .collect(Collectors.toList());
+        var orders = new ArrayList<List<String>>();
+        orders.add(toQVertices);
+        addOrders(new HashSet<>(inOperator.getOutQVertexToIdxMap().keySet()), toQVertices,
+            new ArrayList<>(), orders);
+        if (1 == orders.size()) {
+            return null;
+        }
+        var orderings = new ArrayList<Ordering>();
+        for (var order : orders) {
+            orderings.add(makeOrdering(inOperator, order, lastExtension.getOutQVertexToIdxMap()));
+        }
+        return new AdaptiveEI(orderings, lastExtension.getOutSubgraph(),
+            extensions.get(0).getInSubgraph(), lastExtension.getOutQVertexToIdxMap());
+    }
+
+    /**
+     * Adds the orders the query vertices can be extended to in, each query vertex having a query
+     * edge to a query vertex matched before it, up to {@link AdaptiveEI#MAX_NUM_ORDERINGS}.
+     */
+    private void addOrders(Set<String> matchedQVertices, List<String> toQVertices,
+        List<String> order, List<List<String>> orders) {
+        if (orders.size() >= AdaptiveEI.MAX_NUM_ORDERINGS) {
+            return;
+        }
+        if (order.size() == toQVertices.size()) {
+            if (!order.equals(orders.get(0))) {
+                orders.add(new ArrayList<>(order));
+            }
+            return;
+        }
+        for (var toQVertex : toQVertices) {
+            if (order.contains(toQVertex) ||
+                    !queryGraph.getNeighbors(matchedQVertices).contains(toQVertex)) {
+                continue;
+            }
+            order.add(toQVertex);
+            matchedQVertices.add(toQVertex);
+            addOrders(matchedQVertices, toQVertices, order, orders);
+            matchedQVertices.remove(toQVertex);
+            order.remove(order.size() - 1);
+        }
+    }
+
+    /**
+     * Makes the E/I operators extending to the query vertices in the given order. The query
+     * vertices are written to their indices in the output tuples of the last extension whatever
+     * the order, so the operators after the extensions are the same for all orders.
+     *
+     * @param inOperator is the operator the input tuples of the extensions are from.
+     * @param order is the order of the query vertices to extend to.
+     * @param outQVertexToIdxMap is the output query vertex to tuple index map of the extensions.
+     * @return The ordering with the E/I operators and their estimated costs.
+     */
+    private Ordering makeOrdering(Operator inOperator, List<String> order,
+        Map<String, Integer> outQVertexToIdxMap) {
+        var extensions = new ArrayList<EI>();
+        var selectivities = new double[order.size()];
+        var estimatedAdjListSizes = new double[order.size()][];
+        var inSubgraph = inOperator.getOutSubgraph();
+        var qVertexToIdxMap = new HashMap<>(inOperator.getOutQVertexToIdxMap());
+        for (var i = 0; i < order.size(); i++) {
+            var toQVertex = order.get(i);
+            var toType = queryGraph.getVertexType(toQVertex);
+            var outSubgraph = inSubgraph.copy();
+            var ALDs = new ArrayList<AdjListDescriptor>();
+            for (var fromQVertex : inSubgraph.getQVertices()) {
+                if (queryGraph.containsQueryEdge(fromQVertex, toQVertex)) {
+                    var queryEdge = queryGraph.getEdge(fromQVertex, toQVertex);
+                    var direction = fromQVertex.equals(queryEdge.getFromVertex()) ?
+                        Direction.Fwd : Direction.Bwd;
+                    ALDs.add(new AdjListDescriptor(fromQVertex, outQVertexToIdxMap.get(
+                        fromQVertex), direction, queryEdge.getLabel()));
+                    outSubgraph.addEdge(queryEdge);
+                }
+            }
+            // the vertices at the indices up to the last repeated one are bound before the
+            // extension, for the next extension to cache intersections on.
+            var lastRepeatedVertexIdx = -1;
+            while (qVertexToIdxMap.containsValue(lastRepeatedVertexIdx + 1)) {
+                lastRepeatedVertexIdx++;
+            }
+            var outputVertexIdxMap = new HashMap<>(qVertexToIdxMap);
+            outputVertexIdxMap.put(toQVertex, outQVertexToIdxMap.get(toQVertex));
+            var extension = EI.make(toQVertex, toType, ALDs, outSubgraph, inSubgraph,
+                outputVertexIdxMap);
+            extension.setLastRepeatedVertexIdx(lastRepeatedVertexIdx);
+            extensions.add(extension);
+            selectivities[i] = getSelectivity(inSubgraph, outSubgraph, ALDs, toType);
+            estimatedAdjListSizes[i] = new double[ALDs.size()];
+            for (var j = 0; j < ALDs.size(); j++) {
+                estimatedAdjListSizes[i][j] = catalog.getICost(inSubgraph,
+                    Collections.singletonList(ALDs.get(j)), toType);
+            }
+            inSubgraph = outSubgraph;
+            qVertexToIdxMap = outputVertexIdxMap;
+        }
+        return new Ordering(extensions, selectivities, estimatedAdjListSizes);
+    }
+
     private void considerAllScanOperators() {
         nextNumQVertices = 2; /* level = 2 for edge scan */
         subgraphPlans.putIfAbsent(nextNumQVertices, new HashMap<>());
@@ -140,6 +382,9 @@ public class QueryPlanner {
         var toQVertices = queryGraph.getNeighbors(new HashSet<>(prevQVertices));
         for (String toQVertex : toQVertices) {
             for (var prevQueryPlan : prevQueryPlans) {
+                if (builtSubplans.containsKey(prevQueryPlan.getLastOperator())) {
+                    continue; /* its tuples are only hashed */
+                }
                 Pair<String /* key */, Plan> newQueryPlan = getPlanWithNextExtend(
                     prevQueryPlan, toQVertex);
                 subgraphPlans.get(nextNumQVertices).putIfAbsent(newQueryPlan.a, new ArrayList<>());
@@ -236,7 +481,7 @@ public class QueryPlanner {
             inSubgraph, outputVariableIdxMap);
     }
 
-    int getNumEdges(QueryEdge queryEdge) {
+    long getNumEdges(QueryEdge queryEdge) {
         var fromType = queryGraph.getVertexType(queryEdge.getFromVertex());
         var toType = queryGraph.getVertexType(queryEdge.getToVertex());
         var label = queryEdge.getLabel();
@@ -281,7 +526,8 @@ public class QueryPlanner {
                         continue;
                     }
                     var joinQVertices = getJoinQVertices(outSubgraph, prevQVertices, otherSet);
-                    if (joinQVertices.size() != 1 ||
+                    if (joinQVertices.isEmpty() ||
+                            (!multiVertexJoinsEnabled && joinQVertices.size() != 1) ||
                             otherSet.size() + joinQVertices.size() > nextNumQVertices - 1) {
                         continue;
                     }
@@ -314,16 +560,27 @@ public class QueryPlanner {
 
     private void considerHashJoinOperator(QueryGraph outSubgraph, List<String> queryVertices,
         Plan subplan, Plan otherSubplan, int numJoinQVertices) {
-        var isPlanBuildSubplan =
-            subplan.getEstimatedNumOutTuples() < otherSubplan.getEstimatedNumOutTuples();
+        var isPlanBuilt = builtSubplans.containsKey(subplan.getLastOperator());
+        var isOtherPlanBuilt = builtSubplans.containsKey(otherSubplan.getLastOperator());
+        if (isPlanBuilt && isOtherPlanBuilt) {
+            return;
+        }
+        var isPlanBuildSubplan = isPlanBuilt || (!isOtherPlanBuilt &&
+            subplan.getEstimatedNumOutTuples() < otherSubplan.getEstimatedNumOutTuples());
         var buildSubplan = isPlanBuildSubplan ? subplan : otherSubplan;
         var probeSubplan = isPlanBuildSubplan ? otherSubplan : subplan;
+        var build = builtSubplans.get(buildSubplan.getLastOperator());
+        if (null != build && !getHashedQVertices(build).equals(new HashSet<>(SetUtils.intersect(
+                buildSubplan.getLastOperator().getOutQVertices(),
+                probeSubplan.getLastOperator().getOutQVertices())))) {
+            return;
+        }
         var buildCoef = numJoinQVertices == 1 ?
             Catalog.SINGLE_VERTEX_WEIGHT_BUILD_COEF : Catalog.MULTI_VERTEX_WEIGHT_BUILD_COEF;
         var probeCoef = numJoinQVertices == 1 ?
             Catalog.SINGLE_VERTEX_WEIGHT_PROBE_COEF : Catalog.MULTI_VERTEX_WEIGHT_PROBE_COEF;
         var icost = buildSubplan.getEstimatedICost() + probeSubplan.getEstimatedICost() +
-                buildCoef * buildSubplan.getEstimatedNumOutTuples() +
+                (null != build ? 0 : buildCoef * buildSubplan.getEstimatedNumOutTuples()) +
                 probeCoef * probeSubplan.getEstimatedNumOutTuples();
 
         var key = getKey(queryVertices);
@@ -347,6 +604,15 @@ public class QueryPlanner {
         }
     }
 
+    /**
+     * @param build is a build subplan executed.
+     * @return The query vertices the tuples hashed are joined on.
+     */
+    private static Set<String> getHashedQVertices(Build build) {
+        return new HashSet<>(SetUtils.intersect(build.getPrev().getOutQVertices(),
+            build.getProbingSubgraph().getQVertices()));
+    }
+
     private Plan getBestPlan(int numQVertices, String key) {
         var possibleQueryPlans = subgraphPlans.get(numQVertices).get(key);
         var bestPlan = possibleQueryPlans.get(0);
@@ -65,6 +65,9 @@ public class QueryPlannerBig extends QueryPlanner {
         // each operator added only sets its prev pointer (to reuse operator objects).
         // the picked plan needs to set the next pointer for each operator in the linear subplans.
         setNextPointers(bestPlan);
+        if (adaptiveEnabled) {
+            bestPlan = getAdaptivePlan(bestPlan);
+        }
         if (queryGraph.getLimit() > 0) {
             bestPlan.setSinkType(SinkType.LIMIT);
             bestPlan.setOutTuplesLimit(queryGraph.getLimit());
@@ -76,7 +79,7 @@ public class QueryPlannerBig extends QueryPlanner {
         nextNumQVertices = 2; /* level = 2 for edge scan */
         subgraphPlans.putIfAbsent(nextNumQVertices, new ArrayList<>(NUM_TOP_PLANS_KEPT));
         var edgesToScan = new QueryEdge[NUM_TOP_PLANS_KEPT];
-        var numEdgesToScan = new int[NUM_TOP_PLANS_KEPT];
+        var numEdgesToScan = new long[NUM_TOP_PLANS_KEPT];
         var qEdges = queryGraph.getEdges();
         for (var i = 0; i < NUM_TOP_PLANS_KEPT; i++) {
 
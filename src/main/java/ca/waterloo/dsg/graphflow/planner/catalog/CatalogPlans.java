@@ -2,6 +2,7 @@ package ca.waterloo.dsg.graphflow.planner.catalog;
 
 import ca.waterloo.dsg.graphflow.plan.operator.AdjListDescriptor;
 import ca.waterloo.dsg.graphflow.plan.operator.Operator;
+import ca.waterloo.dsg.graphflow.plan.operator.extend.EI.Neighbours;
 import ca.waterloo.dsg.graphflow.plan.operator.scan.ScanSampling;
 import ca.waterloo.dsg.graphflow.planner.catalog.operator.IntersectCatalog;
 import ca.waterloo.dsg.graphflow.planner.catalog.operator.Noop;
@@ -20,6 +21,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 /**
  * Constructs a plan to collect stats (i-cost & cardinality) of operators with input subgraphs and
@@ -45,6 +47,8 @@ public class CatalogPlans {
 
     public static int DEF_NUM_EDGES_TO_SAMPLE = 1000;
     public static int DEF_MAX_INPUT_NUM_VERTICES = 3;
+    // the largest number of edges with the same edge key copied whole to sample scans from.
+    private static final long MAX_NUM_EDGES_COPIED = 1073741823;
     private int numSampledEdges;
     private int maxInputNumVertices;
 
@@ -80,12 +84,7 @@ public class CatalogPlans {
         this.numLabels = store.getNextLabelKey();
         this.isAdjListSortedByType = graph.isAdjListSortedByType();
         this.selectivityZero = new ArrayList<>();
-        if (store.getNextLabelKey() == 1 && store.getNextTypeKey() == 1 &&
-                graph.getNumEdges() > 1073741823) {
-            scans = generateAllScansForLargeGraph(graph);
-        } else {
-            scans = generateAllScans(graph);
-        }
+        scans = generateAllScans(graph);
     }
 
     public void setNextOperators(Graph graph, Operator operator,
@@ -175,27 +174,42 @@ public class CatalogPlans {
         var fwdAdjLists = graph.getFwdAdjLists();
         var vertexTypes = graph.getVertexTypes();
         var numVertices = graph.getHighestVertexId() + 1;
+        // the edges of each edge key are copied to sample from, unless there are too many of them
+        // to be held in an array in which case only a uniform random sample of them is copied.
         var keyToEdgesMap = new HashMap<Long/*edge key*/, int[]/*edges*/ >();
         var keyToCurrIdx = new HashMap<Long/*edge key*/, Integer>();
+        var keyToSampledEdgeRanks = new HashMap<Long/*edge key*/, long[]/*sorted ranks*/>();
+        var keyToNumEdgesSeen = new HashMap<Long/*edge key*/, Long>();
+        var randomNumGen = new Random(0 /*Always same seed for reproducibility*/);
         for (short fromType = 0; fromType < numTypes; fromType++) {
             for (short label = 0; label < numLabels; label++) {
                 for (short toType = 0; toType < numTypes; toType++) {
                     var edgeKey = Graph.getEdgeKey(fromType, toType, label);
                     var numEdges = graph.getNumEdges(fromType, toType, label);
-                    if (numEdges == 0) {
-                        var x = 2;
+                    if (numEdges <= MAX_NUM_EDGES_COPIED) {
+                        keyToEdgesMap.put(edgeKey, new int[(int) numEdges * 2]);
+                    } else {
+                        var sampledEdgeRanks = new long[Math.max(numSampledEdges, 50)];
+                        for (var i = 0; i < sampledEdgeRanks.length; i++) {
+                            sampledEdgeRanks[i] = (long) (randomNumGen.nextDouble() * numEdges);
+                        }
+                        Arrays.sort(sampledEdgeRanks);
+                        keyToSampledEdgeRanks.put(edgeKey, sampledEdgeRanks);
+                        keyToNumEdgesSeen.put(edgeKey, 0L);
+                        keyToEdgesMap.put(edgeKey, new int[sampledEdgeRanks.length * 2]);
                     }
-                    keyToEdgesMap.put(edgeKey, new int[numEdges * 2]);
                     keyToCurrIdx.put(edgeKey, 0);
                 }
             }
         }
+        var numLabelsOrTypes = fwdAdjLists.getNumLabelsOrTypes();
+        var toNeighbours = new Neighbours();
         for (var fromVertex = 0; fromVertex < numVertices; fromVertex++) {
             var fromType = vertexTypes[fromVertex];
-            var offsets = fwdAdjLists[fromVertex].getLabelOrTypeOffsets();
-            var neighbours = fwdAdjLists[fromVertex].getNeighbourIds();
-            for (short labelOrType = 0; labelOrType < offsets.length - 1; labelOrType++) {
-                for (var toIdx = offsets[labelOrType]; toIdx < offsets[labelOrType + 1]; toIdx++) {
+            for (short labelOrType = 0; labelOrType < numLabelsOrTypes; labelOrType++) {
+                fwdAdjLists.setNeighbourIds(fromVertex, labelOrType, toNeighbours);
+                var neighbours = toNeighbours.Ids;
+                for (var toIdx = toNeighbours.startIdx; toIdx < toNeighbours.endIdx; toIdx++) {
                     short toType, label;
                     if (isAdjListSortedByType) {
                         toType = labelOrType;
@@ -206,9 +220,24 @@ public class CatalogPlans {
                     }
                     var edgeKey = Graph.getEdgeKey(fromType, toType, label);
                     var currIdx = keyToCurrIdx.get(edgeKey);
-                    keyToCurrIdx.put(edgeKey, currIdx + 2);
-                    keyToEdgesMap.get(edgeKey)[currIdx] = fromVertex;
-                    keyToEdgesMap.get(edgeKey)[currIdx + 1] = neighbours[toIdx];
+                    var edges = keyToEdgesMap.get(edgeKey);
+                    var sampledEdgeRanks = keyToSampledEdgeRanks.get(edgeKey);
+                    if (null == sampledEdgeRanks) {
+                        edges[currIdx] = fromVertex;
+                        edges[currIdx + 1] = neighbours[toIdx];
+                        keyToCurrIdx.put(edgeKey, currIdx + 2);
+                    } else {
+                        var edgeRank = keyToNumEdgesSeen.get(edgeKey);
+                        keyToNumEdgesSeen.put(edgeKey, edgeRank + 1);
+                        // an edge is copied once per time its rank has been sampled.
+                        while (currIdx < edges.length && sampledEdgeRanks[currIdx / 2] ==
+                                edgeRank) {
+                            edges[currIdx] = fromVertex;
+                            edges[currIdx + 1] = neighbours[toIdx];
+                            currIdx += 2;
+                        }
+                        keyToCurrIdx.put(edgeKey, currIdx);
+                    }
                 }
             }
         }
@@ -228,7 +257,7 @@ public class CatalogPlans {
                         if (// isAdjListSortedByType &&
                             numEdgesToSample < 1) {
                             if (actualNumEdges < 200) {
-                                numEdgesToSample = actualNumEdges;
+                                numEdgesToSample = (int) actualNumEdges;
                             } else {
                                 numEdgesToSample = 50;
                             }
@@ -242,24 +271,6 @@ public class CatalogPlans {
         return scans;
     }
 
-    private List<ScanSampling> generateAllScansForLargeGraph(Graph graph) {
-        var fwdAdjLists = graph.getFwdAdjLists();
-        var numVertices = graph.getHighestVertexId() + 1;
-        var edges = new ArrayList<int[]>();
-        for (var fromVertex = 0; fromVertex < numVertices; fromVertex++) {
-            for (var toVertex : fwdAdjLists[fromVertex].getNeighbourIds()) {
-                edges.add(new int[] { fromVertex, toVertex });
-            }
-        }
-        var outSubgraph = new QueryGraph();
-        outSubgraph.addEdge(new QueryEdge("a", "b", (short) 0, (short) 0, (short) 0));
-        var scan = new ScanSampling(outSubgraph);
-        scan.setEdgeIndicesToSample(edges, numSampledEdges);
-        var scans = new ArrayList<ScanSampling>();
-        scans.add(scan);
-        return scans;
-    }
-
     private void setNextPointers(Operator operator, Operator[] next) {
         operator.setNext(next);
         for (var nextOperator : next) {
@@ -48,34 +48,13 @@ public class IntersectCatalog extends Intersect implements Serializable {
     public void processNewTuple() throws LimitExceededException {
         if (1 == ALDs.size()) {
         // intersect the adjacency lists and setAdjListSortOrder the output vertex values.
-        adjListsToCache[0][probeTuple[vertexIdxToCache[0]]].setNeighbourIds(
+        adjListsToCache[0].setNeighbourIds(probeTuple[vertexIdxToCache[0]],
             labelsOrToTypesToCache[0], outNeighbours);
         icost += outNeighbours.endIdx - outNeighbours.startIdx;
         } else {
         // intersect the adjacency lists and setAdjListSortOrder the output vertex values.
-        Neighbours temp;
         if (cachingType == CachingType.NONE || !isIntersectionCached()) {
-            adjListsToCache[0][probeTuple[vertexIdxToCache[0]]].setNeighbourIds(
-                labelsOrToTypesToCache[0], initNeighbours);
-            lastIcost = initNeighbours.endIdx - initNeighbours.startIdx;
-            lastIcost += adjListsToCache[1][probeTuple[vertexIdxToCache[1]]].intersect(
-                labelsOrToTypesToCache[1], initNeighbours, cachedNeighbours);
-            if (toType != KeyStore.ANY) {
-                var currEndIdx = 0;
-                for (var i = cachedNeighbours.startIdx; i < cachedNeighbours.endIdx; i++) {
-                    if (vertexTypes[cachedNeighbours.Ids[i]] == toType) {
-                        cachedNeighbours.Ids[currEndIdx++] = cachedNeighbours.Ids[i];
-                    }
-                }
-                cachedNeighbours.endIdx = currEndIdx;
-            }
-            for (var i = 2; i < adjListsToCache.length; i++) {
-                temp = cachedNeighbours;
-                cachedNeighbours = tempNeighbours;
-                tempNeighbours = temp;
-                lastIcost += adjListsToCache[i][probeTuple[vertexIdxToCache[i]]].intersect(
-                    labelsOrToTypesToCache[i], tempNeighbours, cachedNeighbours);
-            }
+            lastIcost = intersectAdjListsToCache();
         }
         switch (cachingType) {
             case NONE:
@@ -84,15 +63,7 @@ public class IntersectCatalog extends Intersect implements Serializable {
                 outNeighbours = cachedNeighbours;
                 break;
             case PARTIAL_CACHING:
-                icost += adjLists[0][probeTuple[vertexIdx[0]]].intersect(
-                    labelsOrToTypes[0], cachedNeighbours, outNeighbours);
-                for (int i = 1; i < adjLists.length; i++) {
-                    temp = outNeighbours;
-                    outNeighbours = tempNeighbours;
-                    tempNeighbours = temp;
-                    icost += adjLists[i][probeTuple[vertexIdx[i]]].intersect(
-                        labelsOrToTypes[i], tempNeighbours, outNeighbours);
-                }
+                icost += intersectAdjListsNotCached();
                 break;
         }
         }
@@ -20,6 +20,8 @@ public class ArgsFactory {
      *      VERTICES_FILE_SEPARATOR -n
      *      SERIALIZE_OUTPUT        -o
      *      UNDIRECTED              -u
+     *      NUM_THREADS             -t
+     *      COMPRESS_ADJ_LISTS      -z
      */
     public static String INPUT_FILE_VERTICES = "v";
     public static String INPUT_FILE_EDGES = "e";
@@ -27,6 +29,7 @@ public class ArgsFactory {
     public static String VERTICES_FILE_SEPARATOR = "n";
     public static String SERIALIZE_OUTPUT = "o";
     public static String UNDIRECTED = "u";
+    public static String COMPRESS_ADJ_LISTS = "z";
 
     public static Option getInputFileEdges() {
         var option = new Option(INPUT_FILE_EDGES, "input_file_edges", true /* hasArg */,
@@ -206,6 +209,11 @@ public class ArgsFactory {
         return new Option(UNDIRECTED, "undirected", false, "hint: the input graph is undirected.");
     }
 
+    public static Option getCompressAdjListsOption() {
+        return new Option(COMPRESS_ADJ_LISTS, "compress", false,
+            "Store the adjacency lists compressed.");
+    }
+
     /*
      * Optimizer Executor:
      * ~~~~~~~~~~~~~~~~~~~
@@ -214,10 +222,95 @@ public class ArgsFactory {
      *      EXECUTE_PLAN             -e
      *      DISABLE_FLATTENING       -f (same as 'Query Plan Executor')
      *      ENABLE_ADAPTIVITY        -a (same as 'Query Plan Executor')
+     *      BATCH_SIZE               -b
+     *      COMPILE_PLAN             -x
+     *      WORK_STEALING            -w
+     *      HASH_JOIN_MEMORY         -m
+     *      MATCHES_FILE             -r
+     *      TIMEOUT                  -l
+     *      PROGRESS_INTERVAL        -g
+     *      REPLAN_THRESHOLD         -d
+     *      MULTI_VERTEX_JOINS       -h
      */
     public static String EXECUTE_PLAN = "e";
+    public static String BATCH_SIZE = "b";
+    public static String COMPILE_PLAN = "x";
+    public static String WORK_STEALING = "w";
+    public static String HASH_JOIN_MEMORY = "m";
+    public static String MATCHES_FILE = "r";
+    public static String TIMEOUT = "l";
+    public static String PROGRESS_INTERVAL = "g";
+    public static String REPLAN_THRESHOLD = "d";
+    public static String MULTI_VERTEX_JOINS = "h";
 
     public static Option getExecuteOption() {
         return new Option(EXECUTE_PLAN, "execute", false, "Execute the optimizer's picked plan.");
     }
+
+    public static Option getBatchSizeOption() {
+        var option = new Option(BATCH_SIZE, "batch_size", true,
+            "Execute the plan a batch of tuples at a time, of the given size e.g. 1024.");
+        option.setOptionalArg(true);
+        return option;
+    }
+
+    public static Option getCompilePlanOption() {
+        return new Option(COMPILE_PLAN, "compile", false, "Compile the optimizer's picked plan " +
+            "into fused loops before executing it, if the plan is supported.");
+    }
+
+    public static Option getWorkStealingOption() {
+        return new Option(WORK_STEALING, "work_stealing", false, "Split the extensions of " +
+            "the tuples among the threads with work stealing, not only the scanned edges.");
+    }
+
+    public static Option getHashJoinMemoryOption() {
+        return new Option(HASH_JOIN_MEMORY, "hash_join_memory", true, "The memory in MB the " +
+            "tuples hashed by a hash join can take before partitions are spilled to disk.");
+    }
+
+    public static Option getMatchesFileOption() {
+        return new Option(MATCHES_FILE, "matches_file", true, "Absolute path to write the " +
+            "matches to, as CSV if the file ends in .csv and as binary ints otherwise.");
+    }
+
+    public static Option getTimeoutOption() {
+        return new Option(TIMEOUT, "timeout", true, "The wall-clock time in seconds the plan " +
+            "executes for before it is cancelled, its output being partial.");
+    }
+
+    public static Option getProgressIntervalOption() {
+        return new Option(PROGRESS_INTERVAL, "progress", true, "Log the progress of the " +
+            "execution every given number of seconds.");
+    }
+
+    public static Option getReplanThresholdOption() {
+        return new Option(REPLAN_THRESHOLD, "replan_threshold", true, "Re-plan " +
+            "the subplans left once a hash table is built with a number of tuples off the " +
+            "estimate by more than the given factor e.g. 10.");
+    }
+
+    public static Option getMultiVertexJoinsOption() {
+        return new Option(MULTI_VERTEX_JOINS, "multi_vertex_joins", false, "Consider " +
+            "hash joins on more than one query vertex, with uncalibrated cost coefficients.");
+    }
+
+    /*
+     * Query Server:
+     * ~~~~~~~~~~~~~
+     *      INPUT_GRAPH_DIR          -i (same as 'Query Plan Executor')
+     *      NUM_THREADS              -t (same as 'Query Plan Executor')
+     *      ENABLE_ADAPTIVITY        -a (same as 'Query Plan Executor')
+     *      BATCH_SIZE               -b (same as 'Optimizer Executor')
+     *      WORK_STEALING            -w (same as 'Optimizer Executor')
+     *      TIMEOUT                  -l (same as 'Optimizer Executor')
+     *      MULTI_VERTEX_JOINS       -h (same as 'Optimizer Executor')
+     *      PORT                     -p
+     */
+    public static String PORT = "p";
+
+    public static Option getPortOption() {
+        return new Option(PORT, "port", true, "The port of the localhost TCP socket to accept " +
+            "queries on. The queries are read from stdin if not given.");
+    }
 }
@@ -30,6 +30,10 @@ public class DatasetSerializer extends AbstractRunner {
             return;
         }
 
+        var numThreads = cmdLine.hasOption(ArgsFactory.NUM_THREADS) ?
+            Integer.parseInt(cmdLine.getOptionValue(ArgsFactory.NUM_THREADS)) :
+            Runtime.getRuntime().availableProcessors() /* default */;
+
         Graph graph;
         var store = new KeyStore();
         try {
@@ -45,10 +49,10 @@ public class DatasetSerializer extends AbstractRunner {
                     verticesSeparator = cmdLine.getOptionValue(ArgsFactory.
                         VERTICES_FILE_SEPARATOR);
                 }
-                graph = new GraphFactory().make(csvVerticesFile, verticesSeparator,
+                graph = new GraphFactory(numThreads).make(csvVerticesFile, verticesSeparator,
                     csvEdgesFile, edgesSeparator, store);
             } else {
-                graph = new GraphFactory().make(csvEdgesFile, edgesSeparator, store);
+                graph = new GraphFactory(numThreads).make(csvEdgesFile, edgesSeparator, store);
             }
         } catch (IOException e) {
             logger.info("Could not load the csv input graph data.");
@@ -56,6 +60,9 @@ public class DatasetSerializer extends AbstractRunner {
         }
 
         graph.setUndirected(cmdLine.hasOption(ArgsFactory.UNDIRECTED));
+        if (cmdLine.hasOption(ArgsFactory.COMPRESS_ADJ_LISTS)) {
+            graph.compressAdjLists();
+        }
 
         // Serialize the data and save the files in the given output directory.
         var outputDirectory = sanitizeDirStrAndMkdirIfNeeded(cmdLine.getOptionValue(
@@ -72,13 +79,15 @@ public class DatasetSerializer extends AbstractRunner {
      * @return The {@link Options} required by the {@link DatasetSerializer}.
      */
     private static Options getCommandLineOptions() {
-        var options = new Options();                               // ArgsFactory.
-        options.addOption(ArgsFactory.getInputFileEdges());        // INPUT_FILE_EDGES        -e
-        options.addOption(ArgsFactory.getOutputDirOption());       // SERIALIZE_OUTPUT        -o
-        options.addOption(ArgsFactory.getEdgesFileSeparator());    // EDGES_FILE_SEPARATOR    -m
-        options.addOption(ArgsFactory.getInputFileVertices());     // INPUT_FILE_VERTICES     -v
-        options.addOption(ArgsFactory.getVerticesFileSeparator()); // VERTICES_FILE_SEPARATOR -n
-        options.addOption(ArgsFactory.getIsGraphUndirected());     // UNDIRECTED             -u
+        var options = new Options();                                // ArgsFactory.
+        options.addOption(ArgsFactory.getInputFileEdges());         // INPUT_FILE_EDGES        -e
+        options.addOption(ArgsFactory.getOutputDirOption());        // SERIALIZE_OUTPUT        -o
+        options.addOption(ArgsFactory.getEdgesFileSeparator());     // EDGES_FILE_SEPARATOR    -m
+        options.addOption(ArgsFactory.getInputFileVertices());      // INPUT_FILE_VERTICES     -v
+        options.addOption(ArgsFactory.getVerticesFileSeparator());  // VERTICES_FILE_SEPARATOR -n
+        options.addOption(ArgsFactory.getIsGraphUndirected());      // UNDIRECTED             -u
+        options.addOption(ArgsFactory.getNumberThreadsOption());    // NUM_THREADS             -t
+        options.addOption(ArgsFactory.getCompressAdjListsOption()); // COMPRESS_ADJ_LISTS      -z
         return options;
     }
 }
@@ -1,6 +1,12 @@
 package ca.waterloo.dsg.graphflow.runner.plan;
 
+import ca.waterloo.dsg.graphflow.plan.WorkerPool;
 import ca.waterloo.dsg.graphflow.plan.Workers;
+import ca.waterloo.dsg.graphflow.plan.compiler.PlanCompiler;
+import ca.waterloo.dsg.graphflow.plan.operator.Batch;
+import ca.waterloo.dsg.graphflow.plan.operator.sink.MatchFileWriter;
+import ca.waterloo.dsg.graphflow.plan.operator.sink.MatchFileWriter.Format;
+import ca.waterloo.dsg.graphflow.plan.operator.sink.Sink.SinkType;
 import ca.waterloo.dsg.graphflow.planner.QueryPlanner;
 import ca.waterloo.dsg.graphflow.planner.QueryPlannerBig;
 import ca.waterloo.dsg.graphflow.planner.catalog.Catalog;
@@ -54,35 +60,97 @@ public class OptimizerExecutor extends AbstractRunner {
             return;
         }
 
-        var numQVertices = queryGraph.getNumVertices();
-        if (numQVertices >= 15 && numQVertices <= 25) {
-            QueryPlannerBig.NUM_TOP_PLANS_KEPT = 5;
-        } else if (numQVertices > 25) {
-            QueryPlannerBig.NUM_TOP_PLANS_KEPT = 1;
-        }
         var elapsedTimeLoading = IOUtils.getElapsedTimeInMillis(startTimeLoading);
         logger.info("Dataset loading run time: " + elapsedTimeLoading + " (ms)");
 
-        var planner = queryGraph.getNumVertices() <= 8 ?
-            new QueryPlanner(queryGraph, catalog, graph) :
-            new QueryPlannerBig(queryGraph, catalog, graph);
+        var planner = makePlanner(queryGraph, catalog, graph);
         var numThreads = !cmdLine.hasOption(ArgsFactory.NUM_THREADS) ? 1 /* single thread */ :
             Integer.parseInt(cmdLine.getOptionValue(ArgsFactory.NUM_THREADS));
         planner.setNumThreads(numThreads);
+        planner.setAdaptiveEnabled(cmdLine.hasOption(ArgsFactory.ENABLE_ADAPTIVITY));
+        planner.setMultiVertexJoinsEnabled(cmdLine.hasOption(
+            ArgsFactory.MULTI_VERTEX_JOINS));
         var beginTime = System.nanoTime();
         var queryPlan = planner.plan();
         var elapsedTime = IOUtils.getElapsedTimeInMillis(beginTime);
         if (!cmdLine.hasOption(ArgsFactory.OUTPUT_FILE)) {
             logger.info("Optimizer run time: " + elapsedTime + " (ms)");
         }
-        if (cmdLine.hasOption(ArgsFactory.EXECUTE_PLAN)) {
+        if (cmdLine.hasOption(ArgsFactory.BATCH_SIZE)) {
+            queryPlan.setBatchSize(null == cmdLine.getOptionValue(ArgsFactory.BATCH_SIZE) ?
+                Batch.DEFAULT_CAPACITY :
+                Integer.parseInt(cmdLine.getOptionValue(ArgsFactory.BATCH_SIZE)));
+        }
+        if (cmdLine.hasOption(ArgsFactory.HASH_JOIN_MEMORY)) {
+            queryPlan.setHashTableMemoryBudget(1024L * 1024L /* MB to bytes */ *
+                Long.parseLong(cmdLine.getOptionValue(ArgsFactory.HASH_JOIN_MEMORY)));
+        }
+        MatchFileWriter matchFileWriter = null;
+        if (cmdLine.hasOption(ArgsFactory.MATCHES_FILE) &&
+                cmdLine.hasOption(ArgsFactory.EXECUTE_PLAN)) {
+            var matchesFile = cmdLine.getOptionValue(ArgsFactory.MATCHES_FILE);
+            matchFileWriter = new MatchFileWriter(matchesFile,
+                matchesFile.endsWith(".csv") ? Format.CSV : Format.BINARY);
+            queryPlan.setSinkType(SinkType.STREAM);
+            queryPlan.setMatchConsumer(matchFileWriter);
+        }
+        // compiled plans can neither be cancelled nor report their progress.
+        var compiledPlan = cmdLine.hasOption(ArgsFactory.EXECUTE_PLAN) &&
+            cmdLine.hasOption(ArgsFactory.COMPILE_PLAN) &&
+            !cmdLine.hasOption(ArgsFactory.TIMEOUT) &&
+            !cmdLine.hasOption(ArgsFactory.PROGRESS_INTERVAL) ?
+                new PlanCompiler(graph).compile(queryPlan) : null;
+        if (null != compiledPlan) {
+            compiledPlan.execute(graph, numThreads);
+            if (cmdLine.hasOption(ArgsFactory.OUTPUT_FILE)) {
+                IOUtils.log(cmdLine.getOptionValue(ArgsFactory.OUTPUT_FILE),
+                    elapsedTime + "," + compiledPlan.getElapsedTime() + "\n");
+            } else {
+                logger.info("Query execution run time: " + compiledPlan.getElapsedTime() +
+                    " (ms)");
+                logger.info("Number output tuples: " + compiledPlan.getNumOutTuples());
+                logger.info("Plan: " + queryPlan.getOutputLog());
+            }
+        } else if (cmdLine.hasOption(ArgsFactory.EXECUTE_PLAN)) {
             beginTime = System.nanoTime();
             // initialize and execute the query transform, get the output metrics and log it.
-            var workers = new Workers(queryPlan, numThreads);
+            // a single query is executed so its pool has as many threads as requested.
+            var pool = new WorkerPool(numThreads, numThreads);
+            var workers = new Workers(queryPlan, numThreads, pool,
+                cmdLine.hasOption(ArgsFactory.WORK_STEALING));
+            if (cmdLine.hasOption(ArgsFactory.TIMEOUT)) {
+                workers.setTimeout(1000L /* s to ms */ *
+                    Long.parseLong(cmdLine.getOptionValue(ArgsFactory.TIMEOUT)));
+            }
+            if (cmdLine.hasOption(ArgsFactory.PROGRESS_INTERVAL)) {
+                workers.setProgressInterval(1000L /* s to ms */ *
+                    Long.parseLong(cmdLine.getOptionValue(ArgsFactory.PROGRESS_INTERVAL)));
+            }
+            if (cmdLine.hasOption(ArgsFactory.REPLAN_THRESHOLD)) {
+                workers.setReoptimizationThreshold(Double.parseDouble(cmdLine.getOptionValue(
+                    ArgsFactory.REPLAN_THRESHOLD)));
+                workers.setReplanner((builds, nextHashJoinID) -> {
+                    var replanner = new QueryPlanner(queryGraph, catalog, graph);
+                    replanner.setNumThreads(numThreads);
+                    replanner.setAdaptiveEnabled(cmdLine.hasOption(
+                        ArgsFactory.ENABLE_ADAPTIVITY));
+                    replanner.setMultiVertexJoinsEnabled(cmdLine.hasOption(
+                        ArgsFactory.MULTI_VERTEX_JOINS));
+                    return replanner.replan(builds, nextHashJoinID);
+                });
+            }
             logger.info("Plan initialization before exec run time: " + elapsedTime + " (ms)");
             workers.init(graph, store);
             elapsedTime = IOUtils.getElapsedTimeInMillis(beginTime);
             workers.execute();
+            pool.shutdown();
+            if (null != matchFileWriter) {
+                matchFileWriter.close();
+            }
+            if (workers.isTimedOut()) {
+                logger.warn("The query timed out after " +
+                    cmdLine.getOptionValue(ArgsFactory.TIMEOUT) + " (s), its output is partial.");
+            }
             if (cmdLine.hasOption(ArgsFactory.OUTPUT_FILE)) {
                 IOUtils.log(cmdLine.getOptionValue(ArgsFactory.OUTPUT_FILE),
                     elapsedTime + "," + workers.getElapsedTime() + "\n");
@@ -104,6 +172,22 @@ public class OptimizerExecutor extends AbstractRunner {
         }
     }
 
+    /**
+     * @return The planner of the query, enumerating all the plans of queries up to 8 query
+     * vertices and fewer of larger queries.
+     */
+    static QueryPlanner makePlanner(QueryGraph queryGraph, Catalog catalog, Graph graph) {
+        var numQVertices = queryGraph.getNumVertices();
+        if (numQVertices >= 15 && numQVertices <= 25) {
+            QueryPlannerBig.NUM_TOP_PLANS_KEPT = 5;
+        } else if (numQVertices > 25) {
+            QueryPlannerBig.NUM_TOP_PLANS_KEPT = 1;
+        }
+        return numQVertices <= 8 ?
+            new QueryPlanner(queryGraph, catalog, graph) :
+            new QueryPlannerBig(queryGraph, catalog, graph);
+    }
+
     /**
      * @return The {@link Options} required by the {@link OptimizerExecutor}.
      */
@@ -115,6 +199,15 @@ public class OptimizerExecutor extends AbstractRunner {
         options.addOption(ArgsFactory.getNumberThreadsOption());         // NUM_THREADS         -t
         options.addOption(ArgsFactory.getExecuteOption());               // EXECUTE_PLAN        -e
         options.addOption(ArgsFactory.getEnableAdaptivityOption());      // ENABLE_ADAPTIVITY   -a
+        options.addOption(ArgsFactory.getBatchSizeOption());             // BATCH_SIZE          -b
+        options.addOption(ArgsFactory.getCompilePlanOption());           // COMPILE_PLAN        -x
+        options.addOption(ArgsFactory.getWorkStealingOption());          // WORK_STEALING       -w
+        options.addOption(ArgsFactory.getHashJoinMemoryOption());        // HASH_JOIN_MEMORY    -m
+        options.addOption(ArgsFactory.getMatchesFileOption());           // MATCHES_FILE        -r
+        options.addOption(ArgsFactory.getTimeoutOption());               // TIMEOUT             -l
+        options.addOption(ArgsFactory.getProgressIntervalOption());      // PROGRESS_INTERVAL   -g
+        options.addOption(ArgsFactory.getReplanThresholdOption());       // REPLAN_THRESHOLD    -d
+        options.addOption(ArgsFactory.getMultiVertexJoinsOption());      // MULTI_VERTEX_JOINS  -h
         return options;
     }
 }
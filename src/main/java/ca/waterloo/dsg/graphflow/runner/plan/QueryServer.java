@@ -0,0 +1,303 @@
+package ca.waterloo.dsg.graphflow.runner.plan;
+
+import ca.waterloo.dsg.graphflow.plan.WorkerPool;
+import ca.waterloo.dsg.graphflow.plan.Workers;
+import ca.waterloo.dsg.graphflow.plan.operator.Batch;
+import ca.waterloo.dsg.graphflow.plan.operator.sink.MatchConsumer;
+import ca.waterloo.dsg.graphflow.plan.operator.sink.Sink.SinkType;
+import ca.waterloo.dsg.graphflow.planner.catalog.Catalog;
+import ca.waterloo.dsg.graphflow.planner.catalog.CatalogFactory;
+import ca.waterloo.dsg.graphflow.query.parser.QueryParser;
+import ca.waterloo.dsg.graphflow.runner.AbstractRunner;
+import ca.waterloo.dsg.graphflow.runner.ArgsFactory;
+import ca.waterloo.dsg.graphflow.storage.Graph;
+import ca.waterloo.dsg.graphflow.storage.GraphFactory;
+import ca.waterloo.dsg.graphflow.storage.KeyStore;
+import ca.waterloo.dsg.graphflow.storage.KeyStoreFactory;
+import ca.waterloo.dsg.graphflow.util.IOUtils;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the queries on a dataset loaded once, so each query is only parsed, planned and executed
+ * and the JVM stays warm between the queries. The queries are read a line at a time from a TCP
+ * socket on localhost or from stdin:
+ * <ul>
+ * <li>'(a)->(b), (b)->(c)' counts the matches of the query.</li>
+ * <li>'MATCHES (a)->(b), (b)->(c) LIMIT 10' also writes the matches, first a 'COLUMNS a,b,c' line
+ * with the query vertices sorted by name, then a CSV line per match.</li>
+ * <li>'QUIT' closes the connection, or stops the server reading from stdin.</li>
+ * </ul>
+ * Each query is answered with an 'OK matches=.. planning_ms=.. execution_ms=..' line, followed by
+ * ' timed_out' if the query timed out, or with an 'ERROR ..' line. The connections are served
+ * concurrently and their queries share a single {@link WorkerPool}.
+ */
+public class QueryServer extends AbstractRunner {
+
+    protected static final Logger logger = LogManager.getLogger(QueryServer.class);
+
+    private static final String MATCHES = "MATCHES ";
+    private static final String QUIT = "QUIT";
+
+    private Graph graph;
+    private Catalog catalog;
+    private KeyStore store;
+    private WorkerPool pool;
+    private int numThreads = 1;
+    private boolean isAdaptiveEnabled;
+    private boolean isMultiVertexJoinsEnabled;
+    private int batchSize = 0;
+    private boolean isWorkStealing;
+    private long timeout = 0;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var startTimeLoading = System.nanoTime();
+        var cmdLine = parseCmdLine(args, getCommandLineOptions());
+        if (null == cmdLine) {
+            return;
+        }
+
+        var inputDirectory = sanitizeDirStr(cmdLine.getOptionValue(ArgsFactory.INPUT_GRAPH_DIR));
+        QueryServer server;
+        try {
+            server = new QueryServer(new GraphFactory().make(inputDirectory),
+                new CatalogFactory().make(inputDirectory), new KeyStoreFactory().make(
+                inputDirectory), cmdLine);
+        } catch (IOException | ClassNotFoundException e) {
+            logger.error("Error in deserialization: " + e.getMessage());
+            return;
+        }
+        var elapsedTimeLoading = IOUtils.getElapsedTimeInMillis(startTimeLoading);
+        logger.info("Dataset loading run time: " + elapsedTimeLoading + " (ms)");
+
+        if (cmdLine.hasOption(ArgsFactory.PORT)) {
+            server.serve(Integer.parseInt(cmdLine.getOptionValue(ArgsFactory.PORT)));
+        } else {
+            server.serve(System.in, System.out);
+        }
+    }
+
+    /**
+     * Constructs a {@link QueryServer} object.
+     *
+     * @param graph is the input data graph.
+     * @param catalog is the catalog of the graph the queries are planned with.
+     * @param store is the labels and types key store.
+     * @param cmdLine holds the options the queries are planned and executed with.
+     */
+    private QueryServer(Graph graph, Catalog catalog, KeyStore store, CommandLine cmdLine) {
+        this.graph = graph;
+        this.catalog = catalog;
+        this.store = store;
+        if (cmdLine.hasOption(ArgsFactory.NUM_THREADS)) {
+            numThreads = Integer.parseInt(cmdLine.getOptionValue(ArgsFactory.NUM_THREADS));
+        }
+        // the queries of the connections are executed concurrently, each with up to numThreads.
+        var numProcessors = Runtime.getRuntime().availableProcessors();
+        pool = new WorkerPool(Math.max(numProcessors, numThreads), numThreads);
+        isAdaptiveEnabled = cmdLine.hasOption(ArgsFactory.ENABLE_ADAPTIVITY);
+        isMultiVertexJoinsEnabled = cmdLine.hasOption(ArgsFactory.MULTI_VERTEX_JOINS);
+        if (cmdLine.hasOption(ArgsFactory.BATCH_SIZE)) {
+            batchSize = null == cmdLine.getOptionValue(ArgsFactory.BATCH_SIZE) ?
+                Batch.DEFAULT_CAPACITY :
+                Integer.parseInt(cmdLine.getOptionValue(ArgsFactory.BATCH_SIZE));
+        }
+        isWorkStealing = cmdLine.hasOption(ArgsFactory.WORK_STEALING);
+        if (cmdLine.hasOption(ArgsFactory.TIMEOUT)) {
+            timeout = 1000L /* s to ms */ *
+                Long.parseLong(cmdLine.getOptionValue(ArgsFactory.TIMEOUT));
+        }
+    }
+
+    /**
+     * Accepts the connections on a TCP socket on localhost, serving each on its own thread.
+     *
+     * @param port is the port of the socket.
+     */
+    private void serve(int port) throws IOException {
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try (var serverSocket = new ServerSocket(port, 0 /* default backlog */,
+                InetAddress.getLoopbackAddress())) {
+            logger.info("Accepting the queries on port " + serverSocket.getLocalPort() + ".");
+            while (true) {
+                var socket = serverSocket.accept();
+                connections.submit(() -> serve(socket));
+            }
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            serve(socket.getInputStream(), socket.getOutputStream());
+        } catch (IOException e) {
+            logger.error("Error serving a connection: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Answers the queries read a line at a time until the end of the input or a 'QUIT' line.
+     *
+     * @param in is the stream the queries are read from.
+     * @param out is the stream the answers are written to.
+     */
+    private void serve(InputStream in, OutputStream out) throws IOException,
+        InterruptedException {
+        var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        var writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out,
+            StandardCharsets.UTF_8)));
+        String line;
+        while (null != (line = reader.readLine())) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.equalsIgnoreCase(QUIT)) {
+                break;
+            }
+            try {
+                answer(line, writer);
+            } catch (RuntimeException e) {
+                logger.error("Error answering the query '" + line + "'", e);
+                writer.println("ERROR " + e);
+            }
+            writer.flush();
+        }
+        writer.flush();
+    }
+
+    /**
+     * Parses, plans and executes a query and writes its answer.
+     *
+     * @param request is the query, prefixed by 'MATCHES ' to also write its matches.
+     * @param writer is the writer of the answers.
+     */
+    private void answer(String request, PrintWriter writer) throws InterruptedException {
+        var isStreaming = request.regionMatches(true /* ignore case */, 0, MATCHES, 0,
+            MATCHES.length());
+        var query = isStreaming ? request.substring(MATCHES.length()) : request;
+        var beginTime = System.nanoTime();
+        var queryGraph = QueryParser.parse(query, store);
+        if (null == queryGraph) {
+            writer.println("ERROR An error occurred parsing the query graph.");
+            return;
+        }
+        // the plan is made for as many threads as the query is executed with.
+        var numThreads = pool.getNumThreadsPerQuery(this.numThreads);
+        var planner = OptimizerExecutor.makePlanner(queryGraph, catalog, graph);
+        planner.setNumThreads(numThreads);
+        planner.setAdaptiveEnabled(isAdaptiveEnabled);
+        planner.setMultiVertexJoinsEnabled(isMultiVertexJoinsEnabled);
+        var queryPlan = planner.plan();
+        var planningTime = IOUtils.getElapsedTimeInMillis(beginTime);
+        queryPlan.setBatchSize(batchSize);
+        MatchWriter matchWriter = null;
+        if (isStreaming) {
+            writer.println("COLUMNS " + String.join(",", new TreeSet<>(
+                queryGraph.getQVertices())));
+            matchWriter = new MatchWriter(writer, queryGraph.getLimit() > 0 ?
+                queryGraph.getLimit() : Long.MAX_VALUE);
+            queryPlan.setSinkType(SinkType.STREAM);
+            queryPlan.setMatchConsumer(matchWriter);
+        }
+        var workers = new Workers(queryPlan, numThreads, pool, isWorkStealing);
+        workers.setTimeout(timeout);
+        if (null != matchWriter) {
+            matchWriter.setCancellation(workers::cancel);
+        }
+        workers.init(graph, store);
+        workers.execute();
+        var numOutTuples = null != matchWriter ? matchWriter.getNumMatches() :
+            workers.getNumOutTuples();
+        writer.println(String.format("OK matches=%d planning_ms=%.3f execution_ms=%.3f%s",
+            numOutTuples, planningTime, workers.getElapsedTime(),
+            workers.isTimedOut() ? " timed_out" : ""));
+    }
+
+    /**
+     * Writes the matches of a query as CSV lines, up to the limit of the query. The stream sink
+     * does not limit the output tuples, so the query is cancelled once the limit is reached and
+     * the matches beyond it are not written.
+     */
+    private static class MatchWriter implements MatchConsumer {
+
+        private final PrintWriter writer;
+        private final long limit;
+        private final AtomicLong numMatches = new AtomicLong(0);
+        private Runnable cancellation;
+
+        MatchWriter(PrintWriter writer, long limit) {
+            this.writer = writer;
+            this.limit = limit;
+        }
+
+        void setCancellation(Runnable cancellation) {
+            this.cancellation = cancellation;
+        }
+
+        /**
+         * @return The number of matches written.
+         */
+        long getNumMatches() {
+            return Math.min(numMatches.get(), limit);
+        }
+
+        /**
+         * @see MatchConsumer#consume(int[], int, int)
+         */
+        @Override
+        public void consume(int[] matches, int numQVertices, int numMatches) {
+            var numMatchesBefore = this.numMatches.getAndAdd(numMatches);
+            var numMatchesToWrite = (int) Math.max(0, Math.min(numMatches,
+                limit - numMatchesBefore));
+            var lines = new StringBuilder();
+            for (var i = 0; i < numMatchesToWrite * numQVertices; i++) {
+                lines.append(matches[i]).append((i + 1) % numQVertices == 0 ? '\n' : ',');
+            }
+            synchronized (writer) {
+                writer.write(lines.toString());
+            }
+            if (numMatchesBefore + numMatches >= limit && null != cancellation) {
+                cancellation.run();
+            }
+        }
+    }
+
+    /**
+     * @return The {@link Options} required by the {@link QueryServer}.
+     */
+    private static Options getCommandLineOptions() {
+        var options = new Options();                                     // ArgsFactory.
+        options.addOption(ArgsFactory.getInputGraphDirectoryOption());   // INPUT_GRAPH_DIR     -i
+        options.addOption(ArgsFactory.getNumberThreadsOption());         // NUM_THREADS         -t
+        options.addOption(ArgsFactory.getEnableAdaptivityOption());      // ENABLE_ADAPTIVITY   -a
+        options.addOption(ArgsFactory.getBatchSizeOption());             // BATCH_SIZE          -b
+        options.addOption(ArgsFactory.getWorkStealingOption());          // WORK_STEALING       -w
+        options.addOption(ArgsFactory.getTimeoutOption());               // TIMEOUT             -l
+        options.addOption(ArgsFactory.getMultiVertexJoinsOption());      // MULTI_VERTEX_JOINS  -h
+        options.addOption(ArgsFactory.getPortOption());                  // PORT                -p
+        return options;
+    }
+}
@@ -0,0 +1,287 @@
+package ca.waterloo.dsg.graphflow.storage;
+
+import ca.waterloo.dsg.graphflow.plan.operator.extend.EI.Neighbours;
+import lombok.Getter;
+
+/**
+ * A {@link SortedAdjList} with each slice of neighbour IDs compressed. A slice is stored as its
+ * size followed by blocks of up to {@link #BLOCK_SIZE} neighbour IDs. A block starts with a header
+ * of: its first ID as a delta from the last ID of the previous block, its last ID as a delta from
+ * its first ID, and the size in bytes of its remaining deltas. The header is followed by the delta
+ * of each remaining ID from the previous one. All values are variable-length encoded with 7 bits
+ * per byte.
+ * <p>
+ * The block headers act as skip pointers: an intersection skips the blocks whose range of IDs
+ * cannot contain any of the IDs it is intersected with, and merges the other blocks as they are
+ * decoded. Slices are decoded into the buffer of the given {@link Neighbours} object instead of
+ * pointing to the adjacency list, so that buffer needs to be owned by the caller.
+ */
+public class CompressedSortedAdjList extends SortedAdjList {
+
+    static final int BLOCK_SIZE = 64;
+
+    @Getter private byte[][] pages;
+    private long numNeighbourIds;
+
+    /**
+     * Constructs a {@link CompressedSortedAdjList} object.
+     *
+     * @param numLabelsOrTypes is the number of edge labels or neighbour types per vertex.
+     * @param offsets are the byte offsets of each (vertex, label or type) compressed slice.
+     * @param pages are the pages of compressed slices.
+     * @param numNeighbourIds is the number of neighbour IDs stored for all vertices.
+     */
+    public CompressedSortedAdjList(int numLabelsOrTypes, long[] offsets, byte[][] pages,
+        long numNeighbourIds) {
+        super(numLabelsOrTypes, offsets, null /* no uncompressed neighbour IDs */);
+        this.pages = pages;
+        this.numNeighbourIds = numNeighbourIds;
+    }
+
+    /**
+     * @param adjList is the adjacency list to compress.
+     * @return the compressed adjacency list.
+     */
+    public static CompressedSortedAdjList make(SortedAdjList adjList) {
+        var numLabelsOrTypes = adjList.getNumLabelsOrTypes();
+        var numSlices = adjList.getOffsets().length - 1;
+        var neighbours = new Neighbours();
+        var sizes = new long[numSlices + 1];
+        for (var i = 0; i < numSlices; i++) {
+            adjList.setNeighbourIds(i / numLabelsOrTypes, (short) (i % numLabelsOrTypes),
+                neighbours);
+            sizes[i + 1] = encode(neighbours, null /* only compute the size */, 0);
+        }
+        var pageSizes = setOffsetsAndGetPageSizes(sizes);
+        var pages = new byte[pageSizes.length][];
+        for (var i = 0; i < pages.length; i++) {
+            pages[i] = new byte[pageSizes[i]];
+        }
+        for (var i = 0; i < numSlices; i++) {
+            adjList.setNeighbourIds(i / numLabelsOrTypes, (short) (i % numLabelsOrTypes),
+                neighbours);
+            encode(neighbours, pages[(int) (sizes[i] >>> PAGE_BITS)], (int) (sizes[i] & PAGE_MASK));
+        }
+        return new CompressedSortedAdjList(numLabelsOrTypes, sizes, pages, adjList.size());
+    }
+
+    /**
+     * Encodes a slice of neighbour IDs into a page.
+     *
+     * @param neighbours are the sorted neighbour IDs to encode.
+     * @param page is the page to write to, or null to only compute the encoded size.
+     * @param position is the position in the page to write from.
+     * @return the size in bytes of the encoded slice.
+     */
+    static long encode(Neighbours neighbours, byte[] page, int position) {
+        var startPosition = position;
+        var ids = neighbours.Ids;
+        var size = neighbours.endIdx - neighbours.startIdx;
+        position = writeVarint(page, position, size);
+        var prevLast = 0;
+        for (var blockStart = neighbours.startIdx; blockStart < neighbours.endIdx;
+             blockStart += BLOCK_SIZE) {
+            var blockEnd = Math.min(blockStart + BLOCK_SIZE, neighbours.endIdx);
+            var first = ids[blockStart];
+            var last = ids[blockEnd - 1];
+            var payloadSize = 0;
+            for (var i = blockStart + 1; i < blockEnd; i++) {
+                payloadSize += getVarintSize(ids[i] - ids[i - 1]);
+            }
+            position = writeVarint(page, position, first - prevLast);
+            position = writeVarint(page, position, last - first);
+            position = writeVarint(page, position, payloadSize);
+            for (var i = blockStart + 1; i < blockEnd; i++) {
+                position = writeVarint(page, position, ids[i] - ids[i - 1]);
+            }
+            prevLast = last;
+        }
+        return position - startPosition;
+    }
+
+    private static int writeVarint(byte[] page, int position, int value) {
+        if (null == page) {
+            return position + getVarintSize(value);
+        }
+        while ((value & ~0x7F) != 0) {
+            page[position++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        page[position++] = (byte) value;
+        return position;
+    }
+
+    private static int readVarint(byte[] page, int position) {
+        var value = 0;
+        var shift = 0;
+        byte aByte;
+        do {
+            aByte = page[position++];
+            value |= (aByte & 0x7F) << shift;
+            shift += 7;
+        } while (aByte < 0);
+        return value;
+    }
+
+    private static int getVarintSize(int value) {
+        if (value < 1 << 7) {
+            return 1;
+        } else if (value < 1 << 14) {
+            return 2;
+        } else if (value < 1 << 21) {
+            return 3;
+        } else if (value < 1 << 28) {
+            return 4;
+        }
+        return 5;
+    }
+
+    /**
+     * @see SortedAdjList#setNeighbourIds(int, short, Neighbours)
+     */
+    @Override
+    public void setNeighbourIds(int vertexId, short labelOrType, Neighbours neighbours) {
+        setNeighbourIds(vertexId, labelOrType, 0, Integer.MAX_VALUE, neighbours);
+    }
+
+    /**
+     * @see SortedAdjList#setNeighbourIds(int, short, int, int, Neighbours)
+     */
+    @Override
+    public void setNeighbourIds(int vertexId, short labelOrType, int fromPosition,
+        int toPosition, Neighbours neighbours) {
+        var startOffset = offsets[vertexId * numLabelsOrTypes + labelOrType];
+        var page = pages[(int) (startOffset >>> PAGE_BITS)];
+        var position = (int) (startOffset & PAGE_MASK);
+        var size = readVarint(page, position);
+        position += getVarintSize(size);
+        toPosition = Math.min(toPosition, size);
+        if (null == neighbours.Ids || neighbours.Ids.length < toPosition - fromPosition) {
+            neighbours.Ids = new int[Math.max(toPosition - fromPosition, BLOCK_SIZE)];
+        }
+        var ids = neighbours.Ids;
+        var numIds = 0;
+        var prevLast = 0;
+        for (var blockStart = 0; blockStart < toPosition; blockStart += BLOCK_SIZE) {
+            var blockEnd = Math.min(blockStart + BLOCK_SIZE, size);
+            var firstDelta = readVarint(page, position);
+            position += getVarintSize(firstDelta);
+            var lastDelta = readVarint(page, position);
+            position += getVarintSize(lastDelta);
+            var payloadSize = readVarint(page, position);
+            position += getVarintSize(payloadSize);
+            var value = prevLast + firstDelta;
+            prevLast = value + lastDelta;
+            if (blockEnd <= fromPosition) {
+                position += payloadSize;
+                continue;
+            }
+            for (var i = blockStart; i < blockEnd && i < toPosition; i++) {
+                if (i > blockStart) {
+                    var delta = readVarint(page, position);
+                    position += getVarintSize(delta);
+                    value += delta;
+                }
+                if (i >= fromPosition) {
+                    ids[numIds++] = value;
+                }
+            }
+        }
+        neighbours.startIdx = 0;
+        neighbours.endIdx = numIds;
+    }
+
+    /**
+     * Intersects the compressed slice of neighbour IDs of a vertex with some given neighbours.
+     * The blocks that cannot contain any of the given neighbours are skipped without being
+     * decoded, and the given neighbours are galloped over to each decoded ID.
+     *
+     * @return the i-cost of the intersection, which is the number of neighbour IDs of the
+     * adjacency list decoded plus the number of blocks skipped.
+     * @see SortedAdjList#intersect(int, short, Neighbours, Neighbours)
+     */
+    @Override
+    public int intersect(int vertexId, short labelOrType, Neighbours someNeighbours,
+        Neighbours neighbours) {
+        neighbours.reset();
+        var startOffset = offsets[vertexId * numLabelsOrTypes + labelOrType];
+        var page = pages[(int) (startOffset >>> PAGE_BITS)];
+        var position = (int) (startOffset & PAGE_MASK);
+        var size = readVarint(page, position);
+        position += getVarintSize(size);
+        var someNeighbourIds = someNeighbours.Ids;
+        var someIdx = someNeighbours.startIdx;
+        var someEndIdx = someNeighbours.endIdx;
+        var icost = 0;
+        var prevLast = 0;
+        for (var blockStart = 0; blockStart < size && someIdx < someEndIdx;
+             blockStart += BLOCK_SIZE) {
+            var blockSize = Math.min(BLOCK_SIZE, size - blockStart);
+            var firstDelta = readVarint(page, position);
+            position += getVarintSize(firstDelta);
+            var lastDelta = readVarint(page, position);
+            position += getVarintSize(lastDelta);
+            var payloadSize = readVarint(page, position);
+            position += getVarintSize(payloadSize);
+            var value = prevLast + firstDelta;
+            prevLast = value + lastDelta;
+            if (prevLast < someNeighbourIds[someIdx]) {
+                position += payloadSize; // no ID of the block can be in the intersection.
+                icost++;
+                continue;
+            }
+            for (var i = 0; ; ) {
+                icost++;
+                someIdx = gallop(someNeighbourIds, someIdx, someEndIdx, value);
+                if (someIdx == someEndIdx) {
+                    break;
+                }
+                if (someNeighbourIds[someIdx] == value) {
+                    neighbours.Ids[neighbours.endIdx++] = value;
+                    someIdx++;
+                }
+                if (++i == blockSize) {
+                    break;
+                }
+                var delta = readVarint(page, position);
+                position += getVarintSize(delta);
+                value += delta;
+            }
+        }
+        return icost;
+    }
+
+    /**
+     * Does nothing as the slices are sorted before being compressed.
+     *
+     * @see SortedAdjList#sort()
+     */
+    @Override
+    public void sort() {}
+
+    /**
+     * Does nothing as the slices are sorted before being compressed.
+     *
+     * @see SortedAdjList#sort(int, int)
+     */
+    @Override
+    void sort(int fromIdx, int toIdx) {}
+
+    /**
+     * @see SortedAdjList#size()
+     */
+    @Override
+    public long size() {
+        return numNeighbourIds;
+    }
+
+    /**
+     * @see SortedAdjList#size(int, short)
+     */
+    @Override
+    public int size(int vertexId, short labelOrType) {
+        var startOffset = offsets[vertexId * numLabelsOrTypes + labelOrType];
+        return readVarint(pages[(int) (startOffset >>> PAGE_BITS)],
+            (int) (startOffset & PAGE_MASK));
+    }
+}
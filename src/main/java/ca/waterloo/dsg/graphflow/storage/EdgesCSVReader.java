@@ -0,0 +1,257 @@
+package ca.waterloo.dsg.graphflow.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads an edges CSV file, where each line is of the format (FROM,TO,LABEL), in parallel. The
+ * file is split into byte ranges aligned to line boundaries. Each range is memory mapped and
+ * parsed byte by byte by one of the threads, without {@link String#split} or regular expressions.
+ */
+class EdgesCSVReader {
+
+    private static final long CHUNK_SIZE = 1 << 26; /* 64MB */
+
+    /**
+     * Processes the edges of one chunk of the file.
+     */
+    interface ChunkProcessor {
+        void process(int chunkIdx, EdgeParser edges);
+    }
+
+    private String file;
+    private byte[] separator;
+    private int numThreads;
+    private long[] chunkOffsets;
+
+    /**
+     * Constructs an {@link EdgesCSVReader} object.
+     *
+     * @param file is the edges csv file to read.
+     * @param separator is the separator between the columns. It is matched literally, '\t' being
+     * accepted for a tab.
+     * @param numThreads is the number of threads used to parse the file.
+     * @throws IOException if the file cannot be read.
+     */
+    EdgesCSVReader(String file, String separator, int numThreads) throws IOException {
+        this.file = file;
+        this.separator = ("\\t".equals(separator) ? "\t" : separator).getBytes(
+            StandardCharsets.UTF_8);
+        if (0 == this.separator.length) {
+            throw new IllegalArgumentException("The csv separator cannot be empty.");
+        }
+        this.numThreads = numThreads;
+        setChunkOffsets();
+    }
+
+    int getNumChunks() {
+        return chunkOffsets.length - 1;
+    }
+
+    private void setChunkOffsets() throws IOException {
+        try (var channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            var fileSize = channel.size();
+            var offsets = new ArrayList<Long>();
+            offsets.add(0L);
+            var buffer = ByteBuffer.allocate(1 << 12);
+            var offset = CHUNK_SIZE;
+            while (offset < fileSize) {
+                // a chunk ends after the first new line found from its nominal end.
+                var position = Math.max(offset, offsets.get(offsets.size() - 1) + 1) - 1;
+                var chunkEnd = fileSize;
+                buffer.clear();
+                while (chunkEnd == fileSize && channel.read(buffer, position) > 0) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        if ('\n' == buffer.get()) {
+                            chunkEnd = position + buffer.position();
+                            break;
+                        }
+                    }
+                    position += buffer.limit();
+                    buffer.clear();
+                }
+                offsets.add(chunkEnd);
+                offset = chunkEnd + CHUNK_SIZE;
+            }
+            if (offsets.get(offsets.size() - 1) < fileSize) {
+                offsets.add(fileSize);
+            }
+            chunkOffsets = new long[offsets.size()];
+            for (var i = 0; i < chunkOffsets.length; i++) {
+                chunkOffsets[i] = offsets.get(i);
+            }
+        }
+    }
+
+    /**
+     * Calls the given processor on the edges of each chunk of the file, using the reader's
+     * number of threads. The processor is called concurrently on different chunks.
+     *
+     * @param processor is the processor of the edges of each chunk.
+     * @throws IOException if the file cannot be read.
+     */
+    void forEachChunk(ChunkProcessor processor) throws IOException {
+        var executor = Executors.newFixedThreadPool(numThreads);
+        try (var channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            var tasks = new ArrayList<Callable<Void>>(getNumChunks());
+            for (var i = 0; i < getNumChunks(); i++) {
+                var chunkIdx = i;
+                tasks.add(() -> {
+                    var chunkSize = chunkOffsets[chunkIdx + 1] - chunkOffsets[chunkIdx];
+                    if (chunkSize > Integer.MAX_VALUE) {
+                        throw new IOException("A line of " + file + " starting at byte " +
+                            chunkOffsets[chunkIdx] + " is too long.");
+                    }
+                    var chunk = channel.map(MapMode.READ_ONLY, chunkOffsets[chunkIdx],
+                        chunkSize);
+                    processor.process(chunkIdx, new EdgeParser(chunk, separator));
+                    return null;
+                });
+            }
+            for (var future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + file + ".", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Could not read " + file + ".", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses the edges of a chunk one line at a time.
+     */
+    static class EdgeParser {
+
+        private MappedByteBuffer chunk;
+        private byte[] separator;
+        private int position = 0;
+        private int labelStart, labelEnd;
+        private byte[] lastLabelBytes;
+        private String lastLabel;
+
+        int fromVertex;
+        int toVertex;
+
+        EdgeParser(MappedByteBuffer chunk, byte[] separator) {
+            this.chunk = chunk;
+            this.separator = separator;
+        }
+
+        /**
+         * Parses the next edge of the chunk, skipping empty lines.
+         *
+         * @return false if there are no edges left in the chunk, true otherwise.
+         */
+        boolean next() {
+            while (position < chunk.limit() && isEndOfLine(chunk.get(position))) {
+                position++;
+            }
+            if (position == chunk.limit()) {
+                return false;
+            }
+            fromVertex = parseVertexId();
+            skipSeparator();
+            toVertex = parseVertexId();
+            skipSeparator();
+            labelStart = position;
+            while (position < chunk.limit() && !isEndOfLine(chunk.get(position)) &&
+                    !isSeparator()) {
+                position++;
+            }
+            labelEnd = position;
+            while (position < chunk.limit() && '\n' != chunk.get(position)) {
+                position++;
+            }
+            return true;
+        }
+
+        /**
+         * @return the label of the last edge parsed. The label of the previous edge is returned
+         * without decoding when both are the same, as is common in files sorted by label.
+         */
+        String getLabel() {
+            var labelLength = labelEnd - labelStart;
+            if (null != lastLabel && lastLabelBytes.length == labelLength) {
+                var isSameLabel = true;
+                for (var i = 0; i < labelLength && isSameLabel; i++) {
+                    isSameLabel = lastLabelBytes[i] == chunk.get(labelStart + i);
+                }
+                if (isSameLabel) {
+                    return lastLabel;
+                }
+            }
+            lastLabelBytes = new byte[labelLength];
+            for (var i = 0; i < labelLength; i++) {
+                lastLabelBytes[i] = chunk.get(labelStart + i);
+            }
+            lastLabel = new String(lastLabelBytes, StandardCharsets.UTF_8);
+            return lastLabel;
+        }
+
+        private int parseVertexId() {
+            var start = position;
+            var vertexId = 0L;
+            while (position < chunk.limit()) {
+                var digit = chunk.get(position) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                vertexId = vertexId * 10 + digit;
+                if (vertexId > Integer.MAX_VALUE) {
+                    throw new NumberFormatException("Vertex ID out of range at byte " + start +
+                        " of a chunk.");
+                }
+                position++;
+            }
+            if (start == position) {
+                throw new NumberFormatException("Expected a vertex ID at byte " + start +
+                    " of a chunk.");
+            }
+            return (int) vertexId;
+        }
+
+        private void skipSeparator() {
+            if (!isSeparator()) {
+                throw new IllegalArgumentException("Expected a separator at byte " + position +
+                    " of a chunk.");
+            }
+            position += separator.length;
+        }
+
+        private boolean isSeparator() {
+            if (position + separator.length > chunk.limit()) {
+                return false;
+            }
+            for (var i = 0; i < separator.length; i++) {
+                if (separator[i] != chunk.get(position + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isEndOfLine(byte character) {
+            return '\n' == character || '\r' == character;
+        }
+    }
+}
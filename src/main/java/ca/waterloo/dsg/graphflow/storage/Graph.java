@@ -1,6 +1,7 @@
 package ca.waterloo.dsg.graphflow.storage;
 
-import ca.waterloo.dsg.graphflow.util.IOUtils;
+import ca.waterloo.dsg.graphflow.plan.operator.extend.EI.Neighbours;
+import ca.waterloo.dsg.graphflow.util.BinaryFileWriter;
 import lombok.Getter;
 import lombok.Setter;
 import org.apache.logging.log4j.LogManager;
@@ -17,6 +18,12 @@ public class Graph {
 
     private static final Logger logger = LogManager.getLogger(Graph.class);
 
+    // The graph is persisted in a single file of fixed-width little-endian values. The version is
+    // incremented whenever the layout written by serialize() changes.
+    static final String BINARY_FILE_NAME = "graph.bin";
+    static final int BINARY_FORMAT_MAGIC = 0x47464C57; /* 'GFLW' */
+    static final int BINARY_FORMAT_VERSION = 3;
+
     /**
      * Used to identify the edge direction in the graph representation.
      */
@@ -29,18 +36,18 @@ public class Graph {
     @Getter @Setter private int[] vertexIds;
     @Getter @Setter private short[] vertexTypes;
     @Getter @Setter private int[] vertexTypeOffsets;
-    // Adjacency lists containing the neighbour vertex IDs sorted by ID.
-    @Getter @Setter private SortedAdjList[] fwdAdjLists;
-    @Getter @Setter private SortedAdjList[] bwdAdjLists;
+    // Adjacency lists of all vertices in CSR layout with the neighbour vertex IDs sorted by ID.
+    @Getter @Setter private SortedAdjList fwdAdjLists;
+    @Getter @Setter private SortedAdjList bwdAdjLists;
     // Graph metadata.
     @Getter @Setter private int highestVertexId = -1;
-    @Getter @Setter private int numEdges;
-    @Setter private int[] labelOrToTypeToNumEdges;
+    @Getter @Setter private long numEdges;
+    @Setter private long[] labelOrToTypeToNumEdges;
     @Setter private int[] labelOrTypeToLargestFwdAdjListSize;
     @Setter private int[] labelOrTypeToLargestBwdAdjListSize;
-    @Getter @Setter private Map<Long, Integer> edgeKeyToNumEdgesMap;
-    @Getter @Setter private Map<Integer, Integer> labelAndToTypeToPercentageMap;
-    @Getter @Setter private Map<Integer, Integer> fromTypeAndLabelToPercentageMap;
+    @Getter @Setter private Map<Long, Long> edgeKeyToNumEdgesMap;
+    @Getter @Setter private Map<Integer, Long> labelAndToTypeToPercentageMap;
+    @Getter @Setter private Map<Integer, Long> fromTypeAndLabelToPercentageMap;
     @Getter @Setter private boolean isUndirected;
     @Getter @Setter private boolean isAdjListSortedByType;
 
@@ -56,7 +63,7 @@ public class Graph {
      * @param bwdAdjLists are the backward adjacency lists.
      * @param highestVertexId is the highest vertex ID.
      */
-    public Graph(SortedAdjList[] fwdAdjLists, SortedAdjList[] bwdAdjLists, int highestVertexId) {
+    public Graph(SortedAdjList fwdAdjLists, SortedAdjList bwdAdjLists, int highestVertexId) {
         this.fwdAdjLists = fwdAdjLists;
         this.bwdAdjLists = bwdAdjLists;
         this.highestVertexId = highestVertexId;
@@ -68,7 +75,7 @@ public class Graph {
      * @param label is the edge label.
      * @return The number of edges.
      */
-    public int getNumEdges(short fromType, short toType, short label) {
+    public long getNumEdges(short fromType, short toType, short label) {
         if (fromType == KeyStore.ANY && toType == KeyStore.ANY) {
             return labelOrToTypeToNumEdges[label];
         } else if (fromType != KeyStore.ANY && toType != KeyStore.ANY) {
@@ -92,6 +99,15 @@ public class Graph {
         }
     }
 
+    /**
+     * Replaces the forward and backward adjacency lists by their compressed representation.
+     */
+    public void compressAdjLists() {
+        logger.info("Compressing the adjacency lists.");
+        fwdAdjLists = CompressedSortedAdjList.make(fwdAdjLists);
+        bwdAdjLists = CompressedSortedAdjList.make(bwdAdjLists);
+    }
+
     /**
      * @param store is the vertex types and edge labelsOrToTypes key store.
      */
@@ -101,20 +117,20 @@ public class Graph {
                              && store.getNextTypeKey()   > 1; /*at least 2 vertex key types used.*/
         var numLabelsOrToTypes = isAdjListSortedByType ?
             store.getNextTypeKey() : store.getNextLabelKey();
-        labelOrToTypeToNumEdges = new int[numLabelsOrToTypes];
+        labelOrToTypeToNumEdges = new long[numLabelsOrToTypes];
         labelOrTypeToLargestFwdAdjListSize = new int[numLabelsOrToTypes];
         labelOrTypeToLargestBwdAdjListSize = new int[numLabelsOrToTypes];
+        numEdges = fwdAdjLists.size();
         for (var vertexId = 0; vertexId <= highestVertexId; vertexId++) {
-            numEdges += fwdAdjLists[vertexId].size();
             for (short labelOrToType = 0; labelOrToType < numLabelsOrToTypes; labelOrToType++) {
-                var adjListSize = fwdAdjLists[vertexId].size(labelOrToType);
+                var adjListSize = fwdAdjLists.size(vertexId, labelOrToType);
                 labelOrToTypeToNumEdges[labelOrToType] += adjListSize;
                 if (adjListSize > labelOrTypeToLargestFwdAdjListSize[labelOrToType]) {
                     labelOrTypeToLargestFwdAdjListSize[labelOrToType] = adjListSize;
                 }
             }
             for (short labelOrToType = 0; labelOrToType < numLabelsOrToTypes; labelOrToType++) {
-                var adjListSize = bwdAdjLists[vertexId].size(labelOrToType);
+                var adjListSize = bwdAdjLists.size(vertexId, labelOrToType);
                 if (adjListSize > labelOrTypeToLargestBwdAdjListSize[labelOrToType]) {
                     labelOrTypeToLargestBwdAdjListSize[labelOrToType] = adjListSize;
                 }
@@ -130,28 +146,28 @@ public class Graph {
             for (short toType = 0; toType < store.getNextTypeKey(); toType++) {
                 for (short label = 0; label < store.getNextLabelKey(); label++) {
                     var edge = getEdgeKey(fromType, toType, label);
-                    edgeKeyToNumEdgesMap.putIfAbsent(edge, 0);
+                    edgeKeyToNumEdgesMap.putIfAbsent(edge, 0L);
                     var labelAndToType = getEdgeKey(label, toType);
-                    labelAndToTypeToPercentageMap.putIfAbsent(labelAndToType, 0);
+                    labelAndToTypeToPercentageMap.putIfAbsent(labelAndToType, 0L);
                     var fromTypeAndLabel = getEdgeKey(fromType, label);
-                    fromTypeAndLabelToPercentageMap.putIfAbsent(fromTypeAndLabel, 0);
+                    fromTypeAndLabelToPercentageMap.putIfAbsent(fromTypeAndLabel, 0L);
                 }
             }
         }
+        var neighbours = new Neighbours();
         for (var fromVertex = 0; fromVertex < numVertices; fromVertex++) {
             var fromType = vertexTypes[fromVertex];
-            var offsets = fwdAdjLists[fromVertex].getLabelOrTypeOffsets();
             if (isAdjListSortedByType) {
                 short label = 0;
-                for (short toType = 0; toType < offsets.length - 1; toType++) {
-                    var numEdges = offsets[toType + 1] - offsets[toType];
+                for (short toType = 0; toType < numLabelsOrToTypes; toType++) {
+                    var numEdges = fwdAdjLists.size(fromVertex, toType);
                     addEdgeCount(fromType, toType, label, numEdges);
                 }
             } else {
-                var neighbours = fwdAdjLists[fromVertex].getNeighbourIds();
-                for (short label = 0; label < offsets.length - 1; label++) {
-                    for (var toIdx = offsets[label]; toIdx < offsets[label + 1]; toIdx++) {
-                        var toType = vertexTypes[neighbours[toIdx]];
+                for (short label = 0; label < numLabelsOrToTypes; label++) {
+                    fwdAdjLists.setNeighbourIds(fromVertex, label, neighbours);
+                    for (var toIdx = neighbours.startIdx; toIdx < neighbours.endIdx; toIdx++) {
+                        var toType = vertexTypes[neighbours.Ids[toIdx]];
                         addEdgeCount(fromType, toType, label, 1);
                     }
                 }
@@ -159,7 +175,7 @@ public class Graph {
         }
     }
 
-    private void addEdgeCount(short fromType, short toType, short label, int numEdges) {
+    private void addEdgeCount(short fromType, short toType, short label, long numEdges) {
         var edge = getEdgeKey(fromType, toType, label);
         edgeKeyToNumEdgesMap.put(edge, edgeKeyToNumEdgesMap.get(edge) + numEdges);
         var labelAndToType = getEdgeKey(label, toType);
@@ -193,30 +209,75 @@ public class Graph {
     }
 
     /**
-     * Serializes the graph by persisting different fields into different files.
+     * Serializes the graph into a single binary file of fixed-width little-endian values. The
+     * layout is a header of the format magic and version and the scalar fields, followed by the
+     * vertex arrays, the forward and backward adjacency lists, and the edge statistics. Each array
+     * is prefixed by its length and each map is written as an array of keys and an array of
+     * values.
      *
-     * @param directoryPath is the directory to which the graph's serialized objects are persisted.
+     * @param directoryPath is the directory to which the graph's binary file is persisted.
      * @throws IOException if stream to file cannot be written to or closed.
      */
     public void serialize(String directoryPath) throws IOException {
         logger.info("Serializing the data graph.");
-        IOUtils.serializeObjs(directoryPath, new Object[] {
-            /* <filename , field to serialize> pair */
-            "vertexIds", vertexIds,
-            "vertexTypes", vertexTypes,
-            "vertexTypeOffsets", vertexTypeOffsets,
-            "highestVertexId", highestVertexId,
-            "fwdAdjLists", fwdAdjLists,
-            "bwdAdjLists", bwdAdjLists,
-            "numEdges", numEdges,
-            "isAdjListSortedByType", isAdjListSortedByType,
-            "labelOrToTypeToNumEdges", labelOrToTypeToNumEdges,
-            "labelOrTypeToLargestFwdAdjListSize", labelOrTypeToLargestFwdAdjListSize,
-            "labelOrTypeToLargestBwdAdjListSize", labelOrTypeToLargestBwdAdjListSize,
-            "edgeKeyToNumEdgesMap", edgeKeyToNumEdgesMap,
-            "labelAndToTypeToPercentageMap", labelAndToTypeToPercentageMap,
-            "fromTypeAndLabelToPercentageMap", fromTypeAndLabelToPercentageMap,
-            "isUndirected", isUndirected
-        });
+        try (var writer = new BinaryFileWriter(directoryPath + BINARY_FILE_NAME)) {
+            writer.writeInt(BINARY_FORMAT_MAGIC);
+            writer.writeInt(BINARY_FORMAT_VERSION);
+            writer.writeInt(highestVertexId);
+            writer.writeLong(numEdges);
+            writer.writeBoolean(isUndirected);
+            writer.writeBoolean(isAdjListSortedByType);
+            writer.writeInts(vertexIds);
+            writer.writeShorts(vertexTypes);
+            writer.writeInts(vertexTypeOffsets);
+            serialize(writer, fwdAdjLists);
+            serialize(writer, bwdAdjLists);
+            writer.writeLongs(labelOrToTypeToNumEdges);
+            writer.writeInts(labelOrTypeToLargestFwdAdjListSize);
+            writer.writeInts(labelOrTypeToLargestBwdAdjListSize);
+            var edgeKeys = new long[edgeKeyToNumEdgesMap.size()];
+            var edgeKeysNumEdges = new long[edgeKeys.length];
+            var idx = 0;
+            for (var entry : edgeKeyToNumEdgesMap.entrySet()) {
+                edgeKeys[idx] = entry.getKey();
+                edgeKeysNumEdges[idx++] = entry.getValue();
+            }
+            writer.writeLongs(edgeKeys);
+            writer.writeLongs(edgeKeysNumEdges);
+            serialize(writer, labelAndToTypeToPercentageMap);
+            serialize(writer, fromTypeAndLabelToPercentageMap);
+        }
+    }
+
+    private void serialize(BinaryFileWriter writer, SortedAdjList adjLists) throws IOException {
+        var isCompressed = adjLists instanceof CompressedSortedAdjList;
+        writer.writeBoolean(isCompressed);
+        writer.writeInt(adjLists.getNumLabelsOrTypes());
+        writer.writeLongs(adjLists.getOffsets());
+        if (isCompressed) {
+            var pages = ((CompressedSortedAdjList) adjLists).getPages();
+            writer.writeLong(adjLists.size());
+            writer.writeInt(pages.length);
+            for (var page : pages) {
+                writer.writeBytes(page);
+            }
+        } else {
+            writer.writeInt(adjLists.getNeighbourIdPages().length);
+            for (var neighbourIds : adjLists.getNeighbourIdPages()) {
+                writer.writeInts(neighbourIds);
+            }
+        }
+    }
+
+    private void serialize(BinaryFileWriter writer, Map<Integer, Long> map) throws IOException {
+        var keys = new int[map.size()];
+        var values = new long[keys.length];
+        var idx = 0;
+        for (var entry : map.entrySet()) {
+            keys[idx] = entry.getKey();
+            values[idx++] = entry.getValue();
+        }
+        writer.writeInts(keys);
+        writer.writeLongs(values);
     }
 }
@@ -1,56 +1,130 @@
 package ca.waterloo.dsg.graphflow.storage;
 
-import ca.waterloo.dsg.graphflow.util.IOUtils;
-import org.antlr.v4.runtime.misc.Pair;
-
+import ca.waterloo.dsg.graphflow.storage.EdgesCSVReader.EdgeParser;
+import ca.waterloo.dsg.graphflow.util.BinaryFileReader;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 
 /**
- * Constructs a {@link Graph} object from CSV file and binary serialized data.
- * TODO: optimize the loading by reducing the I/O time.
+ * Constructs a {@link Graph} object from CSV file and binary serialized data. The edges CSV file
+ * is loaded by several threads, each parsing a different chunk of the file.
  */
 public class GraphFactory {
 
+    // Atomic access to the elements of the adjacency list sizes and offsets arrays.
+    private static final VarHandle LONG_ARRAY = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private int numThreads;
+
     /**
-     * Constructs a {@link Graph} object from binary serialized data.
+     * Constructs a {@link GraphFactory} object loading CSV files with one thread per processor.
+     */
+    public GraphFactory() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a {@link GraphFactory} object.
+     *
+     * @param numThreads is the number of threads used to load CSV files.
+     */
+    public GraphFactory(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Constructs a {@link Graph} object from the binary file written by {@link Graph#serialize}.
+     * The arrays are read by memory mapping their region of the file and bulk copying it.
      *
      * @param directory is the directory to deserialize binary data from.
      * @return the constructed {@link Graph} object.
-     * @throws IOException if stream to file cannot be written to or closed.
-     * @throws ClassNotFoundException if the object read is from input stream is not found.
+     * @throws IOException if the file cannot be read or is not in the expected format version.
      */
-    @SuppressWarnings("unchecked") // casting.
-    public Graph make(String directory) throws IOException, ClassNotFoundException {
-        // load the initial fields to construct the graph.
-        var fwdAdjLists = (SortedAdjList[]) IOUtils.deserializeObj(directory + "fwdAdjLists");
-        var bwdAdjLists = (SortedAdjList[]) IOUtils.deserializeObj(directory + "bwdAdjLists");
-        var highestVertexId = (Integer) IOUtils.deserializeObj(directory + "highestVertexId");
-        // create the graph object and setAdjListSortOrder its vertices and basic statistics.
-        var graph = new Graph(fwdAdjLists, bwdAdjLists, highestVertexId);
-        graph.setVertexIds((int[]) IOUtils.deserializeObj(directory + "vertexIds"));
-        graph.setVertexTypes((short[]) IOUtils.deserializeObj(directory + "vertexTypes"));
-        graph.setVertexTypeOffsets((int[]) IOUtils.deserializeObj(directory + "vertexTypeOffsets"));
-        graph.setNumEdges((int) IOUtils.deserializeObj(directory + "numEdges"));
-        graph.setLabelOrToTypeToNumEdges((int[])
-            IOUtils.deserializeObj(directory + "labelOrToTypeToNumEdges"));
-        graph.setLabelOrTypeToLargestFwdAdjListSize((int[])
-            IOUtils.deserializeObj(directory + "labelOrTypeToLargestFwdAdjListSize"));
-        graph.setLabelOrTypeToLargestBwdAdjListSize((int[])
-            IOUtils.deserializeObj(directory + "labelOrTypeToLargestBwdAdjListSize"));
-        graph.setEdgeKeyToNumEdgesMap((Map<Long, Integer>)
-            IOUtils.deserializeObj(directory + "edgeKeyToNumEdgesMap"));
-        graph.setLabelAndToTypeToPercentageMap((Map<Integer, Integer>)
-            IOUtils.deserializeObj(directory + "labelAndToTypeToPercentageMap"));
-        graph.setFromTypeAndLabelToPercentageMap((Map<Integer, Integer>)
-            IOUtils.deserializeObj(directory + "fromTypeAndLabelToPercentageMap"));
-        graph.setAdjListSortedByType((boolean) IOUtils.deserializeObj(
-            directory + "isAdjListSortedByType"));
-        graph.setUndirected((boolean) IOUtils.deserializeObj(directory + "isUndirected"));
-        return graph;
+    public Graph make(String directory) throws IOException {
+        try (var reader = new BinaryFileReader(directory + Graph.BINARY_FILE_NAME)) {
+            if (Graph.BINARY_FORMAT_MAGIC != reader.readInt()) {
+                throw new IOException("The file " + directory + Graph.BINARY_FILE_NAME +
+                    " is not a serialized graph.");
+            }
+            var version = reader.readInt();
+            if (Graph.BINARY_FORMAT_VERSION != version) {
+                throw new IOException("The serialized graph format version " + version + " is " +
+                    "not supported, expected version " + Graph.BINARY_FORMAT_VERSION + ". The " +
+                    "dataset needs to be serialized again.");
+            }
+            // load the initial fields to construct the graph.
+            var highestVertexId = reader.readInt();
+            var numEdges = reader.readLong();
+            var isUndirected = reader.readBoolean();
+            var isAdjListSortedByType = reader.readBoolean();
+            var vertexIds = reader.readInts();
+            var vertexTypes = reader.readShorts();
+            var vertexTypeOffsets = reader.readInts();
+            var fwdAdjLists = makeAdjLists(reader);
+            var bwdAdjLists = makeAdjLists(reader);
+            // create the graph object and set its vertices and basic statistics.
+            var graph = new Graph(fwdAdjLists, bwdAdjLists, highestVertexId);
+            graph.setNumEdges(numEdges);
+            graph.setUndirected(isUndirected);
+            graph.setAdjListSortedByType(isAdjListSortedByType);
+            graph.setVertexIds(vertexIds);
+            graph.setVertexTypes(vertexTypes);
+            graph.setVertexTypeOffsets(vertexTypeOffsets);
+            graph.setLabelOrToTypeToNumEdges(reader.readLongs());
+            graph.setLabelOrTypeToLargestFwdAdjListSize(reader.readInts());
+            graph.setLabelOrTypeToLargestBwdAdjListSize(reader.readInts());
+            var edgeKeys = reader.readLongs();
+            var edgeKeysNumEdges = reader.readLongs();
+            var edgeKeyToNumEdgesMap = new HashMap<Long, Long>();
+            for (var i = 0; i < edgeKeys.length; i++) {
+                edgeKeyToNumEdgesMap.put(edgeKeys[i], edgeKeysNumEdges[i]);
+            }
+            graph.setEdgeKeyToNumEdgesMap(edgeKeyToNumEdgesMap);
+            graph.setLabelAndToTypeToPercentageMap(makeMap(reader));
+            graph.setFromTypeAndLabelToPercentageMap(makeMap(reader));
+            return graph;
+        }
+    }
+
+    private SortedAdjList makeAdjLists(BinaryFileReader reader) throws IOException {
+        var isCompressed = reader.readBoolean();
+        var numLabelsOrTypes = reader.readInt();
+        var offsets = reader.readLongs();
+        if (isCompressed) {
+            var numNeighbourIds = reader.readLong();
+            var pages = new byte[reader.readInt()][];
+            for (var i = 0; i < pages.length; i++) {
+                pages[i] = reader.readBytes();
+            }
+            return new CompressedSortedAdjList(numLabelsOrTypes, offsets, pages, numNeighbourIds);
+        }
+        var neighbourIdPages = new int[reader.readInt()][];
+        for (var i = 0; i < neighbourIdPages.length; i++) {
+            neighbourIdPages[i] = reader.readInts();
+        }
+        return new SortedAdjList(numLabelsOrTypes, offsets, neighbourIdPages);
+    }
+
+    private Map<Integer, Long> makeMap(BinaryFileReader reader) throws IOException {
+        var keys = reader.readInts();
+        var values = reader.readLongs();
+        var map = new HashMap<Integer, Long>();
+        for (var i = 0; i < keys.length; i++) {
+            map.put(keys[i], values[i]);
+        }
+        return map;
     }
 
     /**
@@ -119,7 +193,8 @@ public class GraphFactory {
 
     private void loadEdges(String file, String separator, KeyStore store, Graph graph)
         throws IOException {
-        var highestVertexId = insertLabelsAndGetHighestVertexId(file, separator, store);
+        var reader = new EdgesCSVReader(file, separator, numThreads);
+        var highestVertexId = insertLabelsAndGetHighestVertexId(reader, store);
         var sortByType = store.getNextLabelKey() == 1  /* key 0 only used -> single label.  */
                       && store.getNextTypeKey()   > 1; /* at least 2 vertex key types used. */
         if (-1 == graph.getHighestVertexId()) {
@@ -135,46 +210,88 @@ public class GraphFactory {
             store.insertTypeKeyIfNeeded("0");
         }
 
-        var adjListsMetadata = getAdjListMetadata(file, separator, store, sortByType, graph);
-        var numVertices = highestVertexId + 1;
-        var fwdAdjLists = new SortedAdjList[numVertices];
-        var bwdAdjLists = new SortedAdjList[numVertices];
-        var fwdAdjListCurrIdx = new HashMap<Integer, int[]>(numVertices);
-        var bwdAdjListCurrIdx = new HashMap<Integer, int[]>(numVertices);
-        var offsetSize = sortByType ? store.getNextTypeKey() : store.getNextLabelKey();
-        for (var vertexId = 0; vertexId < numVertices; vertexId++) {
-            fwdAdjLists[vertexId] = new SortedAdjList(adjListsMetadata.a.get(vertexId));
-            fwdAdjListCurrIdx.put(vertexId, new int[offsetSize]);
-            bwdAdjLists[vertexId] = new SortedAdjList(adjListsMetadata.b.get(vertexId));
-            bwdAdjListCurrIdx.put(vertexId, new int[offsetSize]);
+        var numVertices = Math.max(highestVertexId, graph.getHighestVertexId()) + 1;
+        var numLabelsOrTypes = sortByType ? store.getNextTypeKey() : store.getNextLabelKey();
+        if ((long) numVertices * numLabelsOrTypes + 1 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The number of vertices times the number of " +
+                "labels or types exceeds the size of the adjacency lists offsets array.");
         }
+        var vertexTypes = graph.getVertexTypes();
+        var fwdSizes = new long[numVertices * numLabelsOrTypes + 1];
+        var bwdSizes = new long[numVertices * numLabelsOrTypes + 1];
+        // count the adjacency list sizes shifted by one, SortedAdjList turns them into offsets.
+        reader.forEachChunk((chunkIdx, edges) -> {
+            while (edges.next()) {
+                var fromTypeOrLabel = getFromTypeOrLabel(edges, sortByType, vertexTypes, store);
+                var toTypeOrLabel = getToTypeOrLabel(edges, sortByType, vertexTypes, store);
+                LONG_ARRAY.getAndAdd(fwdSizes,
+                    edges.fromVertex * numLabelsOrTypes + toTypeOrLabel + 1, 1L);
+                LONG_ARRAY.getAndAdd(bwdSizes,
+                    edges.toVertex * numLabelsOrTypes + fromTypeOrLabel + 1, 1L);
+            }
+        });
+        var fwdAdjLists = new SortedAdjList(numLabelsOrTypes, fwdSizes);
+        var bwdAdjLists = new SortedAdjList(numLabelsOrTypes, bwdSizes);
+        var fwdCurrOffsets = Arrays.copyOf(fwdAdjLists.getOffsets(), fwdSizes.length);
+        var bwdCurrOffsets = Arrays.copyOf(bwdAdjLists.getOffsets(), bwdSizes.length);
+        // scatter the edges, each thread claiming the next offset of an adjacency list atomically.
+        reader.forEachChunk((chunkIdx, edges) -> {
+            while (edges.next()) {
+                var fromTypeOrLabel = getFromTypeOrLabel(edges, sortByType, vertexTypes, store);
+                var toTypeOrLabel = getToTypeOrLabel(edges, sortByType, vertexTypes, store);
+                fwdAdjLists.setNeighbourId((long) LONG_ARRAY.getAndAdd(fwdCurrOffsets,
+                    edges.fromVertex * numLabelsOrTypes + toTypeOrLabel, 1L), edges.toVertex);
+                bwdAdjLists.setNeighbourId((long) LONG_ARRAY.getAndAdd(bwdCurrOffsets,
+                    edges.toVertex * numLabelsOrTypes + fromTypeOrLabel, 1L), edges.fromVertex);
+            }
+        });
+        sort(fwdAdjLists);
+        sort(bwdAdjLists);
+        graph.setFwdAdjLists(fwdAdjLists);
+        graph.setBwdAdjLists(bwdAdjLists);
+    }
 
-        var reader = new BufferedReader(new FileReader(file));
-        var line = reader.readLine();
-        while (null != line) {
-            var row = line.split(separator);
-            var fromVertex = Integer.parseInt(row[0]);
-            var toVertex = Integer.parseInt(row[1]);
-            var fromTypeOrLabel = sortByType ? graph.getVertexTypes()[fromVertex] :
-                store.getLabelKeyAsShort(row[2]);
-            var toTypeOrLabel = sortByType ? graph.getVertexTypes()[toVertex] :
-                store.getLabelKeyAsShort(row[2]);
-            var idx = fwdAdjListCurrIdx.get(fromVertex)[toTypeOrLabel];
-            var offset = adjListsMetadata.a.get(fromVertex)[toTypeOrLabel];
-            fwdAdjListCurrIdx.get(fromVertex)[toTypeOrLabel] += 1;
-            fwdAdjLists[fromVertex].setNeighbourId(toVertex, idx + offset);
-            idx = bwdAdjListCurrIdx.get(toVertex)[fromTypeOrLabel];
-            offset = adjListsMetadata.b.get(toVertex)[fromTypeOrLabel];
-            bwdAdjListCurrIdx.get(toVertex)[fromTypeOrLabel] += 1;
-            bwdAdjLists[toVertex].setNeighbourId(fromVertex, idx + offset);
-            line = reader.readLine();
+    private short getFromTypeOrLabel(EdgeParser edges, boolean sortByType, short[] vertexTypes,
+        KeyStore store) {
+        if (sortByType) {
+            return vertexTypes[edges.fromVertex];
         }
-        for (var vertexId = 0; vertexId < numVertices; vertexId++) {
-            fwdAdjLists[vertexId].sort();
-            bwdAdjLists[vertexId].sort();
+        return 1 == store.getNextLabelKey() ? 0 : store.getLabelKeyAsShort(edges.getLabel());
+    }
+
+    private short getToTypeOrLabel(EdgeParser edges, boolean sortByType, short[] vertexTypes,
+        KeyStore store) {
+        if (sortByType) {
+            return vertexTypes[edges.toVertex];
+        }
+        return 1 == store.getNextLabelKey() ? 0 : store.getLabelKeyAsShort(edges.getLabel());
+    }
+
+    private void sort(SortedAdjList adjLists) throws IOException {
+        var numSlices = adjLists.getOffsets().length - 1;
+        var numTasks = numThreads * 4;
+        var executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            var tasks = new ArrayList<Callable<Void>>(numTasks);
+            for (var i = 0; i < numTasks; i++) {
+                var fromIdx = (int) ((long) numSlices * i / numTasks);
+                var toIdx = (int) ((long) numSlices * (i + 1) / numTasks);
+                tasks.add(() -> {
+                    adjLists.sort(fromIdx, toIdx);
+                    return null;
+                });
+            }
+            for (var future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sorting the adjacency lists.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not sort the adjacency lists.", e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
-        graph.setFwdAdjLists(fwdAdjLists);
-        graph.setBwdAdjLists(bwdAdjLists);
     }
 
     private int[] insertTypesAndGetOffsets(String file, String separator, KeyStore store)
@@ -203,66 +320,37 @@ public class GraphFactory {
         return offsets;
     }
 
-    private int insertLabelsAndGetHighestVertexId(String csvFile, String separator, KeyStore store)
+    private int insertLabelsAndGetHighestVertexId(EdgesCSVReader reader, KeyStore store)
         throws IOException {
-        var reader = new BufferedReader(new FileReader(csvFile));
-        var line = reader.readLine();
-        var highestVertexId = Integer.MIN_VALUE;
-        while (null != line) {
-            var row = line.split(separator);
-            var fromVertex = Integer.parseInt(row[0]);
-            var toVertex = Integer.parseInt(row[1]);
-            store.insertLabelKeyIfNeeded(row[2]);
-            if (fromVertex > highestVertexId) {
-                highestVertexId = fromVertex;
-            }
-            if (toVertex > highestVertexId) {
-                highestVertexId = toVertex;
-            }
-            line = reader.readLine();
-        }
-        return highestVertexId;
-    }
-
-    private Pair<Map<Integer, int[]>, Map<Integer, int[]>> getAdjListMetadata(String file,
-        String separator, KeyStore store, boolean sortByType, Graph graph) throws IOException {
-        Map<Integer, int[]> fwdAdjListMetadata = new HashMap<>();
-        Map<Integer, int[]> bwdAdjListMetadata = new HashMap<>();
-        var nextLabelOrType = (sortByType ? store.getNextTypeKey() : store.getNextLabelKey());
-        for (int i = 0; i <= graph.getHighestVertexId(); i++) {
-            fwdAdjListMetadata.put(i, new int[nextLabelOrType + 1]);
-            bwdAdjListMetadata.put(i, new int[nextLabelOrType + 1]);
+        var highestVertexIds = new int[reader.getNumChunks()];
+        var labels = new ArrayList<Set<String>>(reader.getNumChunks());
+        for (var i = 0; i < reader.getNumChunks(); i++) {
+            labels.add(new LinkedHashSet<>());
         }
-        var reader = new BufferedReader(new FileReader(file));
-        var line = reader.readLine();
-        while (null != line) {
-            String[] row = line.split(separator);
-            var fromVertex = Integer.parseInt(row[0]);
-            var toVertex = Integer.parseInt(row[1]);
-            if (sortByType) {
-                var fromType = graph.getVertexTypes()[fromVertex];
-                var toType = graph.getVertexTypes()[toVertex];
-                fwdAdjListMetadata.get(fromVertex)[toType + 1] += 1;
-                bwdAdjListMetadata.get(toVertex)[fromType + 1] += 1;
-            } else {
-                var label = store.getLabelKeyAsShort(row[2]);
-                fwdAdjListMetadata.get(fromVertex)[label + 1] += 1;
-                bwdAdjListMetadata.get(toVertex)[label + 1] += 1;
+        reader.forEachChunk((chunkIdx, edges) -> {
+            var highestVertexId = Integer.MIN_VALUE;
+            var chunkLabels = labels.get(chunkIdx);
+            while (edges.next()) {
+                chunkLabels.add(edges.getLabel());
+                if (edges.fromVertex > highestVertexId) {
+                    highestVertexId = edges.fromVertex;
+                }
+                if (edges.toVertex > highestVertexId) {
+                    highestVertexId = edges.toVertex;
+                }
             }
-            line = reader.readLine();
-        }
-        for (var offsets : fwdAdjListMetadata.values()) {
-            for (var i = 1; i < offsets.length - 1; i++) {
-                offsets[nextLabelOrType] += offsets[i];
-                offsets[i] += offsets[i - 1];
+            highestVertexIds[chunkIdx] = highestVertexId;
+        });
+        // labels are inserted in chunk order to get the same keys as a sequential pass would.
+        var highestVertexId = Integer.MIN_VALUE;
+        for (var i = 0; i < reader.getNumChunks(); i++) {
+            for (var label : labels.get(i)) {
+                store.insertLabelKeyIfNeeded(label);
             }
-        }
-        for (var offsets : bwdAdjListMetadata.values()) {
-            for (var i = 1; i < offsets.length - 1; i++) {
-                offsets[nextLabelOrType] += offsets[i];
-                offsets[i] += offsets[i - 1];
+            if (highestVertexIds[i] > highestVertexId) {
+                highestVertexId = highestVertexIds[i];
             }
         }
-        return new Pair<>(fwdAdjListMetadata, bwdAdjListMetadata);
+        return highestVertexId;
     }
 }
@@ -0,0 +1,79 @@
+package ca.waterloo.dsg.graphflow.storage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Intersects two sorted ranges of neighbour IDs of similar sizes. The kernel used by default is
+ * the SIMD kernel, {@code VectorIntersectionKernel}, when it is built (with the gradle 'simd'
+ * property) and the 'jdk.incubator.vector' module is available, and otherwise the scalar
+ * merge.
+ */
+public interface IntersectionKernel {
+
+    String VECTOR_KERNEL_CLASS_NAME = "ca.waterloo.dsg.graphflow.storage.VectorIntersectionKernel";
+
+    /**
+     * Intersects two sorted ranges of IDs without duplicates.
+     *
+     * @param someIds are the IDs of the first range.
+     * @param someIdx is the start index of the first range, inclusive.
+     * @param someEndIdx is the end index of the first range, exclusive.
+     * @param otherIds are the IDs of the second range.
+     * @param otherIdx is the start index of the second range, inclusive.
+     * @param otherEndIdx is the end index of the second range, exclusive.
+     * @param outIds is where the IDs in both ranges are written to, in sorted order.
+     * @param outIdx is the index in outIds to start writing at.
+     * @return the index in outIds after the last ID written.
+     */
+    int intersect(int[] someIds, int someIdx, int someEndIdx, int[] otherIds, int otherIdx,
+        int otherEndIdx, int[] outIds, int outIdx);
+
+    /**
+     * @return the SIMD kernel if it is available, the scalar kernel otherwise.
+     */
+    static IntersectionKernel load() {
+        Logger logger = LogManager.getLogger(IntersectionKernel.class);
+        try {
+            var kernel = (IntersectionKernel) Class.forName(VECTOR_KERNEL_CLASS_NAME)
+                .getConstructor().newInstance();
+            logger.info("Using the SIMD intersection kernel.");
+            return kernel;
+        } catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+            logger.debug("Using the scalar intersection kernel: " + e);
+            return new ScalarIntersectionKernel();
+        }
+    }
+
+    /**
+     * Intersects two sorted ranges of IDs with a merge.
+     */
+    class ScalarIntersectionKernel implements IntersectionKernel {
+
+        /**
+         * @see IntersectionKernel#intersect(int[], int, int, int[], int, int, int[], int)
+         */
+        @Override
+        public int intersect(int[] someIds, int someIdx, int someEndIdx, int[] otherIds,
+            int otherIdx, int otherEndIdx, int[] outIds, int outIdx) {
+            while (otherIdx < otherEndIdx && someIdx < someEndIdx) {
+                if (otherIds[otherIdx] < someIds[someIdx]) {
+                    otherIdx++;
+                    while (otherIdx < otherEndIdx && otherIds[otherIdx] < someIds[someIdx]) {
+                        otherIdx++;
+                    }
+                } else if (otherIds[otherIdx] > someIds[someIdx]) {
+                    someIdx++;
+                    while (someIdx < someEndIdx && otherIds[otherIdx] > someIds[someIdx]) {
+                        someIdx++;
+                    }
+                } else {
+                    outIds[outIdx++] = otherIds[otherIdx];
+                    otherIdx++;
+                    someIdx++;
+                }
+            }
+            return outIdx;
+        }
+    }
+}
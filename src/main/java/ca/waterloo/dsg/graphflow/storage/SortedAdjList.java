@@ -2,122 +2,372 @@ package ca.waterloo.dsg.graphflow.storage;
 
 import ca.waterloo.dsg.graphflow.plan.operator.extend.EI.Neighbours;
 import lombok.Getter;
-import lombok.Setter;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 
 /**
- * Represents the adjacency list of a vertex. Stores the IDs of the vertex's initNeighbours, the
- * types, and the IDs of edges that the vertex has to these initNeighbours in sorted arrays. Arrays
- * are sorted first by neighbour IDs and then by edge {@code short} type values.
+ * Represents the adjacency lists of all vertices in one direction in a compressed sparse row
+ * (CSR) layout. The neighbour IDs of all vertices are grouped by vertex, then by edge label or
+ * neighbour type, and then sorted by neighbour ID. The offsets array is indexed by
+ * {@code vertexId * numLabelsOrTypes + labelOrType} and gives the 64-bit start of the
+ * corresponding slice of neighbour IDs, the next offset being its end.
+ * <p>
+ * Java arrays are indexed by int, so the neighbour IDs are stored in pages of at most
+ * {@code 2^PAGE_BITS} IDs. A slice never straddles two pages: a slice that does not fit in the
+ * remainder of a page starts at the beginning of the next one. The page of a slice is given by
+ * the high bits of its start offset and the index in the page by the low bits, and a slice is
+ * always exposed as an int range of a single page array.
  */
 public class SortedAdjList implements Serializable {
 
-    @Getter private int[] labelOrTypeOffsets;
-    @Getter @Setter private int[] neighbourIds;
+    static final int PAGE_BITS = 30;
+    static final int PAGE_CAPACITY = 1 << PAGE_BITS;
+    static final long PAGE_MASK = PAGE_CAPACITY - 1;
+    // the ratio of the sizes of two sets above which they are intersected by galloping.
+    static final int GALLOPING_SIZE_RATIO = 32;
+    private static final IntersectionKernel INTERSECTION_KERNEL = IntersectionKernel.load();
+
+    @Getter int numLabelsOrTypes;
+    @Getter long[] offsets;
+    @Getter private int[][] neighbourIdPages;
 
     /**
      * Constructs a {@link SortedAdjList} object.
+     *
+     * @param numLabelsOrTypes is the number of edge labels or neighbour types per vertex.
+     * @param offsets are the offsets of each (vertex, label or type) slice of neighbour IDs.
+     * @param neighbourIdPages are the pages of neighbour IDs of all vertices.
      */
-    public SortedAdjList(int[] offsets) {
-        this.labelOrTypeOffsets = offsets;
-        this.neighbourIds = new int[offsets[offsets.length - 1]];
+    public SortedAdjList(int numLabelsOrTypes, long[] offsets, int[][] neighbourIdPages) {
+        this.numLabelsOrTypes = numLabelsOrTypes;
+        this.offsets = offsets;
+        this.neighbourIdPages = neighbourIdPages;
     }
 
     /**
+     * Constructs a {@link SortedAdjList} object with its neighbour IDs not yet set.
      *
+     * @param numLabelsOrTypes is the number of edge labels or neighbour types per vertex.
+     * @param sizes is an array of size {@code numVertices * numLabelsOrTypes + 1} where the size
+     * of each (vertex, label or type) slice is stored at its index plus one. The array is turned
+     * into the offsets of the slices in place.
+     */
+    public SortedAdjList(int numLabelsOrTypes, long[] sizes) {
+        this.numLabelsOrTypes = numLabelsOrTypes;
+        this.offsets = sizes;
+        var pageSizes = setOffsetsAndGetPageSizes(offsets);
+        neighbourIdPages = new int[pageSizes.length][];
+        for (var i = 0; i < neighbourIdPages.length; i++) {
+            neighbourIdPages[i] = new int[pageSizes[i]];
+        }
+    }
+
+    /**
+     * Turns the sizes of the slices into their offsets in pages, such that no slice straddles
+     * two pages.
      *
-     * @param idx is the index of the neighbour id to return.
-     * @return the ...
+     * @param sizes are the sizes of the slices, each stored at the slice's index plus one.
+     * @return the number of values used in each page.
+     */
+    static int[] setOffsetsAndGetPageSizes(long[] sizes) {
+        var pageSizes = new ArrayList<Integer>();
+        var offset = 0L;
+        for (var i = 0; i < sizes.length - 1; i++) {
+            var size = sizes[i + 1];
+            if (size > PAGE_CAPACITY) {
+                throw new IllegalArgumentException("An adjacency list of size " + size +
+                    " is larger than the " + PAGE_CAPACITY + " supported.");
+            }
+            if ((offset & PAGE_MASK) + size > PAGE_CAPACITY) {
+                pageSizes.add((int) (offset & PAGE_MASK));
+                offset = ((offset >>> PAGE_BITS) + 1) << PAGE_BITS;
+            }
+            sizes[i] = offset;
+            offset += size;
+            if (size > 0 && 0 == (offset & PAGE_MASK)) {
+                pageSizes.add(PAGE_CAPACITY);
+            }
+        }
+        sizes[sizes.length - 1] = offset;
+        pageSizes.add((int) (offset & PAGE_MASK));
+        var pageSizesArr = new int[pageSizes.size()];
+        for (var i = 0; i < pageSizesArr.length; i++) {
+            pageSizesArr[i] = pageSizes.get(i);
+        }
+        return pageSizesArr;
+    }
+
+    private int getEndIdx(long startOffset, long endOffset) {
+        // the end offset is the start of the next page when the next slice did not fit in this one.
+        var page = neighbourIdPages[(int) (startOffset >>> PAGE_BITS)];
+        return (int) Math.min(endOffset - (startOffset & ~PAGE_MASK), page.length);
+    }
+
+    /**
+     * @param offset is the offset at which to set the neighbour ID.
+     * @param neighbourId is the neighbour ID to set.
      */
-    public int getNeighbourId(int idx) {
-        return neighbourIds[idx];
+    void setNeighbourId(long offset, int neighbourId) {
+        neighbourIdPages[(int) (offset >>> PAGE_BITS)][(int) (offset & PAGE_MASK)] = neighbourId;
     }
 
     /**
-     * Sets a new neighbour with the given Id at a given index.
+     * Sets the given {@link Neighbours} to the slice of neighbour IDs of a vertex. The
+     * {@link Neighbours} IDs may be set to point to the adjacency list itself and should not be
+     * written to afterwards.
      *
-     * @param neighbourId is the Id of the neighbour.
-     * @param idx is the index of the neighbour in the internal array.
+     * @param vertexId is the ID of the vertex.
+     * @param labelOrType is the edge label or neighbour type.
+     * @param neighbours is the {@link Neighbours} object to set.
      */
-    public void setNeighbourId(int neighbourId, int idx) {
-        neighbourIds[idx] = neighbourId;
+    public void setNeighbourIds(int vertexId, short labelOrType, Neighbours neighbours) {
+        var offsetIdx = vertexId * numLabelsOrTypes + labelOrType;
+        var startOffset = offsets[offsetIdx];
+        neighbours.Ids = neighbourIdPages[(int) (startOffset >>> PAGE_BITS)];
+        neighbours.startIdx = (int) (startOffset & PAGE_MASK);
+        neighbours.endIdx = getEndIdx(startOffset, offsets[offsetIdx + 1]);
     }
 
     /**
-     * @param labelOrType .
-     * @param neighbours .
+     * Sets the given {@link Neighbours} to a range of the slice of neighbour IDs of a vertex.
+     *
+     * @param vertexId is the ID of the vertex.
+     * @param labelOrType is the edge label or neighbour type.
+     * @param fromPosition is the position in the slice of the first neighbour ID, inclusive.
+     * @param toPosition is the position in the slice of the last neighbour ID, exclusive.
+     * @param neighbours is the {@link Neighbours} object to set.
      */
-    public void setNeighbourIds(short labelOrType, Neighbours neighbours) {
-        neighbours.Ids = neighbourIds;
-        neighbours.startIdx = labelOrTypeOffsets[labelOrType];
-        neighbours.endIdx = labelOrTypeOffsets[labelOrType + 1];
+    public void setNeighbourIds(int vertexId, short labelOrType, int fromPosition,
+        int toPosition, Neighbours neighbours) {
+        var startOffset = offsets[vertexId * numLabelsOrTypes + labelOrType];
+        neighbours.Ids = neighbourIdPages[(int) (startOffset >>> PAGE_BITS)];
+        neighbours.startIdx = (int) (startOffset & PAGE_MASK) + fromPosition;
+        neighbours.endIdx = (int) (startOffset & PAGE_MASK) + toPosition;
     }
 
     /**
-     * voila.
+     * Intersects the slice of neighbour IDs of a vertex with some given neighbours. The kernel is
+     * chosen by the ratio of the sizes of the two sets: an {@link IntersectionKernel} merge when
+     * they are of similar sizes, and otherwise a galloping search of the larger set for each ID of
+     * the smaller one. When this adjacency list is the larger set and the other one is very small,
+     * each ID of the other set is instead binary searched in the remainder of the adjacency list.
      *
-     * @param labelOrType
-     * @param someNeighbours
-     * @param neighbours
-     * @return
+     * @param vertexId is the ID of the vertex.
+     * @param labelOrType is the edge label or neighbour type.
+     * @param someNeighbours are the neighbours to intersect with.
+     * @param neighbours is where the intersection result is written to.
+     * @return the i-cost of the intersection, which is the number of neighbour IDs of the
+     * adjacency list accessed: its size for a merge and the number of probes into it otherwise.
      */
-    public int intersect(short labelOrType, Neighbours someNeighbours, Neighbours neighbours) {
-        intersect(someNeighbours, neighbours, neighbourIds,
-            labelOrTypeOffsets[labelOrType], labelOrTypeOffsets[labelOrType + 1]);
-        return labelOrTypeOffsets[labelOrType + 1] - labelOrTypeOffsets[labelOrType];
+    public int intersect(int vertexId, short labelOrType, Neighbours someNeighbours,
+        Neighbours neighbours) {
+        var offsetIdx = vertexId * numLabelsOrTypes + labelOrType;
+        var startOffset = offsets[offsetIdx];
+        var neighbourIds = neighbourIdPages[(int) (startOffset >>> PAGE_BITS)];
+        var startIdx = (int) (startOffset & PAGE_MASK);
+        var endIdx = getEndIdx(startOffset, offsets[offsetIdx + 1]);
+        var size = endIdx - startIdx;
+        var someSize = someNeighbours.endIdx - someNeighbours.startIdx;
+        neighbours.reset();
+        if ((long) someSize * GALLOPING_SIZE_RATIO <= size) {
+            // galloping takes about 2 * log(size / someSize) probes per ID and a binary search
+            // log(size), so the latter is cheaper when someSize is below the square root of size.
+            if ((long) someSize * someSize < size) {
+                return intersectByBinaryProbes(someNeighbours.Ids, someNeighbours.startIdx,
+                    someNeighbours.endIdx, neighbourIds, startIdx, endIdx, neighbours);
+            }
+            return intersectByGalloping(someNeighbours.Ids, someNeighbours.startIdx,
+                someNeighbours.endIdx, neighbourIds, startIdx, endIdx, neighbours);
+        } else if ((long) size * GALLOPING_SIZE_RATIO <= someSize) {
+            intersectByGalloping(neighbourIds, startIdx, endIdx, someNeighbours.Ids,
+                someNeighbours.startIdx, someNeighbours.endIdx, neighbours);
+        } else {
+            neighbours.endIdx = INTERSECTION_KERNEL.intersect(someNeighbours.Ids,
+                someNeighbours.startIdx, someNeighbours.endIdx, neighbourIds, startIdx, endIdx,
+                neighbours.Ids, 0);
+        }
+        return size;
     }
 
-    private void intersect(Neighbours someNeighbours, Neighbours neighbours, int[] neighbourIds,
-        int thisIdx, int thisIdxEnd) {
+    /**
+     * Intersects k sorted sets of IDs at once by leapfrogging: each set in turn is galloped to
+     * the largest ID seen so far, and an ID is written out once all the sets are positioned on it.
+     * No intermediate intersection is materialized. The start index of each set is moved forward.
+     *
+     * @param someNeighbours are the sets of IDs to intersect.
+     * @param neighbours is where the intersection result is written to.
+     * @return the i-cost of the intersection, which is the number of IDs of the sets accessed.
+     */
+    public static long intersect(Neighbours[] someNeighbours, Neighbours neighbours) {
         neighbours.reset();
-        var someNeighbourIds = someNeighbours.Ids;
-        var someIdx = someNeighbours.startIdx;
-        var someEndIdx = someNeighbours.endIdx;
-        while (thisIdx < thisIdxEnd && someIdx < someEndIdx) {
-            if (neighbourIds[thisIdx] < someNeighbourIds[someIdx]) {
-                thisIdx++;
-                while (thisIdx < thisIdxEnd &&
-                        neighbourIds[thisIdx] < someNeighbourIds[someIdx]) {
-                    thisIdx++;
+        var largestId = Integer.MIN_VALUE;
+        for (var someNeighbour : someNeighbours) {
+            if (someNeighbour.startIdx == someNeighbour.endIdx) {
+                return 0;
+            }
+            largestId = Math.max(largestId, someNeighbour.Ids[someNeighbour.startIdx]);
+        }
+        var icost = 0L;
+        var numSetsAtLargestId = 0;
+        for (var i = 0; ; i = i + 1 == someNeighbours.length ? 0 : i + 1) {
+            var someNeighbour = someNeighbours[i];
+            var idx = gallop(someNeighbour.Ids, someNeighbour.startIdx, someNeighbour.endIdx,
+                largestId);
+            icost += 1 + 2 * getNumBinarySearchProbes(idx - someNeighbour.startIdx);
+            if (idx == someNeighbour.endIdx) {
+                return icost;
+            }
+            if (someNeighbour.Ids[idx] != largestId) {
+                largestId = someNeighbour.Ids[idx];
+                numSetsAtLargestId = 1;
+            } else if (++numSetsAtLargestId == someNeighbours.length) {
+                neighbours.Ids[neighbours.endIdx++] = largestId;
+                if (++idx == someNeighbour.endIdx) {
+                    return icost;
                 }
-            } else if (neighbourIds[thisIdx] > someNeighbourIds[someIdx]) {
-                someIdx++;
-                while (someIdx < someEndIdx &&
-                        neighbourIds[thisIdx] > someNeighbourIds[someIdx]) {
-                    someIdx++;
+                largestId = someNeighbour.Ids[idx];
+                numSetsAtLargestId = 1;
+            }
+            someNeighbour.startIdx = idx;
+        }
+    }
+
+    /**
+     * Intersects a small sorted set of IDs with a large one by galloping: the large set is
+     * searched for each ID of the small set with exponentially growing steps from the last
+     * position found, and the last step is then binary searched.
+     *
+     * @return the number of IDs of the large set accessed.
+     */
+    static int intersectByGalloping(int[] smallIds, int smallIdx, int smallEndIdx, int[] largeIds,
+        int largeIdx, int largeEndIdx, Neighbours neighbours) {
+        var numProbes = 0;
+        for (; smallIdx < smallEndIdx && largeIdx < largeEndIdx; smallIdx++) {
+            var id = smallIds[smallIdx];
+            numProbes++;
+            if (largeIds[largeIdx] < id) {
+                var step = 1;
+                while (largeIdx + step < largeEndIdx && largeIds[largeIdx + step] < id) {
+                    numProbes++;
+                    step <<= 1;
                 }
+                // the ID is in the range (largeIdx + step / 2, largeIdx + step].
+                var fromIdx = largeIdx + (step >> 1) + 1;
+                var toIdx = Math.min(largeIdx + step, largeEndIdx);
+                numProbes += (toIdx < largeEndIdx ? 1 : 0) + getNumBinarySearchProbes(
+                    toIdx - fromIdx);
+                largeIdx = lowerBound(largeIds, fromIdx, toIdx, id);
+            }
+            if (largeIdx < largeEndIdx && largeIds[largeIdx] == id) {
+                neighbours.Ids[neighbours.endIdx++] = id;
+                largeIdx++;
+            }
+        }
+        return numProbes;
+    }
+
+    /**
+     * Intersects a small sorted set of IDs with a large one by binary searching the remainder of
+     * the large set for each ID of the small set.
+     *
+     * @return the number of IDs of the large set accessed.
+     */
+    static int intersectByBinaryProbes(int[] smallIds, int smallIdx, int smallEndIdx,
+        int[] largeIds, int largeIdx, int largeEndIdx, Neighbours neighbours) {
+        var numProbes = 0;
+        for (; smallIdx < smallEndIdx && largeIdx < largeEndIdx; smallIdx++) {
+            var id = smallIds[smallIdx];
+            numProbes += getNumBinarySearchProbes(largeEndIdx - largeIdx);
+            largeIdx = lowerBound(largeIds, largeIdx, largeEndIdx, id);
+            if (largeIdx < largeEndIdx && largeIds[largeIdx] == id) {
+                neighbours.Ids[neighbours.endIdx++] = id;
+                largeIdx++;
+            }
+        }
+        return numProbes;
+    }
+
+    /**
+     * @return the index of the first ID from the given index on not less than the given ID, found
+     * by galloping, or endIdx if there is none.
+     */
+    static int gallop(int[] ids, int idx, int endIdx, int id) {
+        if (idx == endIdx || ids[idx] >= id) {
+            return idx;
+        }
+        var step = 1;
+        while (idx + step < endIdx && ids[idx + step] < id) {
+            step <<= 1;
+        }
+        return lowerBound(ids, idx + (step >> 1) + 1, Math.min(idx + step, endIdx), id);
+    }
+
+    /**
+     * @return the index of the first ID in the range [fromIdx, toIdx) not less than the given ID,
+     * or toIdx if there is none.
+     */
+    static int lowerBound(int[] ids, int fromIdx, int toIdx, int id) {
+        while (fromIdx < toIdx) {
+            var midIdx = (fromIdx + toIdx) >>> 1;
+            if (ids[midIdx] < id) {
+                fromIdx = midIdx + 1;
             } else {
-                neighbours.Ids[neighbours.endIdx] = neighbourIds[thisIdx];
-                neighbours.endIdx++;
-                thisIdx++;
-                someIdx++;
+                toIdx = midIdx;
             }
         }
+        return fromIdx;
+    }
+
+    private static int getNumBinarySearchProbes(int size) {
+        return Integer.SIZE - Integer.numberOfLeadingZeros(size);
     }
 
     /**
-     * Sorts each list of neighbour Ids of a particular label.
+     * Sorts each slice of neighbour IDs of a particular vertex and label or type.
      */
     public void sort() {
-        for (int i = 0; i < labelOrTypeOffsets.length - 1; i++) {
-            Arrays.sort(neighbourIds, labelOrTypeOffsets[i], labelOrTypeOffsets[i + 1]);
+        sort(0, offsets.length - 1);
+    }
+
+    /**
+     * Sorts the slices of neighbour IDs in the given range. Different ranges can be sorted
+     * concurrently.
+     *
+     * @param fromIdx is the index of the first slice to sort, inclusive.
+     * @param toIdx is the index of the last slice to sort, exclusive.
+     */
+    void sort(int fromIdx, int toIdx) {
+        for (var i = fromIdx; i < toIdx; i++) {
+            var startOffset = offsets[i];
+            var startIdx = (int) (startOffset & PAGE_MASK);
+            var endIdx = getEndIdx(startOffset, offsets[i + 1]);
+            if (endIdx - startIdx > 1) {
+                Arrays.sort(neighbourIdPages[(int) (startOffset >>> PAGE_BITS)], startIdx, endIdx);
+            }
         }
     }
 
     /**
-     * @return the size of the adjacency list.
+     * @return the number of neighbour IDs stored for all vertices.
      */
-    public int size() {
-        return neighbourIds.length;
+    public long size() {
+        var size = 0L;
+        for (var page : neighbourIdPages) {
+            size += page.length;
+        }
+        return size;
     }
 
     /**
-     * @param labelOrType is the edge label or toVertex type.
-     * @return the size of the adjacency list.
+     * @param vertexId is the ID of the vertex.
+     * @param labelOrType is the edge label or neighbour type.
+     * @return the size of the adjacency list of the vertex for the label or type.
      */
-    public int size(short labelOrType) {
-        return labelOrTypeOffsets[labelOrType + 1] + labelOrTypeOffsets[labelOrType];
+    public int size(int vertexId, short labelOrType) {
+        var offsetIdx = vertexId * numLabelsOrTypes + labelOrType;
+        var startOffset = offsets[offsetIdx];
+        return getEndIdx(startOffset, offsets[offsetIdx + 1]) - (int) (startOffset & PAGE_MASK);
     }
 }
@@ -0,0 +1,161 @@
+package ca.waterloo.dsg.graphflow.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads scalars and primitive arrays written by a {@link BinaryFileWriter}. The file is memory
+ * mapped with {@link FileChannel#map} in windows of up to {@link #MAX_WINDOW_SIZE} bytes,
+ * a new window being mapped from the current position only once a value does not fit in the
+ * current one. Scalars are read from the window and arrays are bulk copied from it, which avoids
+ * any per-element decoding.
+ */
+public class BinaryFileReader implements AutoCloseable {
+
+    // A single mapping is limited to Integer.MAX_VALUE bytes.
+    static final long MAX_WINDOW_SIZE = 1L << 30;
+
+    private final long maxWindowSize;
+    private FileChannel channel;
+    private long fileSize;
+    private long position = 0;
+    private ByteBuffer window;
+    private long windowStart = 0;
+
+    /**
+     * Constructs a {@link BinaryFileReader} object.
+     *
+     * @param file is the path to the file to read.
+     * @throws IOException if the file cannot be opened for reading.
+     */
+    public BinaryFileReader(String file) throws IOException {
+        this(file, MAX_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructs a {@link BinaryFileReader} object mapping windows of the given size.
+     *
+     * @param file is the path to the file to read.
+     * @param maxWindowSize is the maximum size in bytes of a mapped window of the file, at least
+     * {@link Long#BYTES}.
+     * @throws IOException if the file cannot be opened for reading.
+     */
+    BinaryFileReader(String file, long maxWindowSize) throws IOException {
+        this.maxWindowSize = maxWindowSize;
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        fileSize = channel.size();
+    }
+
+    public int readInt() throws IOException {
+        var index = advance(Integer.BYTES);
+        return window.getInt(index);
+    }
+
+    public long readLong() throws IOException {
+        var index = advance(Long.BYTES);
+        return window.getLong(index);
+    }
+
+    public boolean readBoolean() throws IOException {
+        var index = advance(Byte.BYTES);
+        return window.get(index) != 0;
+    }
+
+    public byte[] readBytes() throws IOException {
+        var values = new byte[getArrayLength()];
+        var offset = 0;
+        while (offset < values.length) {
+            var numValues = getNumValuesToMap(values.length - offset, Byte.BYTES);
+            var index = advance(numValues);
+            window.position(index);
+            window.get(values, offset, numValues);
+            offset += numValues;
+        }
+        return values;
+    }
+
+    public short[] readShorts() throws IOException {
+        var values = new short[getArrayLength()];
+        var offset = 0;
+        while (offset < values.length) {
+            var numValues = getNumValuesToMap(values.length - offset, Short.BYTES);
+            var index = advance((long) numValues * Short.BYTES);
+            window.position(index);
+            window.asShortBuffer().get(values, offset, numValues);
+            offset += numValues;
+        }
+        return values;
+    }
+
+    public int[] readInts() throws IOException {
+        var values = new int[getArrayLength()];
+        var offset = 0;
+        while (offset < values.length) {
+            var numValues = getNumValuesToMap(values.length - offset, Integer.BYTES);
+            var index = advance((long) numValues * Integer.BYTES);
+            window.position(index);
+            window.asIntBuffer().get(values, offset, numValues);
+            offset += numValues;
+        }
+        return values;
+    }
+
+    public long[] readLongs() throws IOException {
+        var values = new long[getArrayLength()];
+        var offset = 0;
+        while (offset < values.length) {
+            var numValues = getNumValuesToMap(values.length - offset, Long.BYTES);
+            var index = advance((long) numValues * Long.BYTES);
+            window.position(index);
+            window.asLongBuffer().get(values, offset, numValues);
+            offset += numValues;
+        }
+        return values;
+    }
+
+    private int getArrayLength() throws IOException {
+        var length = readLong();
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid array length " + length + " at position " +
+                (position - Long.BYTES) + ".");
+        }
+        return (int) length;
+    }
+
+    private int getNumValuesToMap(int numValuesLeft, int valueSize) {
+        return (int) Math.min(numValuesLeft, maxWindowSize / valueSize);
+    }
+
+    /**
+     * Moves the position past the given number of bytes, mapping a new window of the file from
+     * the current position if the bytes are not all in the current one.
+     *
+     * @param size is the number of bytes to read, at most the maximum window size.
+     * @return the index in the window of the first byte to read.
+     * @throws IOException if the file ends before the given number of bytes.
+     */
+    private int advance(long size) throws IOException {
+        if (position + size > fileSize) {
+            throw new IOException("Unexpected end of file at position " + position + ".");
+        }
+        if (null == window || position + size > windowStart + window.capacity()) {
+            var windowSize = Math.min(maxWindowSize, fileSize - position);
+            window = channel.map(MapMode.READ_ONLY, position, windowSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            windowStart = position;
+        }
+        var index = (int) (position - windowStart);
+        position += size;
+        return index;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
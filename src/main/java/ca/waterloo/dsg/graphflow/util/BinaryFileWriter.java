@@ -0,0 +1,127 @@
+package ca.waterloo.dsg.graphflow.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes scalars and primitive arrays as fixed-width little-endian values to a binary file. Each
+ * array is prefixed by its {@code long} length so it can be read back with a
+ * {@link BinaryFileReader}.
+ */
+public class BinaryFileWriter implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private FileChannel channel;
+    private ByteBuffer buffer;
+
+    /**
+     * Constructs a {@link BinaryFileWriter} object.
+     *
+     * @param file is the path to the file to write, truncated if it already exists.
+     * @throws IOException if the file cannot be opened for writing.
+     */
+    public BinaryFileWriter(String file) throws IOException {
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public void writeInt(int value) throws IOException {
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        ensureRemaining(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        ensureRemaining(Byte.BYTES);
+        buffer.put((byte) (value ? 1 : 0));
+    }
+
+    public void writeBytes(byte[] values) throws IOException {
+        writeLong(values.length);
+        var offset = 0;
+        while (offset < values.length) {
+            ensureRemaining(Byte.BYTES);
+            var numValues = Math.min(buffer.remaining(), values.length - offset);
+            buffer.put(values, offset, numValues);
+            offset += numValues;
+        }
+    }
+
+    public void writeShorts(short[] values) throws IOException {
+        writeLong(values.length);
+        for (var value : values) {
+            ensureRemaining(Short.BYTES);
+            buffer.putShort(value);
+        }
+    }
+
+    public void writeInts(int[] values) throws IOException {
+        writeInts(values, values.length);
+    }
+
+    /**
+     * Writes the first {@code length} values of the given array.
+     *
+     * @param values is the array of values to write.
+     * @param length is the number of values to write.
+     * @throws IOException if the file cannot be written to.
+     */
+    public void writeInts(int[] values, int length) throws IOException {
+        writeLong(length);
+        var offset = 0;
+        while (offset < length) {
+            ensureRemaining(Integer.BYTES);
+            var numValues = Math.min(buffer.remaining() / Integer.BYTES, length - offset);
+            buffer.asIntBuffer().put(values, offset, numValues);
+            buffer.position(buffer.position() + numValues * Integer.BYTES);
+            offset += numValues;
+        }
+    }
+
+    public void writeLongs(long[] values) throws IOException {
+        writeLong(values.length);
+        var offset = 0;
+        while (offset < values.length) {
+            ensureRemaining(Long.BYTES);
+            var numValues = Math.min(buffer.remaining() / Long.BYTES, values.length - offset);
+            buffer.asLongBuffer().put(values, offset, numValues);
+            buffer.position(buffer.position() + numValues * Long.BYTES);
+            offset += numValues;
+        }
+    }
+
+    private void ensureRemaining(int numBytes) throws IOException {
+        if (buffer.remaining() < numBytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Flushes the buffered values and closes the file.
+     *
+     * @throws IOException if the file cannot be written to or closed.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
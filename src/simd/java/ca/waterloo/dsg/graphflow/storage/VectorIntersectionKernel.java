@@ -0,0 +1,92 @@
+package ca.waterloo.dsg.graphflow.storage;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Intersects two sorted ranges of IDs with SIMD instructions using the Vector API. A block of IDs
+ * of each range, as wide as the vector, is compared all against all by comparing one block with
+ * every rotation of the other. The matching IDs are written out, and the block with the smaller
+ * last ID, or both if they are equal, is then replaced by the next one of its range. The IDs left
+ * when a range has less than a block remaining are intersected by the scalar kernel.
+ * <p>
+ * The kernel is built from the 'simd' source set, which requires JDK 16+, and needs the
+ * 'jdk.incubator.vector' module to be added at runtime.
+ */
+public class VectorIntersectionKernel implements IntersectionKernel {
+
+    private final VectorSpecies<Integer> species;
+    private final VectorShuffle<Integer>[] rotations;
+    private final IntersectionKernel scalarKernel = new ScalarIntersectionKernel();
+
+    /**
+     * Constructs a {@link VectorIntersectionKernel} object with the preferred vector width of the
+     * platform.
+     *
+     * @throws UnsupportedOperationException if the platform has less than 4 integer lanes.
+     */
+    public VectorIntersectionKernel() {
+        this(IntVector.SPECIES_PREFERRED.length());
+    }
+
+    /**
+     * Constructs a {@link VectorIntersectionKernel} object.
+     *
+     * @param numLanes is the number of integer lanes of the vectors: 4, 8 or 16.
+     * @throws UnsupportedOperationException if the number of lanes is not supported.
+     */
+    @SuppressWarnings("unchecked")
+    public VectorIntersectionKernel(int numLanes) {
+        switch (numLanes) {
+            case 4:
+                species = IntVector.SPECIES_128;
+                break;
+            case 8:
+                species = IntVector.SPECIES_256;
+                break;
+            case 16:
+                species = IntVector.SPECIES_512;
+                break;
+            default:
+                throw new UnsupportedOperationException("Vectors of " + numLanes +
+                    " integer lanes are not supported.");
+        }
+        rotations = new VectorShuffle[numLanes];
+        for (var i = 0; i < numLanes; i++) {
+            rotations[i] = VectorShuffle.iota(species, i, 1, true /* wrap around */);
+        }
+    }
+
+    /**
+     * @see IntersectionKernel#intersect(int[], int, int, int[], int, int, int[], int)
+     */
+    @Override
+    public int intersect(int[] someIds, int someIdx, int someEndIdx, int[] otherIds, int otherIdx,
+        int otherEndIdx, int[] outIds, int outIdx) {
+        var numLanes = species.length();
+        while (someIdx + numLanes <= someEndIdx && otherIdx + numLanes <= otherEndIdx) {
+            var someBlock = IntVector.fromArray(species, someIds, someIdx);
+            var otherBlock = IntVector.fromArray(species, otherIds, otherIdx);
+            var matches = someBlock.eq(otherBlock);
+            for (var i = 1; i < numLanes; i++) {
+                matches = matches.or(someBlock.eq(otherBlock.rearrange(rotations[i])));
+            }
+            var matchedLanes = matches.toLong();
+            while (0 != matchedLanes) {
+                outIds[outIdx++] = someIds[someIdx + Long.numberOfTrailingZeros(matchedLanes)];
+                matchedLanes &= matchedLanes - 1;
+            }
+            var someLast = someIds[someIdx + numLanes - 1];
+            var otherLast = otherIds[otherIdx + numLanes - 1];
+            if (someLast <= otherLast) {
+                someIdx += numLanes;
+            }
+            if (otherLast <= someLast) {
+                otherIdx += numLanes;
+            }
+        }
+        return scalarKernel.intersect(someIds, someIdx, someEndIdx, otherIds, otherIdx,
+            otherEndIdx, outIds, outIdx);
+    }
+}
@@ -0,0 +1,147 @@
+package ca.waterloo.dsg.graphflow.plan;
+
+import ca.waterloo.dsg.graphflow.plan.operator.Operator;
+import ca.waterloo.dsg.graphflow.plan.operator.Operator.LimitExceededException;
+import ca.waterloo.dsg.graphflow.query.QueryGraph;
+import ca.waterloo.dsg.graphflow.storage.Graph;
+import ca.waterloo.dsg.graphflow.storage.KeyStore;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests that a query plan executed by multiple threads fails if one of its operators throws,
+ * rather than returning a partial output, and that the other threads are stopped first.
+ */
+public class WorkersTest {
+
+    private static final int NUM_THREADS = 2;
+
+    @Test
+    public void testFailingOperator() {
+        testFailingOperator(false /* no work stealing */);
+    }
+
+    @Test
+    public void testFailingOperatorWithWorkStealing() {
+        testFailingOperator(true /* work stealing */);
+    }
+
+    private static void testFailingOperator(boolean isWorkStealing) {
+        var pool = new WorkerPool(NUM_THREADS, NUM_THREADS);
+        var workers = new Workers(new Plan(new FailingOperator()), NUM_THREADS, pool,
+            isWorkStealing);
+        workers.init(null /* graph */, null /* store */);
+        assertThatThrownBy(workers::execute)
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("A worker failed executing the plan.")
+            .hasCauseInstanceOf(UnsupportedOperationException.class);
+        pool.shutdown();
+    }
+
+    @Test
+    public void testFailingOperatorStopsOtherThreads() {
+        var pool = new WorkerPool(NUM_THREADS, NUM_THREADS);
+        var state = new SharedState();
+        var workers = new Workers(new Plan(new FailingOnceOperator(state)), NUM_THREADS, pool,
+            false /* no work stealing */);
+        workers.init(null /* graph */, null /* store */);
+        assertThatThrownBy(workers::execute)
+            .isInstanceOf(IllegalStateException.class)
+            .hasCauseInstanceOf(UnsupportedOperationException.class);
+        // the other threads are cancelled and done before the query fails.
+        assertThat(state.numThreadsCancelled.get()).isEqualTo(NUM_THREADS - 1);
+        pool.shutdown();
+    }
+
+    /**
+     * An operator throwing once executed.
+     */
+    private static class FailingOperator extends Operator {
+
+        FailingOperator() {
+            super(new QueryGraph(), null /* no input subgraph */);
+        }
+
+        @Override
+        public void init(int[] probeTuple, Graph graph, KeyStore store) {}
+
+        @Override
+        public void processNewTuple() {}
+
+        @Override
+        public void execute() {
+            throw new UnsupportedOperationException("The operator failed.");
+        }
+
+        @Override
+        public FailingOperator copy(boolean isThreadSafe) {
+            return new FailingOperator();
+        }
+    }
+
+    /**
+     * The state shared by the copies of a {@link FailingOnceOperator}.
+     */
+    private static class SharedState {
+        AtomicInteger numThreadsExecuting = new AtomicInteger();
+        CountDownLatch otherThreadsStarted = new CountDownLatch(NUM_THREADS - 1);
+        AtomicInteger numThreadsCancelled = new AtomicInteger();
+    }
+
+    /**
+     * An operator throwing in the first thread executing it once the other threads execute it
+     * too, the other threads executing it until the plan is cancelled.
+     */
+    private static class FailingOnceOperator extends Operator {
+
+        private static final long MAX_EXECUTION_TIME_IN_MS = 5000;
+
+        private SharedState state;
+
+        FailingOnceOperator(SharedState state) {
+            super(new QueryGraph(), null /* no input subgraph */);
+            this.state = state;
+        }
+
+        @Override
+        public void init(int[] probeTuple, Graph graph, KeyStore store) {}
+
+        @Override
+        public void processNewTuple() {}
+
+        @Override
+        public void execute() throws LimitExceededException {
+            if (0 == state.numThreadsExecuting.getAndIncrement()) {
+                try {
+                    state.otherThreadsStarted.await(MAX_EXECUTION_TIME_IN_MS,
+                        TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new UnsupportedOperationException("The operator failed.");
+            }
+            state.otherThreadsStarted.countDown();
+            var endTime = System.currentTimeMillis() + MAX_EXECUTION_TIME_IN_MS;
+            while (System.currentTimeMillis() < endTime) {
+                try {
+                    checkCancelled();
+                } catch (LimitExceededException e) {
+                    state.numThreadsCancelled.incrementAndGet();
+                    throw e;
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        @Override
+        public FailingOnceOperator copy(boolean isThreadSafe) {
+            return new FailingOnceOperator(state);
+        }
+    }
+}
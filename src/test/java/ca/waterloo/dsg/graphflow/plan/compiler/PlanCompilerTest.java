@@ -0,0 +1,161 @@
+package ca.waterloo.dsg.graphflow.plan.compiler;
+
+import ca.waterloo.dsg.graphflow.plan.Plan;
+import ca.waterloo.dsg.graphflow.plan.operator.hashjoin.HashJoin;
+import ca.waterloo.dsg.graphflow.planner.QueryPlanner;
+import ca.waterloo.dsg.graphflow.planner.catalog.Catalog;
+import ca.waterloo.dsg.graphflow.planner.catalog.CatalogPlans;
+import ca.waterloo.dsg.graphflow.query.parser.QueryParser;
+import ca.waterloo.dsg.graphflow.storage.Graph;
+import ca.waterloo.dsg.graphflow.storage.GraphFactory;
+import ca.waterloo.dsg.graphflow.storage.KeyStore;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that the plans compiled by the {@link PlanCompiler} count as many output tuples as the
+ * interpreted plans, on small random graphs with edge labels and with vertex types, and that the
+ * plans it does not support are rejected.
+ */
+public class PlanCompilerTest {
+
+    private static final int NUM_VERTICES = 60;
+    private static final int NUM_EDGES = 600;
+
+    private static File directory;
+    private static Dataset labelledDataset;
+    private static Dataset typedDataset;
+
+    /**
+     * A data graph, its key store and its catalog.
+     */
+    private static class Dataset {
+        Graph graph;
+        KeyStore store = new KeyStore();
+        Catalog catalog;
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException, InterruptedException {
+        directory = File.createTempFile("plan_compiler_test", "");
+        directory.delete();
+        directory.mkdir();
+        var random = new Random(0);
+        var labelledEdgesFile = writeEdges(random, "labelled_edges.csv", new String[] {"x", "y"});
+        var edgesFile = writeEdges(random, "edges.csv", new String[] {"0"});
+        var verticesFile = new File(directory, "vertices.csv");
+        try (var writer = new PrintWriter(verticesFile)) {
+            for (var vertexId = 0; vertexId < NUM_VERTICES; vertexId++) {
+                writer.println(vertexId + "," + (random.nextBoolean() ? "p" : "q"));
+            }
+        }
+        labelledDataset = new Dataset();
+        labelledDataset.graph = new GraphFactory(1).make(labelledEdgesFile, ",",
+            labelledDataset.store);
+        populateCatalog(labelledDataset);
+        typedDataset = new Dataset();
+        typedDataset.graph = new GraphFactory(1).make(verticesFile.getAbsolutePath(), ",",
+            edgesFile, ",", typedDataset.store);
+        populateCatalog(typedDataset);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        for (var file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testTriangle() {
+        testCompiledPlan(labelledDataset, "(a)->(b),(b)->(c),(a)->(c)");
+        testCompiledPlan(typedDataset, "(a)->(b),(b)->(c),(a)->(c)");
+    }
+
+    @Test
+    public void testLabelledTriangle() {
+        testCompiledPlan(labelledDataset, "(a)-[x]->(b),(b)->(c),(a)->(c)");
+        testCompiledPlan(labelledDataset, "(a)-[y]->(b),(b)->(c),(a)->(c)");
+    }
+
+    @Test
+    public void testTypedTriangle() {
+        testCompiledPlan(typedDataset, "(a:p)->(b:q),(b)->(c:p),(a)->(c)");
+    }
+
+    @Test
+    public void testFourClique() {
+        // the intersections to extend to c and d are hoisted out of the loops of the vertices
+        // they do not depend on.
+        testCompiledPlan(labelledDataset, "(a)->(b),(a)->(c),(a)->(d),(b)->(c),(b)->(d),(c)->(d)");
+        testCompiledPlan(typedDataset, "(a:q)->(b),(a)->(c:p),(a)->(d),(b)->(c),(b)->(d)," +
+            "(c)->(d:q)");
+    }
+
+    @Test
+    public void testHashJoinPlanIsRejected() {
+        var dataset = labelledDataset;
+        var buildPlan = plan(dataset, "(a)->(b),(b)->(c)");
+        var probePlan = plan(dataset, "(c)->(d),(d)->(e)");
+        var queryGraph = QueryParser.parse("(a)->(b),(b)->(c),(c)->(d),(d)->(e)", dataset.store);
+        var hashJoinPlan = HashJoin.make(queryGraph, buildPlan, probePlan, 0 /* ID */,
+            1 /* numThreads */);
+        assertThat(hashJoinPlan.getSubplans()).hasSize(2);
+        assertThat(new PlanCompiler(dataset.graph).compile(hashJoinPlan)).isNull();
+    }
+
+    private static void testCompiledPlan(Dataset dataset, String query) {
+        var plan = plan(dataset, query);
+        var compiledPlan = new PlanCompiler(dataset.graph).compile(plan);
+        assertThat(compiledPlan).isNotNull();
+        plan.init(dataset.graph, dataset.store);
+        plan.execute();
+        assertThat(plan.getNumOutTuples()).isGreaterThan(0);
+        for (var numThreads : new int[] {1, 3}) {
+            try {
+                compiledPlan.execute(dataset.graph, numThreads);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            assertThat(compiledPlan.getNumOutTuples()).isEqualTo(plan.getNumOutTuples());
+        }
+    }
+
+    private static Plan plan(Dataset dataset, String query) {
+        var queryGraph = QueryParser.parse(query, dataset.store);
+        return new QueryPlanner(queryGraph, dataset.catalog, dataset.graph).plan();
+    }
+
+    private static String writeEdges(Random random, String fileName, String[] labels)
+        throws IOException {
+        var file = new File(directory, fileName);
+        try (var writer = new PrintWriter(file)) {
+            for (var i = 0; i < NUM_EDGES; i++) {
+                var fromVertexId = random.nextInt(NUM_VERTICES);
+                var toVertexId = random.nextInt(NUM_VERTICES);
+                if (fromVertexId != toVertexId) {
+                    writer.println(fromVertexId + "," + toVertexId + "," +
+                        labels[random.nextInt(labels.length)]);
+                }
+            }
+        }
+        return file.getAbsolutePath();
+    }
+
+    private static void populateCatalog(Dataset dataset) throws IOException,
+        InterruptedException {
+        dataset.catalog = new Catalog(CatalogPlans.DEF_NUM_EDGES_TO_SAMPLE,
+            CatalogPlans.DEF_MAX_INPUT_NUM_VERTICES);
+        dataset.catalog.populate(dataset.graph, dataset.store, 1 /* numThreads */,
+            new File(directory, "catalog.txt").getAbsolutePath());
+    }
+}
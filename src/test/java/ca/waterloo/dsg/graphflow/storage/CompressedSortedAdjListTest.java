@@ -0,0 +1,178 @@
+package ca.waterloo.dsg.graphflow.storage;
+
+import ca.waterloo.dsg.graphflow.plan.operator.extend.EI.Neighbours;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that a {@link CompressedSortedAdjList} decodes and intersects its slices of neighbour IDs
+ * as the {@link SortedAdjList} it is compressed from.
+ */
+public class CompressedSortedAdjListTest {
+
+    private static final int NUM_TRIALS = 200;
+    private static final int NUM_VERTICES = 50;
+    private static final short NUM_LABELS = 2;
+
+    @Test
+    public void testRoundTrip() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            var slices = makeSlices(random);
+            var adjList = makeAdjList(slices);
+            var compressedAdjList = CompressedSortedAdjList.make(adjList);
+            assertThat(compressedAdjList.size()).isEqualTo(adjList.size());
+            for (var vertexId = 0; vertexId < NUM_VERTICES; vertexId++) {
+                for (short label = 0; label < NUM_LABELS; label++) {
+                    var ids = slices[vertexId * NUM_LABELS + label];
+                    assertThat(compressedAdjList.size(vertexId, label)).isEqualTo(ids.length);
+                    assertThat(decode(compressedAdjList, vertexId, label)).isEqualTo(ids);
+                    var fromPosition = random.nextInt(ids.length + 1);
+                    var toPosition = fromPosition + random.nextInt(ids.length - fromPosition + 1);
+                    assertThat(decode(compressedAdjList, vertexId, label, fromPosition,
+                        toPosition)).isEqualTo(Arrays.copyOfRange(ids, fromPosition, toPosition));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTripOfLargeIds() {
+        var ids = new int[] {0, 127, 128, 16383, 16384, 2097151, 2097152, 268435455, 268435456,
+            Integer.MAX_VALUE - 1, Integer.MAX_VALUE};
+        var slices = new int[][] {ids, {}, {Integer.MAX_VALUE}, {0}};
+        var compressedAdjList = CompressedSortedAdjList.make(makeAdjList(slices, 1));
+        for (var vertexId = 0; vertexId < slices.length; vertexId++) {
+            assertThat(decode(compressedAdjList, vertexId, (short) 0)).isEqualTo(slices[vertexId]);
+        }
+    }
+
+    @Test
+    public void testRoundTripOfSliceMovedToNextPage() {
+        // a slice that would cross a page boundary is moved to the start of the next page.
+        var sizes = new long[] {0, SortedAdjList.PAGE_CAPACITY - 2, 5, 3};
+        var pageSizes = SortedAdjList.setOffsetsAndGetPageSizes(sizes);
+        assertThat(pageSizes).containsExactly(SortedAdjList.PAGE_CAPACITY - 2, 8);
+        assertThat(sizes).containsExactly(0, 1L << SortedAdjList.PAGE_BITS,
+            (1L << SortedAdjList.PAGE_BITS) + 5, (1L << SortedAdjList.PAGE_BITS) + 8);
+        // encodes a first slice at the end of the first page and the second at the start of the
+        // next one, with the pages kept small for the test.
+        var random = new Random(0);
+        var firstIds = makeSortedIds(random, 150, 1 << 20);
+        var secondIds = makeSortedIds(random, 300, Integer.MAX_VALUE);
+        var firstSize = (int) CompressedSortedAdjList.encode(toNeighbours(firstIds), null, 0);
+        var secondSize = (int) CompressedSortedAdjList.encode(toNeighbours(secondIds), null, 0);
+        var pages = new byte[][] {new byte[firstSize + 1], new byte[secondSize]};
+        CompressedSortedAdjList.encode(toNeighbours(firstIds), pages[0], 1);
+        CompressedSortedAdjList.encode(toNeighbours(secondIds), pages[1], 0);
+        var offsets = new long[] {1, 1L << SortedAdjList.PAGE_BITS,
+            (1L << SortedAdjList.PAGE_BITS) + secondSize};
+        var compressedAdjList = new CompressedSortedAdjList(1, offsets, pages,
+            firstIds.length + secondIds.length);
+        assertThat(decode(compressedAdjList, 0, (short) 0)).isEqualTo(firstIds);
+        assertThat(decode(compressedAdjList, 1, (short) 0)).isEqualTo(secondIds);
+        assertThat(decode(compressedAdjList, 1, (short) 0, 70, 250)).isEqualTo(
+            Arrays.copyOfRange(secondIds, 70, 250));
+        assertThat(compressedAdjList.size(1, (short) 0)).isEqualTo(secondIds.length);
+    }
+
+    @Test
+    public void testIntersect() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            var slices = makeSlices(random);
+            var adjList = makeAdjList(slices);
+            var compressedAdjList = CompressedSortedAdjList.make(adjList);
+            var neighbours = new Neighbours(1000);
+            var compressedNeighbours = new Neighbours(1000);
+            for (var vertexId = 0; vertexId < NUM_VERTICES; vertexId++) {
+                for (short label = 0; label < NUM_LABELS; label++) {
+                    var maxId = 1 + random.nextInt(trial % 2 == 0 ? 1000 : 100000);
+                    var someNeighbours = toNeighbours(makeSortedIds(random, random.nextInt(500),
+                        maxId));
+                    adjList.intersect(vertexId, label, someNeighbours, neighbours);
+                    compressedAdjList.intersect(vertexId, label, someNeighbours,
+                        compressedNeighbours);
+                    assertThat(Arrays.copyOfRange(compressedNeighbours.Ids, 0,
+                        compressedNeighbours.endIdx)).isEqualTo(Arrays.copyOfRange(
+                        neighbours.Ids, neighbours.startIdx, neighbours.endIdx));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSortIsNoOp() {
+        var slices = new int[][] {{1, 5, 9}, {}, {2, 3}};
+        var compressedAdjList = CompressedSortedAdjList.make(makeAdjList(slices, 1));
+        compressedAdjList.sort();
+        compressedAdjList.sort(0, slices.length);
+        for (var vertexId = 0; vertexId < slices.length; vertexId++) {
+            assertThat(decode(compressedAdjList, vertexId, (short) 0)).isEqualTo(slices[vertexId]);
+        }
+    }
+
+    private static int[][] makeSlices(Random random) {
+        var slices = new int[NUM_VERTICES * NUM_LABELS][];
+        for (var i = 0; i < slices.length; i++) {
+            // sizes around multiples of the block size and some larger IDs to test the encoding.
+            var size = random.nextInt(4) == 0 ? random.nextInt(3) * CompressedSortedAdjList
+                .BLOCK_SIZE + random.nextInt(3) - 1 : random.nextInt(300);
+            var maxId = random.nextBoolean() ? 1000 : Integer.MAX_VALUE;
+            slices[i] = makeSortedIds(random, Math.max(size, 0), maxId);
+        }
+        return slices;
+    }
+
+    private static int[] makeSortedIds(Random random, int size, int maxId) {
+        var ids = new TreeSet<Integer>();
+        for (var i = 0; i < size; i++) {
+            ids.add(random.nextInt(maxId));
+        }
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static SortedAdjList makeAdjList(int[][] slices) {
+        return makeAdjList(slices, NUM_LABELS);
+    }
+
+    private static SortedAdjList makeAdjList(int[][] slices, int numLabels) {
+        var sizes = new long[slices.length + 1];
+        for (var i = 0; i < slices.length; i++) {
+            sizes[i + 1] = slices[i].length;
+        }
+        var adjList = new SortedAdjList(numLabels, sizes);
+        var offsets = adjList.getOffsets();
+        for (var i = 0; i < slices.length; i++) {
+            for (var j = 0; j < slices[i].length; j++) {
+                adjList.setNeighbourId(offsets[i] + j, slices[i][j]);
+            }
+        }
+        return adjList;
+    }
+
+    private static Neighbours toNeighbours(int[] ids) {
+        var neighbours = new Neighbours();
+        neighbours.Ids = ids;
+        neighbours.endIdx = ids.length;
+        return neighbours;
+    }
+
+    private static int[] decode(SortedAdjList adjList, int vertexId, short label) {
+        var neighbours = new Neighbours();
+        adjList.setNeighbourIds(vertexId, label, neighbours);
+        return Arrays.copyOfRange(neighbours.Ids, neighbours.startIdx, neighbours.endIdx);
+    }
+
+    private static int[] decode(SortedAdjList adjList, int vertexId, short label,
+        int fromPosition, int toPosition) {
+        var neighbours = new Neighbours();
+        adjList.setNeighbourIds(vertexId, label, fromPosition, toPosition, neighbours);
+        return Arrays.copyOfRange(neighbours.Ids, neighbours.startIdx, neighbours.endIdx);
+    }
+}
@@ -0,0 +1,109 @@
+package ca.waterloo.dsg.graphflow.storage;
+
+import ca.waterloo.dsg.graphflow.storage.IntersectionKernel.ScalarIntersectionKernel;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the {@link IntersectionKernel} implementations against the intersection of sets. The SIMD
+ * kernel is only tested when it is built and its module is available.
+ */
+public class IntersectionKernelTest {
+
+    private static final int NUM_TRIALS = 2000;
+
+    @Test
+    public void testScalarKernel() {
+        testKernel(new ScalarIntersectionKernel());
+    }
+
+    @Test
+    public void testDefaultKernel() {
+        testKernel(IntersectionKernel.load());
+    }
+
+    @Test
+    public void testVectorKernelWith4Lanes() {
+        testKernel(makeVectorKernel(4));
+    }
+
+    @Test
+    public void testVectorKernelWith8Lanes() {
+        testKernel(makeVectorKernel(8));
+    }
+
+    @Test
+    public void testVectorKernelWith16Lanes() {
+        testKernel(makeVectorKernel(16));
+    }
+
+    @Test
+    public void testEmptyRanges() {
+        var kernel = IntersectionKernel.load();
+        var ids = new int[] {1, 2, 3};
+        var outIds = new int[3];
+        assertThat(kernel.intersect(ids, 0, 0, ids, 0, 3, outIds, 0)).isEqualTo(0);
+        assertThat(kernel.intersect(ids, 0, 3, ids, 3, 3, outIds, 0)).isEqualTo(0);
+    }
+
+    private static IntersectionKernel makeVectorKernel(int numLanes) {
+        try {
+            return (IntersectionKernel) Class.forName(IntersectionKernel.VECTOR_KERNEL_CLASS_NAME)
+                .getConstructor(int.class).newInstance(numLanes);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            Assume.assumeNoException(e);
+            return null;
+        }
+    }
+
+    private static void testKernel(IntersectionKernel kernel) {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            var maxId = 1 + random.nextInt(trial % 2 == 0 ? 100 : 10000);
+            var someIds = makeSortedIds(random, random.nextInt(200), maxId);
+            var otherIds = makeSortedIds(random, random.nextInt(200), maxId);
+            // offset the ranges within larger arrays to test the start and end indices.
+            var someArray = pad(someIds, 3, 5);
+            var otherArray = pad(otherIds, 7, 2);
+            var outIds = new int[Math.min(someIds.length, otherIds.length) + 1];
+            var outEndIdx = kernel.intersect(someArray, 3, 3 + someIds.length, otherArray, 7,
+                7 + otherIds.length, outIds, 1);
+            assertThat(Arrays.copyOfRange(outIds, 1, outEndIdx)).isEqualTo(
+                intersect(someIds, otherIds));
+        }
+    }
+
+    private static int[] makeSortedIds(Random random, int size, int maxId) {
+        var ids = new TreeSet<Integer>();
+        for (var i = 0; i < size; i++) {
+            ids.add(random.nextInt(maxId));
+        }
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[] pad(int[] ids, int numBefore, int numAfter) {
+        var padded = new int[numBefore + ids.length + numAfter];
+        Arrays.fill(padded, -1);
+        System.arraycopy(ids, 0, padded, numBefore, ids.length);
+        return padded;
+    }
+
+    private static int[] intersect(int[] someIds, int[] otherIds) {
+        var ids = new TreeSet<Integer>();
+        for (var id : someIds) {
+            ids.add(id);
+        }
+        var otherIdsSet = new TreeSet<Integer>();
+        for (var id : otherIds) {
+            otherIdsSet.add(id);
+        }
+        ids.retainAll(otherIdsSet);
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
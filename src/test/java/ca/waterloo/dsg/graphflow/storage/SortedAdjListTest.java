@@ -0,0 +1,291 @@
+package ca.waterloo.dsg.graphflow.storage;
+
+import ca.waterloo.dsg.graphflow.plan.operator.extend.EI.Neighbours;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the intersection of a slice of a {@link SortedAdjList} with some neighbours against a
+ * naive merge, for each of the merge, galloping and binary probes branches the sizes of the two
+ * sets pick, and the k-way intersection of several sets against merging them two at a time.
+ */
+public class SortedAdjListTest {
+
+    private static final int NUM_TRIALS = 500;
+    private static final int RATIO = SortedAdjList.GALLOPING_SIZE_RATIO;
+
+    @Test
+    public void testEmptySides() {
+        var ids = new int[] {1, 4, 9};
+        testIntersect(new int[0], new int[0]);
+        testIntersect(new int[0], ids);
+        testIntersect(ids, new int[0]);
+    }
+
+    @Test
+    public void testMerge() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            var size = 1 + random.nextInt(100);
+            var someSize = 1 + random.nextInt(100);
+            testIntersect(random, size, someSize);
+        }
+    }
+
+    @Test
+    public void testMergeJustBelowGallopingSizeRatio() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            var someSize = 1 + random.nextInt(40);
+            // one less than the ratio times the smaller size.
+            testIntersect(random, someSize * RATIO - 1, someSize);
+            testIntersect(random, someSize, someSize * RATIO - 1);
+        }
+    }
+
+    @Test
+    public void testGallopingOverAdjList() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            // the smaller size is at least the ratio for its square not to be below the larger.
+            var someSize = RATIO + random.nextInt(40);
+            testIntersect(random, someSize * RATIO, someSize);
+            testIntersect(random, someSize * RATIO + random.nextInt(someSize * (someSize - RATIO) +
+                1), someSize);
+        }
+    }
+
+    @Test
+    public void testGallopingOverSomeNeighbours() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            var size = 1 + random.nextInt(40);
+            testIntersect(random, size, size * RATIO);
+            testIntersect(random, size, size * RATIO + random.nextInt(1000));
+        }
+    }
+
+    @Test
+    public void testBinaryProbes() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            // the square of the smaller size is below the larger one.
+            var someSize = 1 + random.nextInt(RATIO - 1);
+            testIntersect(random, someSize * RATIO, someSize);
+            testIntersect(random, someSize * RATIO + random.nextInt(1000), someSize);
+        }
+    }
+
+    @Test
+    public void testSharedEnds() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            for (var sizes : getSizesOfEachBranch()) {
+                var maxId = 4 * Math.max(sizes[0], sizes[1]);
+                var ids = makeSortedIds(random, sizes[0], maxId);
+                var someIds = makeSortedIds(random, sizes[1], maxId);
+                ids[0] = someIds[0] = -1;
+                ids[ids.length - 1] = someIds[someIds.length - 1] = maxId;
+                testIntersect(ids, someIds);
+            }
+        }
+    }
+
+    @Test
+    public void testDuplicatesAtTheEnds() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            // the merge kernels expect no duplicates, so only the galloping and binary probes
+            // branches are tested.
+            for (var sizes : Arrays.copyOfRange(getSizesOfEachBranch(), 1, 4)) {
+                var maxId = 4 * Math.max(sizes[0], sizes[1]);
+                var ids = makeSortedIds(random, sizes[0], maxId);
+                var someIds = makeSortedIds(random, sizes[1], maxId);
+                ids[0] = ids[1] = someIds[0] = someIds[1] = -1;
+                ids[ids.length - 1] = ids[ids.length - 2] = maxId;
+                someIds[someIds.length - 1] = someIds[someIds.length - 2] = maxId;
+                testIntersect(ids, someIds);
+            }
+        }
+    }
+
+    @Test
+    public void testGallop() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            var ids = makeSortedIds(random, random.nextInt(200), 1000);
+            var idx = random.nextInt(ids.length + 1);
+            var id = random.nextInt(1100) - 50;
+            var expectedIdx = idx;
+            while (expectedIdx < ids.length && ids[expectedIdx] < id) {
+                expectedIdx++;
+            }
+            assertThat(SortedAdjList.gallop(ids, idx, ids.length, id)).isEqualTo(expectedIdx);
+        }
+    }
+
+    @Test
+    public void testKWayIntersect() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            var sets = new int[3 + random.nextInt(4)][];
+            // a small range of IDs for the sets to have IDs in common.
+            var maxId = 50 + random.nextInt(200);
+            for (var i = 0; i < sets.length; i++) {
+                sets[i] = makeSortedIds(random, 1 + random.nextInt(maxId / 2), maxId);
+            }
+            testKWayIntersect(sets);
+        }
+    }
+
+    @Test
+    public void testKWayIntersectWithAnEmptySet() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            var sets = new int[3 + random.nextInt(4)][];
+            for (var i = 0; i < sets.length; i++) {
+                sets[i] = makeSortedIds(random, 1 + random.nextInt(100), 200);
+            }
+            sets[random.nextInt(sets.length)] = new int[0];
+            testKWayIntersect(sets);
+        }
+    }
+
+    @Test
+    public void testKWayIntersectWithAShortSet() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            var sets = new int[3 + random.nextInt(4)][];
+            for (var i = 0; i < sets.length; i++) {
+                sets[i] = makeSortedIds(random, 500 + random.nextInt(500), 2000);
+            }
+            // the short set is galloped over by the long ones, its IDs taken from one of them
+            // half of the time for the intersection not to be empty.
+            var shortIdx = random.nextInt(sets.length);
+            var shortSet = makeSortedIds(random, 1 + random.nextInt(3), 2000);
+            if (random.nextBoolean()) {
+                var longSet = sets[(shortIdx + 1) % sets.length];
+                for (var i = 0; i < shortSet.length; i++) {
+                    shortSet[i] = longSet[random.nextInt(longSet.length)];
+                }
+                shortSet = Arrays.stream(shortSet).sorted().distinct().toArray();
+            }
+            sets[shortIdx] = shortSet;
+            testKWayIntersect(sets);
+        }
+    }
+
+    @Test
+    public void testKWayIntersectWithNoCommonId() {
+        var random = new Random(0);
+        for (var trial = 0; trial < NUM_TRIALS; trial++) {
+            var sets = new int[3 + random.nextInt(4)][];
+            for (var i = 0; i < sets.length; i++) {
+                sets[i] = makeSortedIds(random, 1 + random.nextInt(100), 200);
+            }
+            // the IDs the sets have in common are removed from one of them.
+            var commonIds = merge(sets);
+            var setIdx = random.nextInt(sets.length);
+            sets[setIdx] = Arrays.stream(sets[setIdx]).filter(id -> Arrays.binarySearch(
+                commonIds, id) < 0).toArray();
+            testKWayIntersect(sets);
+        }
+        // each pair of sets has IDs in common but not all of them: multiples of 2, 3 and 5 but
+        // not of 30.
+        var sets = new int[3][];
+        for (var i = 0; i < sets.length; i++) {
+            var factor = new int[] {2, 3, 5}[i];
+            sets[i] = IntStream.range(0, 1000).filter(id -> id % factor == 0 && id % 30 != 0)
+                .toArray();
+        }
+        testKWayIntersect(sets);
+    }
+
+    /**
+     * @return the sizes of the adjacency list and the other set picking a merge, galloping over
+     * the adjacency list, galloping over the other set and binary probes.
+     */
+    private static int[][] getSizesOfEachBranch() {
+        return new int[][] {{40, 30}, {RATIO * RATIO, RATIO}, {4, RATIO * 5}, {RATIO * 5, 4}};
+    }
+
+    private static void testIntersect(Random random, int size, int someSize) {
+        var maxId = 2 * Math.max(size, someSize) + random.nextInt(1000);
+        testIntersect(makeSortedIds(random, size, maxId), makeSortedIds(random, someSize, maxId));
+    }
+
+    private static void testIntersect(int[] ids, int[] someIds) {
+        var adjList = new SortedAdjList(1 /* numLabelsOrTypes */, new long[] {0, ids.length});
+        for (var i = 0; i < ids.length; i++) {
+            adjList.setNeighbourId(i, ids[i]);
+        }
+        // offsets the IDs within a larger array to test the start and end indices.
+        var someNeighbours = new Neighbours();
+        someNeighbours.Ids = new int[someIds.length + 5];
+        Arrays.fill(someNeighbours.Ids, -1);
+        System.arraycopy(someIds, 0, someNeighbours.Ids, 3, someIds.length);
+        someNeighbours.startIdx = 3;
+        someNeighbours.endIdx = 3 + someIds.length;
+        var neighbours = new Neighbours(Math.min(ids.length, someIds.length));
+        adjList.intersect(0, (short) 0, someNeighbours, neighbours);
+        assertThat(Arrays.copyOfRange(neighbours.Ids, neighbours.startIdx, neighbours.endIdx))
+            .isEqualTo(merge(ids, someIds));
+    }
+
+    private static void testKWayIntersect(int[][] sets) {
+        // offsets the IDs of each set within a larger array to test the start and end indices.
+        var someNeighbours = new Neighbours[sets.length];
+        for (var i = 0; i < sets.length; i++) {
+            someNeighbours[i] = new Neighbours();
+            someNeighbours[i].Ids = new int[sets[i].length + 5];
+            Arrays.fill(someNeighbours[i].Ids, -1);
+            System.arraycopy(sets[i], 0, someNeighbours[i].Ids, 3, sets[i].length);
+            someNeighbours[i].startIdx = 3;
+            someNeighbours[i].endIdx = 3 + sets[i].length;
+        }
+        var neighbours = new Neighbours(Arrays.stream(sets).mapToInt(set -> set.length).min()
+            .getAsInt());
+        SortedAdjList.intersect(someNeighbours, neighbours);
+        assertThat(Arrays.copyOfRange(neighbours.Ids, neighbours.startIdx, neighbours.endIdx))
+            .isEqualTo(merge(sets));
+    }
+
+    private static int[] merge(int[][] sets) {
+        var outIds = sets[0];
+        for (var i = 1; i < sets.length; i++) {
+            outIds = merge(outIds, sets[i]);
+        }
+        return outIds;
+    }
+
+    private static int[] merge(int[] ids, int[] otherIds) {
+        var outIds = new int[Math.min(ids.length, otherIds.length)];
+        var numOutIds = 0;
+        for (int idx = 0, otherIdx = 0; idx < ids.length && otherIdx < otherIds.length; ) {
+            if (ids[idx] < otherIds[otherIdx]) {
+                idx++;
+            } else if (ids[idx] > otherIds[otherIdx]) {
+                otherIdx++;
+            } else {
+                outIds[numOutIds++] = ids[idx];
+                idx++;
+                otherIdx++;
+            }
+        }
+        return Arrays.copyOf(outIds, numOutIds);
+    }
+
+    private static int[] makeSortedIds(Random random, int size, int maxId) {
+        var ids = new TreeSet<Integer>();
+        while (ids.size() < size) {
+            ids.add(random.nextInt(maxId));
+        }
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
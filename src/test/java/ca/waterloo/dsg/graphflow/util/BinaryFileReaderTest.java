@@ -0,0 +1,92 @@
+package ca.waterloo.dsg.graphflow.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests that a {@link BinaryFileReader} reads back what a {@link BinaryFileWriter} writes, with
+ * windows small enough for the scalars and arrays to be spread over several of them.
+ */
+public class BinaryFileReaderTest {
+
+    private static final long[] WINDOW_SIZES = {Long.BYTES, 13, 64, 1000,
+        BinaryFileReader.MAX_WINDOW_SIZE};
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("binary_file_reader_test", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        var random = new Random(0);
+        var bytes = new byte[101];
+        random.nextBytes(bytes);
+        var shorts = new short[77];
+        for (var i = 0; i < shorts.length; i++) {
+            shorts[i] = (short) random.nextInt();
+        }
+        var ints = random.ints(333).toArray();
+        var longs = random.longs(55).toArray();
+        try (var writer = new BinaryFileWriter(file.getAbsolutePath())) {
+            writer.writeInt(-7);
+            writer.writeBoolean(true);
+            writer.writeLong(Long.MIN_VALUE);
+            writer.writeBytes(bytes);
+            writer.writeBoolean(false);
+            writer.writeShorts(shorts);
+            writer.writeInt(Integer.MAX_VALUE);
+            writer.writeInts(ints);
+            writer.writeInts(new int[0]);
+            writer.writeLongs(longs);
+            writer.writeInt(42);
+        }
+        for (var windowSize : WINDOW_SIZES) {
+            try (var reader = new BinaryFileReader(file.getAbsolutePath(), windowSize)) {
+                assertThat(reader.readInt()).isEqualTo(-7);
+                assertThat(reader.readBoolean()).isTrue();
+                assertThat(reader.readLong()).isEqualTo(Long.MIN_VALUE);
+                assertThat(reader.readBytes()).isEqualTo(bytes);
+                assertThat(reader.readBoolean()).isFalse();
+                assertThat(reader.readShorts()).isEqualTo(shorts);
+                assertThat(reader.readInt()).isEqualTo(Integer.MAX_VALUE);
+                assertThat(reader.readInts()).isEqualTo(ints);
+                assertThat(reader.readInts()).isEmpty();
+                assertThat(reader.readLongs()).isEqualTo(longs);
+                assertThat(reader.readInt()).isEqualTo(42);
+            }
+        }
+    }
+
+    @Test
+    public void testUnexpectedEndOfFile() throws IOException {
+        try (var writer = new BinaryFileWriter(file.getAbsolutePath())) {
+            writer.writeInt(1);
+            writer.writeLong(3 /* array length */);
+            writer.writeInt(2);
+        }
+        for (var windowSize : WINDOW_SIZES) {
+            try (var reader = new BinaryFileReader(file.getAbsolutePath(), windowSize)) {
+                assertThat(reader.readInt()).isEqualTo(1);
+                assertThatThrownBy(reader::readInts)
+                    .isInstanceOf(IOException.class)
+                    .hasMessage("Unexpected end of file at position 12.");
+            }
+        }
+    }
+}